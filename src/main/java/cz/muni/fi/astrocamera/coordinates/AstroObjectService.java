@@ -2,6 +2,7 @@ package cz.muni.fi.astrocamera.coordinates;
 
 import cz.muni.fi.astrocamera.entity.AstronomicalObject;
 import java.io.File;
+import java.util.List;
 
 /**
  *
@@ -29,4 +30,32 @@ public interface AstroObjectService {
      */
     public AstronomicalObject loadObjectFromFile(File file, AstronomicalObject astroObject);
 
+    /**
+     * Suggests names from file for typed text, names starting with the text
+     * are first, then names with small typos
+     *
+     * @param file file with coordinates in format name#RA#Dec#\n
+     * @param text typed part of name
+     * @param limit maximal number of names
+     * @return names from file, empty in case of error
+     */
+    public List<String> suggestNames(File file, String text, int limit);
+
+    /**
+     * Appends object to file with coordinates unless file already contains
+     * its name
+     *
+     * @param file file with coordinates in format name#RA#Dec#\n
+     * @param astroObject AstronomicalObject with filled name and coordinates
+     * @return true if object was appended
+     */
+    public boolean saveObjectToFile(File file, AstronomicalObject astroObject);
+
+    /**
+     * @param file file with coordinates in format name#RA#Dec#\n
+     * @return catalog of file, the same catalog is used until other file is
+     * selected
+     */
+    public CoordinateCatalog getCatalog(File file);
+
 }
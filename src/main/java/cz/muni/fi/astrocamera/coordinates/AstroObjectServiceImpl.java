@@ -2,14 +2,22 @@ package cz.muni.fi.astrocamera.coordinates;
 
 import cz.muni.fi.astrocamera.entity.AstronomicalObject;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
 import org.apache.log4j.Logger;
 
 /**
@@ -19,6 +27,15 @@ import org.apache.log4j.Logger;
 public class AstroObjectServiceImpl implements AstroObjectService {
 
     private final static Logger logger = Logger.getLogger(AstroObjectServiceImpl.class);
+    public static final String SIMBAD_URL = "http://simbad.u-strasbg.fr/simbad/sim-script";
+    public static final String AAVSO_URL = "https://www.aavso.org/apps/vsp/api/chart/";
+    private static final int TIMEOUT = 10000; //ms, connecting to and reading from online database
+    private int timeout = TIMEOUT;
+    private String simbadUrl = SIMBAD_URL;
+    private String aavsoUrl = AAVSO_URL;
+    private ResolverCache cache;
+    private CoordinateCatalog catalog; //catalog of the last used file
+    private long compileSize = -1;     //bytes, larger files are compiled, -1 never
 
     public AstroObjectServiceImpl() {
     }
@@ -36,9 +53,26 @@ public class AstroObjectServiceImpl implements AstroObjectService {
         logger.debug("getObjectOnline()");
         try {
             validate(astroObject);
-            searchSimbadDatabase(astroObject);
-            if (astroObject.getRa() == null) {
-                searchAavsoDatabase(astroObject);
+            ResolverCache.Resolution cached = cache == null ? null : cache.get(astroObject.getName());
+            if (cached != null && cache.isFresh(cached)) {
+                logger.debug("Resolver cache hit for " + astroObject.getName());
+                astroObject.setRa(cached.getRa());
+                astroObject.setDec(cached.getDec());
+                return astroObject;
+            }
+            try {
+                resolveOnline(astroObject);
+                if (cache != null) {
+                    cache.put(astroObject.getName(), astroObject.getRa(), astroObject.getDec());
+                }
+            } catch (IOException ex) {
+                logger.error("Online databases are not available: " + ex.getMessage());
+                //expired coordinates are better than none
+                if (cached != null && cached.isFound()) {
+                    logger.info("Using expired cached coordinates of " + astroObject.getName());
+                    astroObject.setRa(cached.getRa());
+                    astroObject.setDec(cached.getDec());
+                }
             }
         } catch (IllegalArgumentException ex) {
             logger.error("Invalid AstronomicalObject.", ex);
@@ -47,6 +81,114 @@ public class AstroObjectServiceImpl implements AstroObjectService {
 
     }
 
+    /**
+     * Searches SIMBAD and then AAVSO if SIMBAD doesn't know the name
+     *
+     * @param astroObject AstronomicalObject with filled name
+     * @throws IOException when name is not found and some database was not
+     * available, so the name may exist
+     */
+    private void resolveOnline(AstronomicalObject astroObject) throws IOException {
+        IOException failure = null;
+        try {
+            searchSimbadDatabase(astroObject);
+        } catch (IOException ex) {
+            failure = ex;
+            astroObject.setRa(null);
+            astroObject.setDec(null);
+        }
+        if (astroObject.getRa() == null) {
+            try {
+                queryAavsoDatabase(astroObject);
+            } catch (IOException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (astroObject.getRa() == null && failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Appends object to file with coordinates unless file already contains
+     * its name
+     *
+     * @param file file with coordinates in format name#RA#Dec#\n
+     * @param astroObject AstronomicalObject with filled name and coordinates
+     * @return true if object was appended
+     */
+    @Override
+    public boolean saveObjectToFile(File file, AstronomicalObject astroObject) {
+        if (astroObject.getName() == null || astroObject.getRa() == null || astroObject.getDec() == null
+                || astroObject.getName().contains("#") || astroObject.getName().trim().isEmpty()) {
+            return false;
+        }
+        try {
+            if (getCatalog(file).find(astroObject.getName()) != null) {
+                return false;
+            }
+            try (FileWriter fileWriter = new FileWriter(file, true);
+                    BufferedWriter bw = new BufferedWriter(fileWriter);
+                    PrintWriter out = new PrintWriter(bw)) {
+                out.println();
+                out.print(astroObject.getName().trim() + "#" + astroObject.getRa() + "#" + astroObject.getDec() + "#");
+            }
+            logger.info("Object " + astroObject.getName() + " saved to " + file);
+            return true;
+        } catch (IOException ex) {
+            logger.error("Error while writing into file with coordinates: ", ex);
+            return false;
+        }
+    }
+
+    public String getSimbadUrl() {
+        return simbadUrl;
+    }
+
+    /**
+     * @param simbadUrl address of SIMBAD script interface
+     */
+    public void setSimbadUrl(String simbadUrl) {
+        this.simbadUrl = simbadUrl;
+    }
+
+    public String getAavsoUrl() {
+        return aavsoUrl;
+    }
+
+    /**
+     * @param aavsoUrl address of AAVSO chart API
+     */
+    public void setAavsoUrl(String aavsoUrl) {
+        this.aavsoUrl = aavsoUrl;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout ms, connecting to and reading from online database
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public ResolverCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache cache of online resolutions, null disables caching
+     */
+    public void setCache(ResolverCache cache) {
+        this.cache = cache;
+    }
+
     /**
      * Gets Right Ascension (RA) and Declination (Dec) for given name
      *
@@ -60,20 +202,12 @@ public class AstroObjectServiceImpl implements AstroObjectService {
         logger.debug("loadObjectFromFile()");
         try {
             validate(astroObject);
-            String name = astroObject.getName();
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    if (line.contains(name)) {
-                        String[] lineParts = line.split("#");
-                        astroObject.setRa(lineParts[1]);
-                        astroObject.setDec(lineParts[2]);
-                        break;
-                    }
-                }
+            AstronomicalObject found = getCatalog(file).find(astroObject.getName());
+            if (found != null) {
+                astroObject.setRa(found.getRa());
+                astroObject.setDec(found.getDec());
             }
-
-        } catch (FileNotFoundException ex) {
+        } catch (NoSuchFileException ex) {
             logger.error("File not Found.", ex);
         } catch (IOException ex) {
             logger.error("Error while reading file.", ex);
@@ -83,6 +217,41 @@ public class AstroObjectServiceImpl implements AstroObjectService {
         return astroObject;
     }
 
+    @Override
+    public List<String> suggestNames(File file, String text, int limit) {
+        try {
+            return getCatalog(file).search(text, limit);
+        } catch (IOException ex) {
+            logger.error("Error while reading file.", ex);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public synchronized CoordinateCatalog getCatalog(File file) {
+        Path path = file.toPath().toAbsolutePath();
+        if (catalog == null || !catalog.getFile().equals(path)) {
+            if (compileSize >= 0 && file.length() >= compileSize && Files.isWritable(path.getParent())) {
+                catalog = new CompiledCatalog(path);
+            } else {
+                catalog = new CoordinateCatalogImpl(path);
+            }
+        }
+        return catalog;
+    }
+
+    public long getCompileSize() {
+        return compileSize;
+    }
+
+    /**
+     * @param compileSize bytes, files with coordinates of at least this size
+     * are compiled into memory mapped binary file, -1 disables compilation
+     */
+    public synchronized void setCompileSize(long compileSize) {
+        this.compileSize = compileSize;
+    }
+
     /**
      * Validates given AstronomicalObject if it is different from null and has
      * filled name
@@ -105,7 +274,7 @@ public class AstroObjectServiceImpl implements AstroObjectService {
      * @param astroObject AstronomicalObject with name of queried object
      * @return AstronomicalObject containing coordinates or empty string in case of error
      */
-    private AstronomicalObject searchSimbadDatabase(AstronomicalObject astroObject) {
+    private AstronomicalObject searchSimbadDatabase(AstronomicalObject astroObject) throws IOException {
         logger.debug("searchSimbadDatabase()");
         URL oracle;
         String inputLine1;
@@ -115,15 +284,20 @@ public class AstroObjectServiceImpl implements AstroObjectService {
         name = name.replace("+", "%2B"); //replace + signs for special names
         name = name.replace(" ", "+"); //replace spaces with + signs in multi word         
         try {
-            oracle = new URL("http://simbad.u-strasbg.fr/simbad/sim-script?submit=submit+script&"
+            oracle = new URL(simbadUrl + "?submit=submit+script&"
                     + "script=format+object+form1+%22%25IDLIST%281%29+%3A+%25COO%28RA%29%3B%25COO%28D%29%22%0D%0A"
                     + "query+id+"
                     + name //query for object
                     + "%0D%0A"
                     + "format+display");
 
-            URLConnection yc = oracle.openConnection();
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(yc.getInputStream()))) {
+            InputStream response = open(oracle);
+            if (response == null) {
+                astroObject.setRa(null);
+                astroObject.setDec(null);
+                return astroObject;
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(response))) {
                 Boolean check = false;
                 int i = 0;
                 //retrieve the line with coordinates
@@ -142,8 +316,7 @@ public class AstroObjectServiceImpl implements AstroObjectService {
 
         } catch (MalformedURLException ex) {
             logger.error("Bad URL.", ex);
-        } catch (IOException ex) {
-            logger.error("Error when reading response from server.", ex);
+            throw ex;
         }
         
         logger.info("Line with coordinates: " + resultLine);
@@ -151,6 +324,39 @@ public class AstroObjectServiceImpl implements AstroObjectService {
         return astroObject;
     }
 
+    /**
+     * Opens response of online database, HTTP status tells whether the
+     * database doesn't know the name or is not available
+     *
+     * @param url query
+     * @return response or null when database answered that name doesn't exist
+     * @throws IOException when database cannot be reached or has an error
+     */
+    private InputStream open(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        if (!(connection instanceof HttpURLConnection)) {
+            return connection.getInputStream();
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        int code = http.getResponseCode();
+        if (code >= 200 && code < 300) {
+            return http.getInputStream();
+        }
+        InputStream error = http.getErrorStream();
+        if (error != null) {
+            error.close();
+        }
+        //timeout and rate limit say nothing about the name
+        if (code >= 400 && code < 500 && code != HttpURLConnection.HTTP_CLIENT_TIMEOUT && code != 429) {
+            logger.info("Name not found by " + url.getHost() + ", HTTP " + code);
+            return null;
+        }
+        String message = http.getResponseMessage();
+        throw new IOException("HTTP " + code + (message == null ? "" : " " + message) + " from " + url.getHost());
+    }
+
     /**
      * Parses RA and DEC from given String line into given AstronomicalObject
      * astroObject
@@ -184,6 +390,17 @@ public class AstroObjectServiceImpl implements AstroObjectService {
     }
 
     public AstronomicalObject searchAavsoDatabase(AstronomicalObject astroObject) {
+        try {
+            queryAavsoDatabase(astroObject);
+        } catch (IOException ex) {
+            logger.error("Error when reading response from server.", ex);
+            astroObject.setRa(null);
+            astroObject.setDec(null);
+        }
+        return astroObject;
+    }
+
+    private AstronomicalObject queryAavsoDatabase(AstronomicalObject astroObject) throws IOException {
         logger.debug("searchAavsoDatabase()");
         URL oracle;
         String inputLine;
@@ -193,11 +410,16 @@ public class AstroObjectServiceImpl implements AstroObjectService {
         name = name.replace("+", "%2B"); //replace + signs for special names
         name = name.replace(" ", "+"); //replace spaces with + signs in multi word         
         try {
-            oracle = new URL("https://www.aavso.org/apps/vsp/api/chart/?format=xml&fov=60&maglimit=14.5&star="
+            oracle = new URL(aavsoUrl + "?format=xml&fov=60&maglimit=14.5&star="
                     + name);//object's name
 
-            URLConnection yc = oracle.openConnection();
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(yc.getInputStream()))) {
+            InputStream response = open(oracle);
+            if (response == null) {
+                astroObject.setRa(null);
+                astroObject.setDec(null);
+                return astroObject;
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(response))) {
                 int i = 0;
                 //retrieve the line with coordinates - only 1 line returned, cycle just in case of change of output format
                 while ((inputLine = in.readLine()) != null) {
@@ -213,8 +435,7 @@ public class AstroObjectServiceImpl implements AstroObjectService {
             }
         } catch (MalformedURLException ex) {
             logger.error("Bad URL.", ex);
-        } catch (IOException ex) {
-            logger.error("Error when reading response from server.", ex);
+            throw ex;
         }
         if (decLine.length() > 1 && raLine.length() > 1) {
             //parse info here
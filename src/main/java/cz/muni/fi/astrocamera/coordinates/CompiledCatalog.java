@@ -0,0 +1,458 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import cz.muni.fi.astrocamera.entity.AstronomicalObject;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import org.apache.log4j.Logger;
+
+/**
+ * Coordinate catalog compiled from text file into binary file which is
+ * memory mapped, for catalogs too large to be parsed on every start.
+ *
+ * Binary file has header, records sorted by normalized name, k-d tree of
+ * positions and pool of UTF-8 strings. Record is RA and DEC in degrees (NaN
+ * when they cannot be parsed), offset and length of normalized name and
+ * offset and length of name#RA#Dec as written in text file. Tree is stored as
+ * written by {@link SkyIndex}, with record numbers instead of input
+ * positions. Lookups read the mapped file directly, only the found object is
+ * created, so heap use doesn't grow with catalog.
+ *
+ * Header keeps size and modification time of text file and offset of the
+ * first line which was not compiled. Lines appended later, e.g. by saving
+ * resolved objects, are read into small {@link CoordinateCatalogImpl} over
+ * the mapped file and searched together with it. The text file is compiled
+ * again only when it got shorter, changed without growing or when the
+ * appended lines exceed {@link #OVERLAY_LIMIT}. File must be smaller than
+ * 2 GB.
+ * When compiled file cannot be replaced, e.g. because it is still mapped, the
+ * temporary file is used and deleted after the next compilation.
+ *
+ * @author Karel Auf
+ */
+public class CompiledCatalog implements CoordinateCatalog {
+
+    private final static Logger logger = Logger.getLogger(CompiledCatalog.class);
+
+    public static final String SUFFIX = ".cat";
+    private static final int MAGIC = 0x41434154; //ACAT
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int VECTOR_SIZE = 24;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final long TEMPORARY_AGE = 3600000; //ms, older temporary files are left by crash or failed replace
+    public static final long OVERLAY_LIMIT = 1 << 20;  //bytes of appended lines kept out of compiled file
+
+    private final Path file;   //text file
+    private final Path target; //compiled file
+    private long size = -1;    //size of text file when it was compiled
+    private long modified = -1; //modification time of text file when it was compiled
+    private long base;         //offset of the first line of text file which was not compiled
+    private long seenSize = -1;     //size of text file at the last refresh
+    private long seenModified = -1; //modification time of text file at the last refresh
+    private CoordinateCatalogImpl overlay; //lines appended after compilation, null if there are none
+    private Path mapped;       //compiled file which is mapped, temporary file when target cannot be replaced
+    private int count;
+    private ByteBuffer records;
+    private ByteBuffer pool;
+    private SkyIndex sky;
+    private NameSearch names;
+    private final List<String> keys = new Keys();
+
+    /**
+     * @param file text file with coordinates in format name#RA#Dec#,
+     * compiled file has the same name with suffix .cat
+     */
+    public CompiledCatalog(Path file) {
+        this(file, file.resolveSibling(file.getFileName() + SUFFIX));
+    }
+
+    /**
+     * @param file text file with coordinates in format name#RA#Dec#
+     * @param target compiled file
+     */
+    public CompiledCatalog(Path file, Path target) {
+        this.file = file;
+        this.target = target;
+    }
+
+    /**
+     * Maps compiled file, text file is compiled again if it changed other way
+     * than by appending, appended lines are read into overlay
+     */
+    @Override
+    public synchronized void refresh() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long newSize = attributes.size();
+        long newModified = attributes.lastModifiedTime().toMillis();
+        if (newSize == seenSize && newModified == seenModified) {
+            return;
+        }
+        if (records == null) {
+            removeTemporary();
+            //compiled in previous run
+            map(target);
+        }
+        if (!isCurrent(newSize, newModified)) {
+            Path previous = mapped;
+            Path compiled = compile(file, target);
+            if (!map(compiled)) {
+                throw new IOException("Invalid compiled catalog " + compiled);
+            }
+            if (previous != null && !previous.equals(target) && !previous.equals(compiled)) {
+                //superseded temporary file, may still be mapped on some systems
+                delete(previous);
+            }
+        }
+        if (newSize > size) {
+            if (overlay == null) {
+                overlay = new CoordinateCatalogImpl(file, base);
+            }
+            overlay.refresh();
+        }
+        seenSize = newSize;
+        seenModified = newModified;
+    }
+
+    /**
+     * @return true if mapped file was compiled from the beginning of text file
+     * of given size and modification time
+     */
+    private boolean isCurrent(long newSize, long newModified) {
+        if (records == null) {
+            return false;
+        }
+        if (newSize == size) {
+            return newModified == modified;
+        }
+        return newSize > size && newSize - base <= OVERLAY_LIMIT;
+    }
+
+    /**
+     * Deletes temporary files left by compilations whose target could not be
+     * replaced, files of compilation possibly running in another process are
+     * kept
+     */
+    private void removeTemporary() {
+        long limit = System.currentTimeMillis() - TEMPORARY_AGE;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(target.toAbsolutePath().getParent(),
+                target.getFileName() + "*" + TEMPORARY_SUFFIX)) {
+            for (Path temp : stream) {
+                if (Files.getLastModifiedTime(temp).toMillis() < limit) {
+                    delete(temp);
+                }
+            }
+        } catch (IOException ex) {
+            logger.debug("Cannot list temporary files of " + target + ": " + ex.getMessage());
+        }
+    }
+
+    private static void delete(Path temp) {
+        try {
+            Files.deleteIfExists(temp);
+            logger.debug("Temporary file " + temp + " deleted");
+        } catch (IOException ex) {
+            logger.debug("Cannot delete temporary file " + temp + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Finds object by name, appended lines replace compiled ones
+     */
+    @Override
+    public synchronized AstronomicalObject find(String name) throws IOException {
+        refresh();
+        String key = CoordinateCatalogImpl.normalize(name);
+        if (overlay != null) {
+            AstronomicalObject appended = overlay.get(key);
+            if (appended != null) {
+                return appended;
+            }
+        }
+        int i = Collections.binarySearch(keys, key);
+        return i < 0 ? null : object(i);
+    }
+
+    /**
+     * Finds names, names appended after compilation are first
+     */
+    @Override
+    public synchronized List<String> search(String query, int limit) throws IOException {
+        refresh();
+        if (names == null) {
+            names = new NameSearch(keys);
+        }
+        List<String> result = new ArrayList<>();
+        Set<String> found = new HashSet<>();
+        if (overlay != null) {
+            for (String name : overlay.search(query, limit)) {
+                found.add(CoordinateCatalogImpl.normalize(name));
+                result.add(name);
+            }
+        }
+        for (String key : names.search(CoordinateCatalogImpl.normalize(query), limit)) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (found.add(key)) {
+                result.add(object(Collections.binarySearch(keys, key)).getName());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized AstronomicalObject nearest(double ra, double dec, double radius) throws IOException {
+        refresh();
+        int i = sky.nearest(ra, dec, radius);
+        AstronomicalObject nearest = i < 0 ? null : object(i);
+        if (overlay != null) {
+            AstronomicalObject appended = overlay.nearest(ra, dec, radius);
+            if (appended != null && (nearest == null || distance(appended, ra, dec) < distance(nearest, ra, dec))) {
+                nearest = appended;
+            }
+        }
+        return nearest;
+    }
+
+    private static double distance(AstronomicalObject object, double ra, double dec) {
+        return SkyIndex.separation(ra, dec, parse(object.getRa()) * 15, parse(object.getDec()));
+    }
+
+    @Override
+    public synchronized int size() {
+        int n = count;
+        if (overlay != null) {
+            for (String key : overlay.sortedKeys()) {
+                if (Collections.binarySearch(keys, key) < 0) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Compiles text catalog, compiled file is replaced only when the new one
+     * is complete
+     *
+     * @param file text file with coordinates in format name#RA#Dec#
+     * @param target compiled file
+     * @return compiled file, temporary file if target cannot be replaced
+     * @throws IOException when text file cannot be read or compiled file
+     * cannot be written
+     */
+    static Path compile(Path file, Path target) throws IOException {
+        long time = System.currentTimeMillis();
+        //attributes before reading, file appended meanwhile is compiled again
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        CoordinateCatalogImpl text = new CoordinateCatalogImpl(file);
+        text.refresh();
+        String[] sorted = text.sortedKeys();
+        int n = sorted.length;
+        double[] ra = new double[n];
+        double[] dec = new double[n];
+        int[] positioned = new int[n]; //records with valid coordinates
+        int positions = 0;
+        for (int i = 0; i < n; i++) {
+            AstronomicalObject object = text.get(sorted[i]);
+            ra[i] = parse(object.getRa()) * 15;
+            dec[i] = parse(object.getDec());
+            if (Double.isNaN(ra[i]) || Double.isNaN(dec[i]) || Math.abs(dec[i]) > 90) {
+                ra[i] = Double.NaN;
+                dec[i] = Double.NaN;
+            } else {
+                positioned[positions++] = i;
+            }
+        }
+        double[] positionRa = new double[positions];
+        double[] positionDec = new double[positions];
+        for (int i = 0; i < positions; i++) {
+            positionRa[i] = ra[positioned[i]];
+            positionDec[i] = dec[positioned[i]];
+        }
+        SkyIndex index = new SkyIndex(positionRa, positionDec, positions);
+
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), TEMPORARY_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            long poolOffset = HEADER_SIZE + (long) n * RECORD_SIZE + (long) positions * (VECTOR_SIZE + 4);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(attributes.size());
+            out.writeLong(attributes.lastModifiedTime().toMillis());
+            out.writeInt(n);
+            out.writeInt(positions);
+            out.writeLong(poolOffset);
+            out.writeLong(text.getLastLineStart());
+            out.write(new byte[HEADER_SIZE - out.size()]);
+            long offset = 0; //in pool
+            for (int i = 0; i < n; i++) {
+                int keyLength = sorted[i].getBytes(StandardCharsets.UTF_8).length;
+                int textLength = text(text.get(sorted[i])).length;
+                if (offset + keyLength + textLength > Integer.MAX_VALUE - poolOffset) {
+                    throw new IOException("Catalog " + file + " is too large to be compiled.");
+                }
+                out.writeDouble(ra[i]);
+                out.writeDouble(dec[i]);
+                out.writeInt((int) offset);
+                out.writeInt(keyLength);
+                out.writeInt((int) offset + keyLength);
+                out.writeInt(textLength);
+                offset += keyLength + textLength;
+            }
+            DoubleBuffer vectors = index.getVectors();
+            while (vectors.hasRemaining()) {
+                out.writeDouble(vectors.get());
+            }
+            IntBuffer ids = index.getIds();
+            while (ids.hasRemaining()) {
+                out.writeInt(positioned[ids.get()]);
+            }
+            for (int i = 0; i < n; i++) {
+                out.write(sorted[i].getBytes(StandardCharsets.UTF_8));
+                out.write(text(text.get(sorted[i])));
+            }
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        Path compiled = target;
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            //old file may be still mapped on some systems
+            logger.warn("Cannot replace compiled catalog " + target + ", using " + temp, ex);
+            compiled = temp;
+        }
+        logger.info("Coordinate catalog " + file + " compiled in " + (System.currentTimeMillis() - time) + " ms, "
+                + n + " objects, " + positions + " positions");
+        return compiled;
+    }
+
+    /**
+     * Maps compiled file
+     *
+     * @return false if file doesn't exist or is not compiled catalog
+     */
+    private boolean map(Path compiled) throws IOException {
+        if (Files.exists(compiled) && !Files.isRegularFile(compiled)) {
+            logger.warn("File " + compiled + " is not compiled catalog.");
+            return false;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(compiled, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return false;
+            }
+            //mapping stays valid after channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            logger.warn("File " + compiled + " is not compiled catalog.");
+            return false;
+        }
+        int n = buffer.getInt(24);
+        int positions = buffer.getInt(28);
+        long poolOffset = buffer.getLong(32);
+        if (poolOffset != HEADER_SIZE + (long) n * RECORD_SIZE + (long) positions * (VECTOR_SIZE + 4)
+                || poolOffset > buffer.capacity()) {
+            logger.warn("File " + compiled + " is damaged.");
+            return false;
+        }
+        int vectorOffset = HEADER_SIZE + n * RECORD_SIZE;
+        int idOffset = vectorOffset + positions * VECTOR_SIZE;
+        records = slice(buffer, HEADER_SIZE, vectorOffset);
+        sky = new SkyIndex(slice(buffer, vectorOffset, idOffset).asDoubleBuffer(),
+                slice(buffer, idOffset, (int) poolOffset).asIntBuffer());
+        pool = slice(buffer, (int) poolOffset, buffer.capacity());
+        count = n;
+        names = null;
+        size = buffer.getLong(8);
+        modified = buffer.getLong(16);
+        base = buffer.getLong(40);
+        overlay = null;
+        mapped = compiled;
+        logger.info("Coordinate catalog " + compiled + " mapped, " + n + " objects");
+        return true;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(to);
+        duplicate.position(from);
+        return duplicate.slice();
+    }
+
+    private static double parse(String angle) {
+        return CoordinateCatalogImpl.parseAngle(angle, 0, angle.length());
+    }
+
+    private static byte[] text(AstronomicalObject object) {
+        return (object.getName() + "#" + object.getRa() + "#" + object.getDec()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = pool.duplicate();
+        duplicate.position(offset);
+        duplicate.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private AstronomicalObject object(int i) {
+        int record = i * RECORD_SIZE;
+        String text = string(records.getInt(record + 24), records.getInt(record + 28));
+        int first = text.indexOf('#');
+        int second = text.indexOf('#', first + 1);
+        AstronomicalObject object = new AstronomicalObject();
+        object.setName(text.substring(0, first));
+        object.setRa(text.substring(first + 1, second));
+        object.setDec(text.substring(second + 1));
+        return object;
+    }
+
+    /**
+     * Normalized names read from mapped file
+     */
+    private class Keys extends AbstractList<String> implements RandomAccess {
+
+        @Override
+        public String get(int i) {
+            int record = i * RECORD_SIZE;
+            return string(records.getInt(record + 16), records.getInt(record + 20));
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import cz.muni.fi.astrocamera.entity.AstronomicalObject;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Catalog of object coordinates loaded from file in format name#RA#Dec#
+ *
+ * @author Karel Auf
+ */
+public interface CoordinateCatalog {
+
+    /**
+     * Loads lines added to file since the last call, whole file is loaded
+     * again if it was rewritten
+     *
+     * @throws IOException when file cannot be read
+     */
+    public void refresh() throws IOException;
+
+    /**
+     * Finds object by exact name, case and whitespace are ignored
+     *
+     * @param name name of searched object
+     * @return object with filled name and coordinates or null if catalog
+     * doesn't contain the name
+     * @throws IOException when changed file cannot be read
+     */
+    public AstronomicalObject find(String name) throws IOException;
+
+    /**
+     * Finds names starting with query and names similar to query, names
+     * starting with query are first, similar names are ordered by edit
+     * distance
+     *
+     * @param query beginning or misspelled name, case and whitespace are
+     * ignored
+     * @param limit maximal number of names
+     * @return names as written in file
+     * @throws IOException when changed file cannot be read
+     */
+    public List<String> search(String query, int limit) throws IOException;
+
+    /**
+     * Finds object nearest to given position
+     *
+     * @param ra right ascension in degrees
+     * @param dec declination in degrees
+     * @param radius maximal distance in arcseconds
+     * @return object with filled name and coordinates or null if there is no
+     * object within radius
+     * @throws IOException when changed file cannot be read
+     */
+    public AstronomicalObject nearest(double ra, double dec, double radius) throws IOException;
+
+    /**
+     * @return number of objects in catalog
+     */
+    public int size();
+
+    /**
+     * @return file with coordinates
+     */
+    public Path getFile();
+
+}
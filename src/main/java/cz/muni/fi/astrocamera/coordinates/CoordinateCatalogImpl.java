@@ -0,0 +1,415 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import cz.muni.fi.astrocamera.entity.AstronomicalObject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Coordinate catalog kept in hash map by normalized name.
+ *
+ * File is read once, later only lines appended since the last read are
+ * parsed. Change of file is detected by its size and modification time before
+ * every lookup. File which got shorter is read again from the beginning,
+ * other edits than appending need new catalog. When the same name is in file
+ * more times, the last line wins, so newly saved coordinates replace older
+ * ones.
+ *
+ * For search, normalized names are kept also in sorted array searched by
+ * {@link NameSearch}.
+ *
+ * Search by position uses {@link SkyIndex} built from parsed coordinates on
+ * the first search after change of file, lines with coordinates which cannot
+ * be parsed are left out.
+ *
+ * @author Karel Auf
+ */
+public class CoordinateCatalogImpl implements CoordinateCatalog {
+
+    private final static Logger logger = Logger.getLogger(CoordinateCatalogImpl.class);
+
+    private final Path file;
+    private final long base;       //offset of the first read line
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long size = -1;        //size of file when it was read
+    private long modified = -1;    //modification time of file when it was read
+    private long lastLineStart;    //offset of the last line, it may continue after append
+    private NameSearch names;      //search in sorted normalized names, null when catalog changed
+    private SkyIndex sky;          //index of positions, null when catalog changed
+    private Entry[] positioned;    //entries in order of positions in sky index
+
+    /**
+     * @param file file with coordinates in format name#RA#Dec#
+     */
+    public CoordinateCatalogImpl(Path file) {
+        this(file, 0);
+    }
+
+    /**
+     * Catalog of lines appended after given offset, used over compiled
+     * catalog of the beginning of file
+     *
+     * @param file file with coordinates in format name#RA#Dec#
+     * @param base offset of the first line in bytes
+     */
+    CoordinateCatalogImpl(Path file, long base) {
+        this.file = file;
+        this.base = base;
+        this.lastLineStart = base;
+    }
+
+    /**
+     * Normalizes name for lookup: lower case, no leading and trailing
+     * whitespace and single space between words
+     *
+     * @param name name of object
+     * @return normalized name
+     */
+    public static String normalize(String name) {
+        if (isNormalized(name)) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean space = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Most names in catalog are already normalized, checking them is cheaper
+     * than creating new string
+     */
+    private static boolean isNormalized(String name) {
+        int length = name.length();
+        if (length == 0) {
+            return true;
+        }
+        if (name.charAt(0) == ' ' || name.charAt(length - 1) == ' ') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c == ' ') {
+                if (name.charAt(i - 1) == ' ') {
+                    return false;
+                }
+            } else if (Character.isWhitespace(c) || Character.toLowerCase(c) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void refresh() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long newSize = attributes.size();
+        long newModified = attributes.lastModifiedTime().toMillis();
+        if (newSize == size && newModified == modified) {
+            return;
+        }
+        long start = lastLineStart;
+        if (newSize < size || size < 0) {
+            //rewritten file
+            entries.clear();
+            start = base;
+        }
+        long time = System.currentTimeMillis();
+        int lines = read(start);
+        names = null;
+        sky = null;
+        positioned = null;
+        size = newSize;
+        modified = newModified;
+        logger.info("Coordinate catalog " + file + ": " + lines + " lines read in " + (System.currentTimeMillis() - time)
+                + " ms, " + entries.size() + " objects");
+    }
+
+    @Override
+    public synchronized AstronomicalObject find(String name) throws IOException {
+        refresh();
+        return get(normalize(name));
+    }
+
+    @Override
+    public synchronized List<String> search(String query, int limit) throws IOException {
+        refresh();
+        if (names == null) {
+            names = new NameSearch(Arrays.asList(sortedKeys()));
+        }
+        List<String> result = new ArrayList<>();
+        for (String key : names.search(normalize(query), limit)) {
+            result.add(entries.get(key).getName());
+        }
+        return result;
+    }
+
+    /**
+     * @return normalized names sorted by {@link String#compareTo}
+     */
+    synchronized String[] sortedKeys() {
+        long time = System.currentTimeMillis();
+        String[] sorted = entries.keySet().toArray(new String[entries.size()]);
+        Arrays.sort(sorted);
+        logger.debug("Coordinate catalog names sorted in " + (System.currentTimeMillis() - time) + " ms");
+        return sorted;
+    }
+
+    /**
+     * Gets object without checking file for changes
+     *
+     * @param key normalized name
+     * @return object with filled name and coordinates or null
+     */
+    synchronized AstronomicalObject get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        AstronomicalObject object = new AstronomicalObject();
+        object.setName(entry.getName());
+        object.setRa(entry.getRa());
+        object.setDec(entry.getDec());
+        return object;
+    }
+
+    @Override
+    public synchronized AstronomicalObject nearest(double ra, double dec, double radius) throws IOException {
+        refresh();
+        if (sky == null) {
+            buildSkyIndex();
+        }
+        int i = sky.nearest(ra, dec, radius);
+        if (i < 0) {
+            return null;
+        }
+        Entry entry = positioned[i];
+        AstronomicalObject object = new AstronomicalObject();
+        object.setName(entry.getName());
+        object.setRa(entry.getRa());
+        object.setDec(entry.getDec());
+        return object;
+    }
+
+    private void buildSkyIndex() {
+        long time = System.currentTimeMillis();
+        int n = 0;
+        positioned = new Entry[entries.size()];
+        double[] ra = new double[positioned.length];
+        double[] dec = new double[positioned.length];
+        for (Entry entry : entries.values()) {
+            //RA in hours
+            double alpha = parseAngle(entry.line, entry.first + 1, entry.second) * 15;
+            double delta = parseAngle(entry.line, entry.second + 1, entry.decEnd());
+            if (Double.isNaN(alpha) || Double.isNaN(delta) || Math.abs(delta) > 90) {
+                continue;
+            }
+            positioned[n] = entry;
+            ra[n] = alpha;
+            dec[n] = delta;
+            n++;
+        }
+        sky = new SkyIndex(ra, dec, n);
+        logger.debug("Coordinate catalog sky index built in " + (System.currentTimeMillis() - time) + " ms, "
+                + n + " positions");
+    }
+
+    /**
+     * Parses sexagesimal angle like -12 34 56.7 or 12:34:56.7, minutes and
+     * seconds may be left out
+     *
+     * @param s text with angle
+     * @param from start of angle in text
+     * @param to end of angle in text
+     * @return angle in hours or degrees or NaN if text is not an angle
+     */
+    static double parseAngle(String s, int from, int to) {
+        int i = from;
+        while (i < to && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        boolean negative = false;
+        if (i < to && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        double value = 0;
+        double unit = 1;
+        int parts = 0;
+        while (i < to) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c) || c == ':') {
+                i++;
+                continue;
+            }
+            if (parts == 3) {
+                return Double.NaN;
+            }
+            int start = i;
+            while (i < to && (Character.isDigit(s.charAt(i)) || s.charAt(i) == '.')) {
+                i++;
+            }
+            if (i == start) {
+                return Double.NaN;
+            }
+            double part;
+            try {
+                part = Double.parseDouble(s.substring(start, i));
+            } catch (NumberFormatException ex) {
+                return Double.NaN;
+            }
+            value += part / unit;
+            unit *= 60;
+            parts++;
+        }
+        if (parts == 0) {
+            return Double.NaN;
+        }
+        return negative ? -value : value;
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return offset of the last read line in bytes, reading continues from it
+     */
+    synchronized long getLastLineStart() {
+        return lastLineStart;
+    }
+
+    @Override
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Reads lines from given offset, offsets are counted in bytes so that
+     * reading can continue after append
+     *
+     * @return number of read lines
+     */
+    private int read(long start) throws IOException {
+        //FileWriter used for saving coordinates writes in default charset
+        Charset charset = Charset.defaultCharset();
+        int lines = 0;
+        byte[] line = new byte[256];
+        int length = 0;
+        long position = start;
+        long lineStart = start;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        byte[] chunk = buffer.array();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(start);
+            int n;
+            while ((n = channel.read(buffer)) >= 0) {
+                int from = 0;
+                for (int i = 0; i < n; i++) {
+                    if (chunk[i] == '\n') {
+                        //line may start in previous chunk
+                        line = append(line, length, chunk, from, i - from);
+                        length += i - from;
+                        parse(new String(line, 0, length, charset));
+                        lines++;
+                        length = 0;
+                        from = i + 1;
+                        lineStart = position + from;
+                    }
+                }
+                line = append(line, length, chunk, from, n - from);
+                length += n - from;
+                position += n;
+                buffer.clear();
+            }
+        }
+        if (length > 0) {
+            parse(new String(line, 0, length, charset));
+            lines++;
+        }
+        lastLineStart = lineStart;
+        return lines;
+    }
+
+    private static byte[] append(byte[] line, int length, byte[] chunk, int from, int count) {
+        if (length + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        }
+        System.arraycopy(chunk, from, line, length, count);
+        return line;
+    }
+
+    private void parse(String line) {
+        int first = line.indexOf('#');
+        int second = first < 0 ? -1 : line.indexOf('#', first + 1);
+        if (second < 0) {
+            if (!line.trim().isEmpty()) {
+                logger.debug("Invalid line in coordinate catalog: " + line);
+            }
+            return;
+        }
+        String key = normalize(line.substring(0, first));
+        if (!key.isEmpty()) {
+            entries.put(key, new Entry(line, first, second));
+        }
+    }
+
+    /**
+     * Line of file, name and coordinates are cut out only when they are
+     * found, so loading creates as few objects as possible
+     */
+    private static class Entry {
+
+        private final String line;
+        private final int first;  //position of the first #
+        private final int second; //position of the second #
+
+        private Entry(String line, int first, int second) {
+            this.line = line;
+            this.first = first;
+            this.second = second;
+        }
+
+        private String getName() {
+            return line.substring(0, first).trim();
+        }
+
+        private String getRa() {
+            return line.substring(first + 1, second).trim();
+        }
+
+        private String getDec() {
+            return line.substring(second + 1, decEnd()).trim();
+        }
+
+        private int decEnd() {
+            int third = line.indexOf('#', second + 1);
+            return third < 0 ? line.length() : third;
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prefix and fuzzy search over sorted normalized names.
+ *
+ * Sorted names work as compact trie: names with common prefix are
+ * neighbours, so prefix search is binary search and fuzzy search computes
+ * edit distance of every prefix only once and skips all names under prefix
+ * which is already too far. Names are read only through the list, so the
+ * list may be a view of file.
+ *
+ * @author Karel Auf
+ */
+class NameSearch {
+
+    private static final int PREFIX_CANDIDATES = 1000; //names starting with query which are ranked
+
+    private final List<String> keys;
+
+    /**
+     * @param keys normalized names sorted by {@link String#compareTo}, list
+     * should have fast random access
+     */
+    NameSearch(List<String> keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * @param key normalized query
+     * @param limit maximal number of names
+     * @return normalized names starting with key ordered from the shortest,
+     * then similar names ordered by edit distance
+     */
+    List<String> search(String key, int limit) {
+        List<String> result = new ArrayList<>();
+        if (key.isEmpty() || limit <= 0) {
+            return result;
+        }
+        int from = lowerBound(key);
+        int to = upperBound(key);
+        List<String> prefixed = new ArrayList<>();
+        for (int i = from; i < to && prefixed.size() < PREFIX_CANDIDATES; i++) {
+            prefixed.add(keys.get(i));
+        }
+        Collections.sort(prefixed, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return a.length() != b.length() ? a.length() - b.length() : a.compareTo(b);
+            }
+        });
+        for (int i = 0; i < prefixed.size() && result.size() < limit; i++) {
+            result.add(prefixed.get(i));
+        }
+        if (result.size() < limit) {
+            for (Match match : fuzzy(key, maxDistance(key))) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                if (!match.key.startsWith(key)) {
+                    result.add(match.key);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return allowed number of typos, none for very short query
+     */
+    private static int maxDistance(String key) {
+        if (key.length() < 3) {
+            return 0;
+        }
+        return key.length() <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Finds names within given Levenshtein distance from key by walking the
+     * sorted names as trie
+     *
+     * @return matches ordered by distance, length and name
+     */
+    private List<Match> fuzzy(String key, int max) {
+        List<Match> matches = new ArrayList<>();
+        int size = keys.size();
+        if (max == 0 || size == 0) {
+            return matches;
+        }
+        int q = key.length();
+        //names longer than q + max are never within distance
+        int limit = q + max;
+        int[][] rows = new int[limit + 1][q + 1];
+        for (int j = 0; j <= q; j++) {
+            rows[0][j] = j;
+        }
+        String previous = "";
+        int valid = 0; //rows computed for first valid characters of previous
+        int i = 0;
+        while (i < size) {
+            String name = keys.get(i);
+            int depth = Math.min(commonPrefix(previous, name), valid);
+            boolean pruned = false;
+            int length = Math.min(name.length(), limit);
+            while (depth < length) {
+                char c = name.charAt(depth);
+                int[] above = rows[depth];
+                int[] row = rows[depth + 1];
+                row[0] = depth + 1;
+                int best = row[0];
+                for (int j = 1; j <= q; j++) {
+                    int cost = key.charAt(j - 1) == c ? 0 : 1;
+                    row[j] = Math.min(Math.min(row[j - 1] + 1, above[j] + 1), above[j - 1] + cost);
+                    best = Math.min(best, row[j]);
+                }
+                depth++;
+                if (best > max) {
+                    pruned = true;
+                    break;
+                }
+            }
+            previous = name;
+            valid = depth;
+            if (pruned) {
+                //no name with this prefix can match
+                i = upperBound(name.substring(0, depth));
+                continue;
+            }
+            if (name.length() == depth && rows[depth][q] <= max) {
+                matches.add(new Match(name, rows[depth][q]));
+            }
+            //the following names with this prefix are too long
+            i = depth == limit ? upperBound(name.substring(0, depth)) : i + 1;
+        }
+        Collections.sort(matches);
+        return matches;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return index of the first name not smaller than prefix
+     */
+    private int lowerBound(String prefix) {
+        int i = Collections.binarySearch(keys, prefix);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    /**
+     * @return index of the first name after all names starting with prefix
+     */
+    private int upperBound(String prefix) {
+        int i = Collections.binarySearch(keys, prefix + Character.MAX_VALUE);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    /**
+     * Name found by fuzzy search
+     */
+    private static class Match implements Comparable<Match> {
+
+        private final String key;
+        private final int distance;
+
+        private Match(String key, int distance) {
+            this.key = key;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            if (distance != other.distance) {
+                return distance - other.distance;
+            }
+            if (key.length() != other.key.length()) {
+                return key.length() - other.key.length();
+            }
+            return key.compareTo(other.key);
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of names resolved by online databases, also names which were not
+ * found.
+ *
+ * The first level is LRU map of recently used names in memory. The second
+ * level is file to which every resolution is appended as line
+ * name#RA#Dec#time#, RA and Dec are empty for name which was not found. Only
+ * offset of the newest line of every name is kept in memory, the line is read
+ * on miss in the first level. Expired resolutions are still returned, so the
+ * caller can use them when online databases are not available; file is
+ * compacted on opening when most of its lines are superseded.
+ *
+ * @author Karel Auf
+ */
+public class ResolverCache {
+
+    private final static Logger logger = Logger.getLogger(ResolverCache.class);
+
+    private final Path file;
+    private final long ttl;         //ms, found names are resolved again after it
+    private final long negativeTtl; //ms, not found names are resolved again after it
+    private final Map<String, Resolution> recent;
+    private final Map<String, Long> offsets = new HashMap<>(); //offsets of the newest lines in file
+    private RandomAccessFile store;
+
+    /**
+     * @param file file of the second level, null for memory only cache
+     * @param capacity number of names kept in memory
+     * @param ttl milliseconds after which found name is resolved again
+     * @param negativeTtl milliseconds after which not found name is resolved
+     * again
+     */
+    public ResolverCache(Path file, final int capacity, long ttl, long negativeTtl) {
+        this.file = file;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        recent = new LinkedHashMap<String, Resolution>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Indexes lines of file, file is created if it doesn't exist
+     *
+     * @throws IOException when file cannot be read
+     */
+    public synchronized void open() throws IOException {
+        if (file == null) {
+            return;
+        }
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        int lines = index();
+        if (lines > 2 * offsets.size() + 100) {
+            compact();
+            index();
+        }
+        store = new RandomAccessFile(file.toFile(), "rw");
+        long length = store.length();
+        if (length > 0) {
+            //line cut by crash is ended, so the next line is not appended to it
+            store.seek(length - 1);
+            if (store.read() != '\n') {
+                store.write('\n');
+            }
+        }
+        logger.info("Resolver cache " + file + " opened, " + offsets.size() + " names");
+    }
+
+    /**
+     * Gets the last resolution of name, also expired one
+     *
+     * @param name name of object
+     * @return resolution or null if name was never resolved
+     */
+    public synchronized Resolution get(String name) {
+        String key = CoordinateCatalogImpl.normalize(name);
+        Resolution resolution = recent.get(key);
+        if (resolution != null || store == null) {
+            return resolution;
+        }
+        Long offset = offsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        try {
+            store.seek(offset);
+            resolution = parse(readLine(store));
+        } catch (IOException ex) {
+            logger.error("Error while reading resolver cache " + file, ex);
+            return null;
+        }
+        if (resolution != null) {
+            recent.put(key, resolution);
+        }
+        return resolution;
+    }
+
+    /**
+     * Stores resolution of name
+     *
+     * @param name name of object
+     * @param ra right ascension or null if name was not found
+     * @param dec declination or null if name was not found
+     */
+    public synchronized void put(String name, String ra, String dec) {
+        Resolution resolution = new Resolution(clean(name), ra == null ? null : clean(ra), dec == null ? null : clean(dec),
+                System.currentTimeMillis());
+        String key = CoordinateCatalogImpl.normalize(resolution.getName());
+        recent.put(key, resolution);
+        if (store == null) {
+            return;
+        }
+        try {
+            long offset = store.length();
+            store.seek(offset);
+            store.write((format(resolution) + "\n").getBytes(StandardCharsets.UTF_8));
+            offsets.put(key, offset);
+        } catch (IOException ex) {
+            logger.error("Error while writing resolver cache " + file, ex);
+        }
+    }
+
+    /**
+     * @param resolution cached resolution
+     * @return true if resolution is younger than its time to live
+     */
+    public boolean isFresh(Resolution resolution) {
+        long age = System.currentTimeMillis() - resolution.getResolved();
+        return age >= 0 && age < (resolution.isFound() ? ttl : negativeTtl);
+    }
+
+    public synchronized void close() {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException ex) {
+                logger.error("Cannot close resolver cache " + file, ex);
+            }
+            store = null;
+        }
+    }
+
+    /**
+     * @return number of lines in file
+     */
+    private int index() throws IOException {
+        offsets.clear();
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int lines = 0;
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            byte[] line = new byte[128];
+            int length = 0;
+            long offset = 0; //offset of the current line
+            long position = 0;
+            int b;
+            while ((b = input.read()) >= 0) {
+                position++;
+                if (b != '\n') {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = (byte) b;
+                    continue;
+                }
+                Resolution resolution = parse(new String(line, 0, length, StandardCharsets.UTF_8));
+                if (resolution != null) {
+                    offsets.put(CoordinateCatalogImpl.normalize(resolution.getName()), offset);
+                }
+                lines++;
+                length = 0;
+                offset = position;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Rewrites file with only the newest line of every name, not found names
+     * which expired are left out
+     */
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int kept = 0;
+        try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r");
+                Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (long offset : offsets.values()) {
+                input.seek(offset);
+                Resolution resolution = parse(readLine(input));
+                if (resolution != null && (resolution.isFound() || isFresh(resolution))) {
+                    out.write(format(resolution) + "\n");
+                    kept++;
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Resolver cache " + file + " compacted, " + kept + " names kept");
+    }
+
+    /**
+     * Reads UTF-8 line from current position, RandomAccessFile.readLine reads
+     * only Latin-1
+     */
+    private static String readLine(RandomAccessFile input) throws IOException {
+        byte[] line = new byte[256];
+        int length = 0;
+        int n;
+        while ((n = input.read(line, length, line.length - length)) > 0) {
+            for (int i = length; i < length + n; i++) {
+                if (line[i] == '\n') {
+                    return new String(line, 0, i, StandardCharsets.UTF_8);
+                }
+            }
+            length += n;
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+        }
+        return length == 0 ? null : new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static String format(Resolution resolution) {
+        return resolution.getName() + "#" + (resolution.isFound() ? resolution.getRa() : "") + "#"
+                + (resolution.isFound() ? resolution.getDec() : "") + "#" + resolution.getResolved() + "#";
+    }
+
+    /**
+     * @return resolution or null if line is damaged
+     */
+    private static Resolution parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] parts = line.split("#", -1);
+        if (parts.length < 4 || parts[0].trim().isEmpty()) {
+            return null;
+        }
+        try {
+            boolean found = !parts[1].isEmpty() && !parts[2].isEmpty();
+            return new Resolution(parts[0], found ? parts[1] : null, found ? parts[2] : null, Long.parseLong(parts[3].trim()));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * # separates values and new line separates resolutions
+     */
+    private static String clean(String value) {
+        return value.replace('#', ' ').replace('\n', ' ').replace('\r', ' ').trim();
+    }
+
+    /**
+     * Result of one resolution of name
+     */
+    public static class Resolution {
+
+        private final String name;
+        private final String ra;
+        private final String dec;
+        private final long resolved;
+
+        private Resolution(String name, String ra, String dec, long resolved) {
+            this.name = name;
+            this.ra = ra;
+            this.dec = dec;
+            this.resolved = resolved;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return right ascension or null if name was not found
+         */
+        public String getRa() {
+            return ra;
+        }
+
+        /**
+         * @return declination or null if name was not found
+         */
+        public String getDec() {
+            return dec;
+        }
+
+        /**
+         * @return time of resolution in milliseconds since epoch
+         */
+        public long getResolved() {
+            return resolved;
+        }
+
+        public boolean isFound() {
+            return ra != null;
+        }
+    }
+
+}
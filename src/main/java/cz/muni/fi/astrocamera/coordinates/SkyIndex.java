@@ -0,0 +1,230 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Spatial index of positions on sky for nearest neighbour search.
+ *
+ * Positions are converted to unit vectors, so there is no problem with RA
+ * wrapping over 0/360 or with poles, and kept in k-d tree. The tree is
+ * implicit: vectors are reordered in place so that the middle of every range
+ * is the node which splits the range, no node objects are created. Distance is
+ * compared as squared chord, angles are computed only for the result.
+ *
+ * Vectors are read through buffers, so the same search works over index
+ * mapped from compiled catalog file. Index is immutable, so it can be
+ * searched from more threads.
+ *
+ * @author Karel Auf
+ */
+public class SkyIndex {
+
+    private final DoubleBuffer vectors; //x, y, z of every position in tree order
+    private final IntBuffer ids;        //position of vector in input arrays
+
+    /**
+     * @param ra right ascensions in degrees
+     * @param dec declinations in degrees
+     * @param n number of positions
+     */
+    public SkyIndex(double[] ra, double[] dec, int n) {
+        double[] v = new double[3 * n];
+        int[] id = new int[n];
+        for (int i = 0; i < n; i++) {
+            double alpha = Math.toRadians(ra[i]);
+            double delta = Math.toRadians(dec[i]);
+            double cosDelta = Math.cos(delta);
+            v[3 * i] = cosDelta * Math.cos(alpha);
+            v[3 * i + 1] = cosDelta * Math.sin(alpha);
+            v[3 * i + 2] = Math.sin(delta);
+            id[i] = i;
+        }
+        build(v, id, 0, n, 0);
+        vectors = DoubleBuffer.wrap(v);
+        ids = IntBuffer.wrap(id);
+    }
+
+    /**
+     * Index over vectors already in tree order
+     *
+     * @param vectors x, y, z of every position
+     * @param ids position of every vector in input
+     */
+    SkyIndex(DoubleBuffer vectors, IntBuffer ids) {
+        if (vectors.remaining() != 3 * ids.remaining()) {
+            throw new IllegalArgumentException("Every position must have 3 coordinates.");
+        }
+        this.vectors = vectors.slice();
+        this.ids = ids.slice();
+    }
+
+    /**
+     * Finds the nearest position
+     *
+     * @param ra right ascension in degrees
+     * @param dec declination in degrees
+     * @param radius maximal distance in arcseconds
+     * @return position of the nearest object in input arrays or -1 if there
+     * is no object within radius
+     */
+    public int nearest(double ra, double dec, double radius) {
+        if (size() == 0 || Double.isNaN(ra) || Double.isNaN(dec)) {
+            return -1;
+        }
+        double alpha = Math.toRadians(ra);
+        double delta = Math.toRadians(dec);
+        double cosDelta = Math.cos(delta);
+        Query query = new Query(cosDelta * Math.cos(alpha), cosDelta * Math.sin(alpha), Math.sin(delta));
+        //chord of radius, the search starts with it as the best distance
+        double chord = 2 * Math.sin(Math.toRadians(Math.min(radius, 648000) / 3600) / 2);
+        query.best = chord * chord;
+        search(query, 0, size(), 0);
+        return query.index < 0 ? -1 : ids.get(query.index);
+    }
+
+    public int size() {
+        return ids.limit();
+    }
+
+    /**
+     * @return vectors in tree order for writing to file
+     */
+    DoubleBuffer getVectors() {
+        return vectors.duplicate();
+    }
+
+    /**
+     * @return input positions of vectors for writing to file
+     */
+    IntBuffer getIds() {
+        return ids.duplicate();
+    }
+
+    /**
+     * @return angular distance of two positions in arcseconds
+     */
+    public static double separation(double ra1, double dec1, double ra2, double dec2) {
+        double delta1 = Math.toRadians(dec1);
+        double delta2 = Math.toRadians(dec2);
+        double sinDelta = Math.sin((delta2 - delta1) / 2);
+        double sinAlpha = Math.sin(Math.toRadians(ra2 - ra1) / 2);
+        //haversine formula, precise also for small distances
+        double h = sinDelta * sinDelta + Math.cos(delta1) * Math.cos(delta2) * sinAlpha * sinAlpha;
+        return Math.toDegrees(2 * Math.asin(Math.min(1, Math.sqrt(h)))) * 3600;
+    }
+
+    private void search(Query query, int from, int to, int axis) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            int v = 3 * middle;
+            double dx = vectors.get(v) - query.x;
+            double dy = vectors.get(v + 1) - query.y;
+            double dz = vectors.get(v + 2) - query.z;
+            double distance = dx * dx + dy * dy + dz * dz;
+            if (distance <= query.best) {
+                query.best = distance;
+                query.index = middle;
+            }
+            double diff = axis == 0 ? -dx : axis == 1 ? -dy : -dz; //query minus node
+            int next = axis == 2 ? 0 : axis + 1;
+            //side of query first, so the best distance shrinks before the other
+            //side is checked, the other side only if it can be closer
+            if (diff < 0) {
+                search(query, from, middle, next);
+                from = middle + 1;
+            } else {
+                search(query, middle + 1, to, next);
+                to = middle;
+            }
+            if (diff * diff > query.best) {
+                return;
+            }
+            axis = next;
+        }
+    }
+
+    private static void build(double[] v, int[] id, int from, int to, int axis) {
+        while (to - from > 1) {
+            int middle = (from + to) >>> 1;
+            select(v, id, from, to - 1, middle, axis);
+            int next = axis == 2 ? 0 : axis + 1;
+            build(v, id, from, middle, next);
+            from = middle + 1;
+            axis = next;
+        }
+    }
+
+    /**
+     * Reorders range so that k-th vector is in its sorted position by given
+     * axis, smaller vectors before it and larger after it
+     */
+    private static void select(double[] v, int[] id, int left, int right, int k, int axis) {
+        while (right > left) {
+            //median of three as pivot
+            int middle = (left + right) >>> 1;
+            if (v[3 * middle + axis] < v[3 * left + axis]) {
+                swap(v, id, middle, left);
+            }
+            if (v[3 * right + axis] < v[3 * left + axis]) {
+                swap(v, id, right, left);
+            }
+            if (v[3 * right + axis] < v[3 * middle + axis]) {
+                swap(v, id, right, middle);
+            }
+            double pivot = v[3 * middle + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (v[3 * i + axis] < pivot) {
+                    i++;
+                }
+                while (v[3 * j + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(v, id, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(double[] v, int[] id, int i, int j) {
+        for (int a = 0; a < 3; a++) {
+            double t = v[3 * i + a];
+            v[3 * i + a] = v[3 * j + a];
+            v[3 * j + a] = t;
+        }
+        int t = id[i];
+        id[i] = id[j];
+        id[j] = t;
+    }
+
+    /**
+     * State of one search
+     */
+    private static class Query {
+
+        private final double x;
+        private final double y;
+        private final double z;
+        private double best;   //squared chord of the nearest position so far
+        private int index = -1; //index of the nearest position so far
+
+        private Query(double x, double y, double z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+}
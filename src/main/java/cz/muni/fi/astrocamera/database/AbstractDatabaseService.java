@@ -0,0 +1,272 @@
+package cz.muni.fi.astrocamera.database;
+
+import cz.muni.fi.astrocamera.entity.TelemetrySnapshot;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.Set;
+import javax.swing.JProgressBar;
+import javax.swing.JTextArea;
+import org.apache.log4j.Logger;
+
+/**
+ * Common part of database services: finding active database file, watching
+ * it for changes, reading channels and reporting errors. Scheduling is done
+ * by {@link TelemetryEngine}.
+ *
+ * Messages are read from bundle with keys prefixed by simple class name of
+ * the service.
+ *
+ * @author Karel Auf
+ */
+public abstract class AbstractDatabaseService implements DatabaseService {
+
+    private final static Logger logger = Logger.getLogger(AbstractDatabaseService.class);
+
+    private TelemetryReader reader;
+    private Path path; //absolute path to DB folder
+    private javax.swing.JTextArea textArea;
+    private javax.swing.JProgressBar progressBar;
+    private TelemetryHistory history; //samples for time of exposure
+    private String refreshMode = DatabaseWatcher.MODE_POLL; //event or poll
+    private TelemetryEngine engine;
+    private TelemetryPolicy policy;
+    private DatabaseFileTracker tracker;
+    private DatabaseWatcher watcher;
+    private String stringPath;
+    private Date date;
+    private final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
+
+    /**
+     * Reads channels of this database from default channel registry
+     */
+    protected AbstractDatabaseService() {
+        setChannels(ChannelRegistry.loadDefault());
+    }
+
+    /**
+     * Publishes values of channels after successful read
+     *
+     * @param snapshot the newest values of all channels
+     */
+    protected abstract void publish(TelemetrySnapshot snapshot);
+
+    /**
+     * Sets channels read by this service, must not be called while the
+     * service is running
+     *
+     * @param registry all channels, only channels of this database are used
+     */
+    public void setChannels(ChannelRegistry registry) {
+        List<TelemetryChannel> channels = new ArrayList<>();
+        for (ChannelDefinition definition : registry.getChannels(getName())) {
+            channels.add(new TelemetryChannel(definition));
+        }
+        reader = new TelemetryReader(channels);
+        reader.setHistory(history);
+    }
+
+    /**
+     * @throws IllegalArgumentException when service is not configured
+     */
+    protected void validate() {
+        if (path == null) {
+            throw new IllegalArgumentException("Path is null.");
+        }
+    }
+
+    @Override
+    public boolean open() {
+        logger.debug(getName() + " open()");
+        try {
+            validate();
+        } catch (IllegalArgumentException ex) {
+            logger.error("Invalid parameters", ex);
+            return false;
+        }
+        //new file after rotation is used when it has tables of all channels
+        Set<String> tables = new LinkedHashSet<>();
+        for (TelemetryChannel channel : reader.getChannels()) {
+            tables.add(channel.getTable());
+        }
+        tracker = new DatabaseFileTracker(path, tables);
+        File dbFile = tracker.getActiveFile();
+        if (dbFile == null) {
+            logger.error("No File Found");
+            message("error.db", "");
+            tracker.close();
+            tracker = null;
+            return false;
+        }
+        stringPath = dbFile.getAbsolutePath();
+        if (DatabaseWatcher.MODE_EVENT.equalsIgnoreCase(refreshMode)) {
+            try {
+                watcher = new DatabaseWatcher(path);
+            } catch (IOException ex) {
+                logger.error("Cannot watch database folder " + path + ", polling instead", ex);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isWatched() {
+        return watcher != null;
+    }
+
+    @Override
+    public boolean pollChange() {
+        return watcher != null && watcher.pollChange(stringPath);
+    }
+
+    @Override
+    public int read() throws SQLException {
+        File dbFile = tracker.getActiveFile();
+        if (dbFile != null) {
+            stringPath = dbFile.getAbsolutePath();
+        } else {
+            logger.error("No File Found");
+            message("error.db", "\n");
+        }
+        setProgress(1);
+        // read rows added since the last cycle
+        int rows = reader.read(stringPath);
+        TelemetrySnapshot snapshot = reader.snapshot();
+        if (snapshot != null) {
+            publish(snapshot);
+        }
+        logger.debug(getName() + " db retrieved");
+        setProgress(2);
+        return rows;
+    }
+
+    @Override
+    public void failed(SQLException ex, int consecutive) {
+        reader.close(); //reconnect in next cycle
+        setProgress(0);
+        if (consecutive > 1) { //to avoid excesive spamming when the error is just simultaneous access to DB
+            message("error.sql", ex.getMessage() + "\n");
+        }
+        logger.error("SQL Error", ex);
+    }
+
+    @Override
+    public void close() {
+        logger.info(getName() + " queries:\n" + reader.getQueryStatus());
+        reader.close();
+        if (tracker != null) {
+            tracker.close();
+            tracker = null;
+        }
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        setProgress(0);
+        logger.debug(getName() + " closed");
+    }
+
+    /**
+     * Starts reading database in telemetry engine
+     */
+    public void start() {
+        if (engine == null || policy == null) {
+            throw new IllegalStateException("Telemetry engine is not set.");
+        }
+        if (!engine.register(this, policy)) {
+            logger.error(getName() + " not started, telemetry engine is shut down");
+        }
+    }
+
+    /**
+     * Stops reading database
+     */
+    public void stop() {
+        if (engine != null) {
+            engine.unregister(this);
+        }
+    }
+
+    private void message(String key, String detail) {
+        if (textArea != null) {
+            date = new Date();
+            textArea.insert(sdf.format(date) + " " + ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle")
+                    .getString(getClass().getSimpleName() + "." + key) + detail, 0);
+        }
+    }
+
+    private void setProgress(int value) {
+        if (progressBar != null) {
+            progressBar.setValue(value);
+        }
+    }
+
+    protected TelemetryReader getReader() {
+        return reader;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public void setPath(Path path) {
+        this.path = path;
+    }
+
+    public JTextArea getTextArea() {
+        return textArea;
+    }
+
+    public void setTextArea(JTextArea textArea) {
+        this.textArea = textArea;
+    }
+
+    protected JProgressBar getProgressBar() {
+        return progressBar;
+    }
+
+    protected void setProgressBar(JProgressBar progressBar) {
+        this.progressBar = progressBar;
+    }
+
+    public TelemetryHistory getHistory() {
+        return history;
+    }
+
+    public void setHistory(TelemetryHistory history) {
+        this.history = history;
+        reader.setHistory(history);
+    }
+
+    public String getRefreshMode() {
+        return refreshMode;
+    }
+
+    public void setRefreshMode(String refreshMode) {
+        this.refreshMode = refreshMode;
+    }
+
+    public TelemetryEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(TelemetryEngine engine) {
+        this.engine = engine;
+    }
+
+    public TelemetryPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(TelemetryPolicy policy) {
+        this.policy = policy;
+    }
+
+}
@@ -0,0 +1,137 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.util.Locale;
+
+/**
+ * Activity of the observatory used to choose how often telemetry is read.
+ *
+ * Frames are reported by folder watch, telescope position is reported after
+ * every read of telescope database. The system is slewing while the position
+ * moves faster than slew rate, acquiring while frames arrive, idle when no
+ * frame arrived for a long time and normal otherwise. Frame arriving while
+ * the system is idle or normal runs the wake up callback, so telemetry is read
+ * at once and not after the long idle interval.
+ *
+ * @author Karel Auf
+ */
+public class AcquisitionActivity {
+
+    public enum State {
+        SLEWING, ACQUIRING, NORMAL, IDLE
+    }
+
+    private final long activeWindow; //ms after frame during which system is acquiring
+    private final long idleAfter;    //ms without frame after which system is idle
+    private final double slewRate;   //arcsec/s, faster motion is slewing
+    private final long started = System.currentTimeMillis();
+    private volatile long lastFrame;   //ms since epoch, 0 if no frame arrived
+    private volatile boolean slewing;
+    private volatile Runnable wakeUp; //run when acquisition starts
+    private double lastRa = Double.NaN;  //degrees
+    private double lastDec = Double.NaN; //degrees
+    private long lastPositionTime;       //ms since epoch
+
+    /**
+     * @param activeWindow ms after frame during which polling is fast
+     * @param idleAfter ms without frame after which polling slows down
+     * @param slewRate telescope moving faster than this (arcsec/s) is slewing
+     */
+    public AcquisitionActivity(long activeWindow, long idleAfter, double slewRate) {
+        this.activeWindow = activeWindow;
+        this.idleAfter = Math.max(activeWindow, idleAfter);
+        this.slewRate = slewRate;
+    }
+
+    /**
+     * Records arrival of new frame
+     */
+    public void frameArrived() {
+        long now = System.currentTimeMillis();
+        State previous = getState(now);
+        lastFrame = now;
+        Runnable callback = wakeUp;
+        if (callback != null && (previous == State.NORMAL || previous == State.IDLE)) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Records telescope position, speed is computed from previous position
+     *
+     * @param ra right ascension in degrees
+     * @param dec declination in degrees
+     * @param time TIME of the position in milliseconds since epoch
+     */
+    public synchronized void position(double ra, double dec, long time) {
+        if (Double.isNaN(ra) || Double.isNaN(dec)) {
+            return;
+        }
+        if (!Double.isNaN(lastRa)) {
+            if (time <= lastPositionTime) {
+                return; //no new row, keep the last decision
+            }
+            double rate = separation(lastRa, lastDec, ra, dec) * 3600.0 / ((time - lastPositionTime) / 1000.0);
+            slewing = rate > slewRate;
+        }
+        lastRa = ra;
+        lastDec = dec;
+        lastPositionTime = time;
+    }
+
+    /**
+     * @param now current time in milliseconds since epoch
+     * @return current activity
+     */
+    public State getState(long now) {
+        if (slewing) {
+            return State.SLEWING;
+        }
+        long frame = lastFrame;
+        if (frame > 0 && now - frame <= activeWindow) {
+            return State.ACQUIRING;
+        }
+        if (now - Math.max(frame, started) > idleAfter) {
+            return State.IDLE;
+        }
+        return State.NORMAL;
+    }
+
+    public boolean isSlewing() {
+        return slewing;
+    }
+
+    public long getLastFrame() {
+        return lastFrame;
+    }
+
+    public Runnable getWakeUp() {
+        return wakeUp;
+    }
+
+    /**
+     * @param wakeUp run in thread reporting the frame when acquisition
+     * starts, must not block
+     */
+    public void setWakeUp(Runnable wakeUp) {
+        this.wakeUp = wakeUp;
+    }
+
+    /**
+     * @return angular distance of two positions in degrees
+     */
+    private static double separation(double ra1, double dec1, double ra2, double dec2) {
+        double d1 = Math.toRadians(dec1);
+        double d2 = Math.toRadians(dec2);
+        double sinDec = Math.sin((d2 - d1) / 2);
+        double sinRa = Math.sin(Math.toRadians(ra2 - ra1) / 2);
+        //haversine formula, precise also for small distances
+        double h = sinDec * sinDec + Math.cos(d1) * Math.cos(d2) * sinRa * sinRa;
+        return Math.toDegrees(2 * Math.asin(Math.min(1, Math.sqrt(h))));
+    }
+
+    @Override
+    public String toString() {
+        return getState(System.currentTimeMillis()).name().toLowerCase(Locale.ENGLISH);
+    }
+
+}
@@ -0,0 +1,91 @@
+package cz.muni.fi.astrocamera.database;
+
+/**
+ * Mapping of one telemetry table column to FITS header keyword
+ *
+ * @author Karel Auf
+ */
+public class ChannelDefinition {
+
+    private final String keyword;   //FITS keyword, at most 8 characters
+    private final String database;  //database service reading the table, meteo or tele
+    private final String table;     //table with TIME column
+    private final String column;    //column with value
+    private final int precision;    //number of decimal places in header
+    private final String unit;      //unit written into comment
+    private final String comment;   //description written into comment
+    private final String statistics; //prefix of statistics keywords or null
+
+    public ChannelDefinition(String keyword, String database, String table, String column, int precision, String unit, String comment) {
+        this(keyword, database, table, column, precision, unit, comment, null);
+    }
+
+    public ChannelDefinition(String keyword, String database, String table, String column, int precision, String unit, String comment,
+            String statistics) {
+        this.keyword = keyword;
+        this.database = database;
+        this.table = table;
+        this.column = column;
+        this.precision = precision;
+        this.unit = unit;
+        this.comment = comment;
+        this.statistics = statistics;
+    }
+
+    public String getKeyword() {
+        return keyword;
+    }
+
+    public String getDatabase() {
+        return database;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    /**
+     * @return prefix of keywords with statistics over exposure, e.g. WIND for
+     * WIND_MAX, or null if statistics are not written
+     */
+    public String getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return comment of header card, e.g. "wind speed in [ms-1]"
+     */
+    public String getHeaderComment() {
+        return getHeaderComment("");
+    }
+
+    /**
+     * @param prefix text before description, e.g. "max. "
+     * @return comment of header card, e.g. "max. wind speed in [ms-1]"
+     */
+    public String getHeaderComment(String prefix) {
+        return prefix + (unit.isEmpty() ? comment : comment + " in [" + unit + "]");
+    }
+
+    @Override
+    public String toString() {
+        return keyword + "=" + database + "," + table + "," + column;
+    }
+
+}
@@ -0,0 +1,158 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Declarative map of telemetry tables to FITS header keywords.
+ *
+ * Channels are read from properties file, one line per keyword in format
+ * {@code KEYWORD=database, table, column, precision, unit, comment}. Order of
+ * lines is kept, so header cards are written in the same order.
+ *
+ * Line {@code KEYWORD.stats=PREFIX} adds statistics of channel over exposure
+ * written as PREFIX_MIN, PREFIX_MAX, PREFIX_AVG and PREFIX_SD.
+ *
+ * @author Karel Auf
+ */
+public class ChannelRegistry {
+
+    public static final String DEFAULT_RESOURCE = "cz/muni/fi/astrocamera/database/channels.properties";
+    public static final String METEO = "meteo";
+    public static final String TELE = "tele";
+    public static final String STATISTICS_SUFFIX = ".stats";
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern KEYWORD = Pattern.compile("[A-Z0-9_-]{1,8}");
+    private static final Pattern PREFIX = Pattern.compile("[A-Z0-9_-]{1,4}"); //4 characters + _MAX
+
+    private final List<ChannelDefinition> channels;
+
+    public ChannelRegistry(List<ChannelDefinition> channels) {
+        this.channels = Collections.unmodifiableList(new ArrayList<>(channels));
+    }
+
+    /**
+     * @return channels bundled with application
+     */
+    public static ChannelRegistry loadDefault() {
+        try (InputStream input = ChannelRegistry.class.getClassLoader().getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (input == null) {
+                throw new IllegalStateException("Missing resource " + DEFAULT_RESOURCE);
+            }
+            return load(input);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read resource " + DEFAULT_RESOURCE, ex);
+        }
+    }
+
+    /**
+     * @param file properties file with channels
+     * @return loaded channels
+     * @throws IOException when file cannot be read
+     * @throws IllegalArgumentException when some channel is invalid
+     */
+    public static ChannelRegistry load(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return load(input);
+        }
+    }
+
+    private static ChannelRegistry load(InputStream input) throws IOException {
+        final List<String> keys = new ArrayList<>();
+        Properties props = new Properties() {
+            @Override
+            public synchronized Object put(Object key, Object value) {
+                //remember order of lines
+                keys.remove(key);
+                keys.add((String) key);
+                return super.put(key, value);
+            }
+        };
+        props.load(input);
+        List<ChannelDefinition> channels = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (!key.endsWith(STATISTICS_SUFFIX)) {
+                String statistics = props.getProperty(key + STATISTICS_SUFFIX);
+                channels.add(parse(key, props.getProperty(key), statistics == null ? null : statistics.trim()));
+            } else if (!props.containsKey(key.substring(0, key.length() - STATISTICS_SUFFIX.length()))) {
+                throw new IllegalArgumentException("Statistics of undefined channel " + key);
+            }
+        }
+        return new ChannelRegistry(channels);
+    }
+
+    private static ChannelDefinition parse(String keyword, String line, String statistics) {
+        String[] parts = line.split(",", 6);
+        if (parts.length < 6) {
+            throw new IllegalArgumentException("Channel " + keyword + " must have 6 values: database, table, column, precision, unit, comment");
+        }
+        String database = parts[0].trim();
+        String table = parts[1].trim();
+        String column = parts[2].trim();
+        if (!KEYWORD.matcher(keyword).matches()) {
+            throw new IllegalArgumentException("Invalid FITS keyword " + keyword);
+        }
+        if (!METEO.equals(database) && !TELE.equals(database)) {
+            throw new IllegalArgumentException("Unknown database " + database + " of channel " + keyword);
+        }
+        if (!IDENTIFIER.matcher(table).matches() || !IDENTIFIER.matcher(column).matches()) {
+            throw new IllegalArgumentException("Invalid table or column of channel " + keyword);
+        }
+        int precision;
+        try {
+            precision = Integer.parseInt(parts[3].trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid precision of channel " + keyword, ex);
+        }
+        if (precision < 0 || precision > 9) {
+            throw new IllegalArgumentException("Precision of channel " + keyword + " must be 0 to 9");
+        }
+        if (statistics != null && !PREFIX.matcher(statistics).matches()) {
+            throw new IllegalArgumentException("Statistics prefix of channel " + keyword + " must have 1 to 4 characters A-Z, 0-9, _ or -");
+        }
+        return new ChannelDefinition(keyword, database, table, column, precision, parts[4].trim(), parts[5].trim(), statistics);
+    }
+
+    /**
+     * @return all channels in order of definition
+     */
+    public List<ChannelDefinition> getChannels() {
+        return channels;
+    }
+
+    /**
+     * @param database meteo or tele
+     * @return channels read from database
+     */
+    public List<ChannelDefinition> getChannels(String database) {
+        List<ChannelDefinition> result = new ArrayList<>();
+        for (ChannelDefinition channel : channels) {
+            if (channel.getDatabase().equals(database)) {
+                result.add(channel);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param keyword FITS keyword
+     * @return channel or null if keyword is not defined
+     */
+    public ChannelDefinition get(String keyword) {
+        for (ChannelDefinition channel : channels) {
+            if (channel.getKeyword().equals(keyword)) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,325 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import org.apache.log4j.Logger;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Keeps track of active database file in telemetry folder.
+ *
+ * Folder is scanned only at start, after midnight and when the active file
+ * disappears. When a new database file is created in the folder (daily or
+ * size based rotation), it becomes the active file as soon as it contains
+ * tables of the active file and some rows, so reading doesn't switch to an
+ * empty file before the logger creates its schema. Only files starting with
+ * the SQLite header are candidates, a file which is not ready is opened again
+ * only after it was modified.
+ *
+ * @author Karel Auf
+ */
+public class DatabaseFileTracker implements AutoCloseable {
+
+    private final static Logger logger = Logger.getLogger(DatabaseFileTracker.class);
+    private static final long RESCAN_INTERVAL = 60000; //ms, used only when folder cannot be watched
+    private static final byte[] MAGIC = "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path dir;
+    private final Set<String> tables;  //tables of channels in lower case, all tables if empty
+    private Set<String> expected;      //tables of active file which must exist in new file
+    private WatchService watcher;
+    private File active;
+    private File pending; //newer file which is not ready yet
+    private long pendingStamp; //modification of pending file when it was checked
+    private final Set<File> created = new HashSet<>(); //created files without header yet
+    private long lastScan;
+    private int scanDay;
+
+    /**
+     * @param dir folder with database files
+     */
+    public DatabaseFileTracker(Path dir) {
+        this(dir, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param dir folder with database files
+     * @param tables tables of channels, those which exist in active file must
+     * exist in new database file before it becomes active, all tables if empty
+     */
+    public DatabaseFileTracker(Path dir, Collection<String> tables) {
+        this.dir = dir;
+        this.tables = new HashSet<>();
+        for (String table : tables) {
+            this.tables.add(table.toLowerCase(Locale.ENGLISH));
+        }
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ex) {
+            logger.error("Cannot watch database folder " + dir + ", rescanning periodically", ex);
+            close();
+        }
+    }
+
+    /**
+     * @return active database file or null if there is no database file
+     */
+    public synchronized File getActiveFile() {
+        boolean rescan = active == null || scanDay != today();
+        if (watcher != null) {
+            rescan |= processEvents();
+        } else {
+            rescan |= System.currentTimeMillis() - lastScan > RESCAN_INTERVAL;
+        }
+        if (rescan) {
+            switchTo(lastFileModified());
+            lastScan = System.currentTimeMillis();
+            scanDay = today();
+        }
+        if (pending != null && stamp(pending) != pendingStamp) {
+            switchTo(pending);
+        }
+        return active;
+    }
+
+    /**
+     * Handles pending events of folder without blocking
+     *
+     * @return true if folder must be rescanned
+     */
+    private boolean processEvents() {
+        boolean rescan = false;
+        WatchKey key;
+        while ((key = watcher.poll()) != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rescan = true;
+                    continue;
+                }
+                File file = dir.resolve((Path) event.context()).toFile();
+                if (!isDatabaseFile(file)) {
+                    continue;
+                }
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    created.remove(file);
+                    if (file.equals(active)) {
+                        rescan = true; //active file was deleted or moved away
+                    } else if (file.equals(pending)) {
+                        pending = null;
+                    }
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE || created.contains(file)) {
+                    //rotation, created file gets the header with its first write
+                    if (hasHeader(file)) {
+                        created.remove(file);
+                        switchTo(file);
+                    } else {
+                        created.add(file);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                logger.error("Database folder " + dir + " is no longer watched.");
+                close();
+                return true;
+            }
+        }
+        return rescan;
+    }
+
+    /**
+     * Makes file active, file replacing existing active file must be ready
+     * first
+     */
+    private void switchTo(File file) {
+        if (file != null && file.equals(active)) {
+            return;
+        }
+        if (file != null && active != null && active.exists()) {
+            long stamp = stamp(file);
+            Boolean ready = isReady(file);
+            if (ready == null) {
+                //file is being created or is not a database, modification event brings it back
+                pending = null;
+                created.add(file);
+                return;
+            }
+            if (!ready) {
+                if (!file.equals(pending)) {
+                    logger.info("Database file " + file + " is not ready yet");
+                }
+                pending = file;
+                pendingStamp = stamp;
+                return;
+            }
+        }
+        if (file != null) {
+            logger.info("Active database file " + file);
+        }
+        active = file;
+        created.remove(file);
+        pending = null;
+        expected = null;
+    }
+
+    /**
+     * @return true if file contains tables of channels which exist in active
+     * file and at least one of them has a row, null if file cannot be read
+     */
+    private Boolean isReady(File file) {
+        if (expected == null) {
+            try {
+                //schema of active file, tables of channels which never existed don't block rotation
+                expected = tables(active);
+                if (!tables.isEmpty()) {
+                    expected.retainAll(tables);
+                }
+            } catch (SQLException ex) {
+                logger.debug("Database file " + active + " cannot be read: " + ex.getMessage());
+                return true;
+            }
+        }
+        try (Connection connection = connect(file);
+                Statement statement = connection.createStatement()) {
+            Set<String> found = tables(connection);
+            if (!found.containsAll(expected)) {
+                return false;
+            }
+            for (String table : expected.isEmpty() ? found : expected) {
+                try (ResultSet rs = statement.executeQuery("select 1 from \"" + table.replace("\"", "\"\"") + "\" limit 1")) {
+                    if (rs.next()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } catch (SQLException ex) {
+            //file is being created or is not a database
+            logger.debug("Database file " + file + " cannot be read: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return names of tables in lower case
+     */
+    private static Set<String> tables(File file) throws SQLException {
+        try (Connection connection = connect(file)) {
+            return tables(connection);
+        }
+    }
+
+    private static Set<String> tables(Connection connection) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("select name from sqlite_master where type in ('table', 'view')")) {
+            while (rs.next()) {
+                names.add(rs.getString(1).toLowerCase(Locale.ENGLISH));
+            }
+        }
+        return names;
+    }
+
+    private static Connection connect(File file) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        return DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath(), config.toProperties());
+    }
+
+    /**
+     * @return database file which was last modified
+     */
+    private File lastFileModified() {
+        logger.debug("lastFileModified()");
+        File[] files = dir.toFile().listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && isDatabaseFile(file) && hasHeader(file);
+            }
+        });
+        if (files == null) {
+            return null;
+        }
+        long lastMod = Long.MIN_VALUE;
+        File choice = null;
+        for (File file : files) {
+            if (file.lastModified() > lastMod) {
+                choice = file;
+                lastMod = file.lastModified();
+            }
+        }
+        return choice;
+    }
+
+    /**
+     * @return false for SQLite auxiliary files
+     */
+    private static boolean isDatabaseFile(File file) {
+        String name = file.getName();
+        return !name.endsWith("-wal") && !name.endsWith("-journal") && !name.endsWith("-shm");
+    }
+
+    /**
+     * @return true if file starts with the header of SQLite database
+     */
+    private static boolean hasHeader(File file) {
+        byte[] header = new byte[MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            int n;
+            while (read < header.length && (n = in.read(header, read, header.length - read)) > 0) {
+                read += n;
+            }
+            return read == header.length && Arrays.equals(header, MAGIC);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return value which changes when file or its write-ahead log is modified
+     */
+    private static long stamp(File file) {
+        File wal = new File(file.getPath() + "-wal");
+        return file.lastModified() * 31 + file.length() + wal.lastModified() * 17 + wal.length();
+    }
+
+    private static int today() {
+        return Calendar.getInstance().get(Calendar.DAY_OF_YEAR);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ex) {
+                logger.debug("Error while closing watch service", ex);
+            }
+            watcher = null;
+        }
+    }
+
+}
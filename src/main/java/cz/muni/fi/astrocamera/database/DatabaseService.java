@@ -5,10 +5,60 @@
  */
 package cz.muni.fi.astrocamera.database;
 
+import java.sql.SQLException;
+
 /**
+ * Source of telemetry read periodically by {@link TelemetryEngine}. All
+ * methods are called from one engine thread at a time.
  *
  * @author Karel Auf
  */
-public interface DatabaseService extends Runnable{
-    
+public interface DatabaseService {
+
+    /**
+     * @return short name used in logs and status
+     */
+    String getName();
+
+    /**
+     * Finds database file and prepares resources before the first read
+     *
+     * @return false if there is no database to read
+     */
+    boolean open();
+
+    /**
+     * @return true if changes of database are reported by file system, false
+     * if database must be polled
+     */
+    boolean isWatched();
+
+    /**
+     * Checks without blocking whether database changed since last call
+     *
+     * @return true if database changed
+     */
+    boolean pollChange();
+
+    /**
+     * Reads new values and publishes them
+     *
+     * @return number of read rows
+     * @throws SQLException when database cannot be read
+     */
+    int read() throws SQLException;
+
+    /**
+     * Handles failed read
+     *
+     * @param ex cause of failure
+     * @param consecutive number of failed reads in a row
+     */
+    void failed(SQLException ex, int consecutive);
+
+    /**
+     * Releases resources, next read is preceded by {@link #open()}
+     */
+    void close();
+
 }
@@ -0,0 +1,82 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import org.apache.log4j.Logger;
+
+/**
+ * Reports changes of SQLite database file and its -wal and -journal files,
+ * so database is read only when something was written into it. Debounce and
+ * max staleness are applied by {@link TelemetryEngine}.
+ *
+ * @author Karel Auf
+ */
+public class DatabaseWatcher implements AutoCloseable {
+
+    private final static Logger logger = Logger.getLogger(DatabaseWatcher.class);
+
+    public static final String MODE_EVENT = "event";
+    public static final String MODE_POLL = "poll";
+
+    private final WatchService watcher;
+
+    /**
+     * @param dir folder with database files
+     * @throws IOException when folder cannot be watched
+     */
+    public DatabaseWatcher(Path dir) throws IOException {
+        this.watcher = FileSystems.getDefault().newWatchService();
+        try {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ex) {
+            watcher.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Checks pending events without blocking
+     *
+     * @param file absolute path to database file
+     * @return true if database changed since last call
+     */
+    public boolean pollChange(String file) {
+        String name = Paths.get(file).getFileName().toString();
+        boolean changed = false;
+        WatchKey key;
+        while ((key = watcher.poll()) != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                        || event.kind() == StandardWatchEventKinds.ENTRY_CREATE //possibly rotated database
+                        || isDatabaseFile(name, event.context().toString())) {
+                    changed = true;
+                }
+            }
+            if (!key.reset()) {
+                logger.error("Database folder is no longer watched.");
+                return true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isDatabaseFile(String name, String changed) {
+        return changed.equals(name) || changed.equals(name + "-wal") || changed.equals(name + "-journal");
+    }
+
+    @Override
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException ex) {
+            logger.debug("Error while closing watch service", ex);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package cz.muni.fi.astrocamera.database;
+
+/**
+ * How rows of telemetry table are found, detected for every table when
+ * database file is opened
+ *
+ * @author Karel Auf
+ */
+public enum QueryStrategy {
+
+    /**
+     * TIME is indexed, rows are searched by TIME
+     */
+    INDEX,
+    /**
+     * TIME is not indexed, rows are appended in order of TIME, so they are
+     * searched by rowid high-water mark and max(rowid)
+     */
+    ROWID,
+    /**
+     * table has neither index on TIME nor rowid, every query scans whole
+     * table
+     */
+    SCAN
+
+}
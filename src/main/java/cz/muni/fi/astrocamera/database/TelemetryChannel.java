@@ -0,0 +1,177 @@
+package cz.muni.fi.astrocamera.database;
+
+/**
+ * Single telemetry table column read incrementally. Remembers the newest TIME
+ * read from the table (high-water mark) and the newest value.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryChannel {
+
+    private final String table; //name of table with TIME column
+    private final String column; //name of column with value
+    private final String key;   //FITS keyword of value in telemetry history
+    private double highWaterMark = Double.NaN; //TIME of the newest read row
+    private double value;       //value of the newest row
+    private boolean read;       //at least one row was read
+    private boolean missing;    //table or column doesn't exist in current database file
+    private long missingSince;  //ms, when table or column was found missing
+    private QueryStrategy strategy; //detected for current database file, null if not detected yet
+    private long rowid;         //rowid of the newest read row in current database file, 0 if unknown
+    private long queries;       //number of queries of this table
+    private long queryNanos;    //total time of queries
+    private long maxQueryNanos; //the longest query
+
+    /**
+     * @param table name of table with TIME and VALUE columns
+     * @param key FITS keyword of value
+     */
+    public TelemetryChannel(String table, String key) {
+        this(table, "VALUE", key);
+    }
+
+    /**
+     * @param table name of table with TIME column
+     * @param column name of column with value
+     * @param key FITS keyword of value
+     */
+    public TelemetryChannel(String table, String column, String key) {
+        this.table = table;
+        this.column = column;
+        this.key = key;
+    }
+
+    /**
+     * @param definition channel from registry
+     */
+    public TelemetryChannel(ChannelDefinition definition) {
+        this(definition.getTable(), definition.getColumn(), definition.getKeyword());
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return TIME of the newest read row or NaN if nothing was read yet
+     */
+    public double getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return true if at least one row was read
+     */
+    public boolean hasValue() {
+        return read;
+    }
+
+    /**
+     * @return TIME of the newest row
+     */
+    public double getTime() {
+        return highWaterMark;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public boolean isMissing() {
+        return missing;
+    }
+
+    void setMissing(boolean missing) {
+        this.missing = missing;
+        this.missingSince = missing ? System.currentTimeMillis() : 0;
+    }
+
+    /**
+     * @return time in milliseconds when table or column was found missing, 0
+     * if it is not missing
+     */
+    public long getMissingSince() {
+        return missingSince;
+    }
+
+    public QueryStrategy getStrategy() {
+        return strategy;
+    }
+
+    void setStrategy(QueryStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * @return rowid of the newest row read from current database file or 0
+     */
+    public long getRowid() {
+        return rowid;
+    }
+
+    void setRowid(long rowid) {
+        this.rowid = rowid;
+    }
+
+    /**
+     * Adds duration of query to statistics of table
+     *
+     * @param nanos duration of query
+     */
+    void recordQuery(long nanos) {
+        queries++;
+        queryNanos += nanos;
+        maxQueryNanos = Math.max(maxQueryNanos, nanos);
+    }
+
+    public long getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return average duration of query in milliseconds
+     */
+    public double getAverageQueryMillis() {
+        return queries == 0 ? 0 : queryNanos / 1e6 / queries;
+    }
+
+    /**
+     * @return the longest query in milliseconds
+     */
+    public double getMaxQueryMillis() {
+        return maxQueryNanos / 1e6;
+    }
+
+    /**
+     * Moves high-water mark to newly read row
+     *
+     * @param time TIME of row
+     * @param value value of row
+     */
+    void advance(double time, double value) {
+        this.highWaterMark = time;
+        this.value = value;
+        this.read = true;
+    }
+
+    /**
+     * Moves high-water mark and rowid high-water mark to newly read row
+     *
+     * @param time TIME of row
+     * @param value value of row
+     * @param rowid rowid of row
+     */
+    void advance(double time, double value, long rowid) {
+        advance(time, value);
+        this.rowid = Math.max(this.rowid, rowid);
+    }
+
+}
@@ -0,0 +1,108 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Long-lived read-only connection to telemetry database file with cached
+ * prepared statements. The connection is reopened only when database file
+ * changes or after it was closed because of an error.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryConnection implements AutoCloseable {
+
+    private final static Logger logger = Logger.getLogger(TelemetryConnection.class);
+    private static final int QUERY_TIMEOUT = 15; //s
+
+    private String file;
+    private Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /**
+     * Gets prepared statement for database file, opens connection if needed
+     *
+     * @param file absolute path to database file
+     * @param sql query
+     * @return cached prepared statement
+     * @throws SQLException when connection cannot be opened or query is
+     * invalid
+     */
+    public PreparedStatement prepare(String file, String sql) throws SQLException {
+        if (connection == null || !file.equals(this.file)) {
+            open(file);
+        }
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statement.setQueryTimeout(QUERY_TIMEOUT);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Runs query once without caching its statement, result is not read
+     *
+     * @param file absolute path to database file
+     * @param sql query
+     * @throws SQLException when connection cannot be opened or query fails
+     */
+    public void execute(String file, String sql) throws SQLException {
+        if (connection == null || !file.equals(this.file)) {
+            open(file);
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(QUERY_TIMEOUT);
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * @return database file of open connection or null
+     */
+    public String getFile() {
+        return connection == null ? null : file;
+    }
+
+    private void open(String file) throws SQLException {
+        close();
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file, config.toProperties());
+        this.file = file;
+        logger.info("Connected to " + file);
+    }
+
+    /**
+     * Closes statements and connection, next {@link #prepare} opens new
+     * connection
+     */
+    @Override
+    public void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                logger.debug("Error while closing statement", ex);
+            }
+        }
+        statements.clear();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                logger.debug("Error while closing connection", ex);
+            }
+            connection = null;
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads all telemetry databases on small shared pool of threads.
+ *
+ * Every registered database service is read according to its own
+ * {@link TelemetryPolicy}. Polled database is read in fixed interval, watched
+ * database is checked for changes every debounce period and read when it
+ * stopped changing or when max staleness elapsed. Failed reads are retried
+ * with growing delay. When {@link AcquisitionActivity} is set, databases are
+ * read faster while frames arrive or telescope slews and slower when idle,
+ * the first frame after idle period wakes all databases for immediate read.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryEngine {
+
+    private final static Logger logger = Logger.getLogger(TelemetryEngine.class);
+
+    private final ScheduledExecutorService executor;
+    private final Map<DatabaseService, Task> tasks = new LinkedHashMap<>();
+    private volatile AcquisitionActivity activity;
+
+    /**
+     * @param threads number of threads shared by all databases
+     */
+    public TelemetryEngine(int threads) {
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, threads), new TelemetryThreadFactory());
+    }
+
+    /**
+     * Starts reading database, when previous reading of service is still
+     * being stopped, the new one starts after service is closed
+     *
+     * @param service database service
+     * @param policy read and retry intervals
+     * @return false if engine is shut down
+     */
+    public synchronized boolean register(DatabaseService service, TelemetryPolicy policy) {
+        Task previous = tasks.get(service);
+        if (previous != null && !previous.isClosed() && !previous.isCancelled()) {
+            return true;
+        }
+        if (executor.isShutdown()) {
+            return false;
+        }
+        Task task = new Task(service, policy);
+        tasks.put(service, task);
+        if (previous != null && previous.startAfterClose(task)) {
+            logger.info("Telemetry " + service.getName() + " starts after previous reading is closed");
+        } else {
+            task.start();
+            logger.info("Telemetry " + service.getName() + " started");
+        }
+        return true;
+    }
+
+    /**
+     * Stops reading database, resources of service are released after
+     * running read finishes
+     *
+     * @param service database service
+     */
+    public synchronized void unregister(DatabaseService service) {
+        Task task = tasks.get(service);
+        if (task != null && !task.isCancelled()) {
+            task.cancel();
+            logger.info("Telemetry stopped, " + task);
+        }
+    }
+
+    /**
+     * @param service database service
+     * @return counters of service or null if it was never registered
+     */
+    public synchronized Task getTask(DatabaseService service) {
+        return tasks.get(service);
+    }
+
+    /**
+     * @return one line per database for logging
+     */
+    public synchronized String getStatus() {
+        StringBuilder sb = new StringBuilder();
+        for (Task task : tasks.values()) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(task);
+        }
+        return sb.toString();
+    }
+
+    public AcquisitionActivity getActivity() {
+        return activity;
+    }
+
+    public void setActivity(AcquisitionActivity activity) {
+        this.activity = activity;
+        if (activity != null) {
+            activity.setWakeUp(new Runnable() {
+                @Override
+                public void run() {
+                    wakeUp();
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads all databases now unless they are already being read or wait
+     * for retry, used when acquisition starts
+     */
+    public synchronized void wakeUp() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        for (Task task : tasks.values()) {
+            task.wakeUp();
+        }
+    }
+
+    /**
+     * Stops all databases and threads
+     */
+    public synchronized void shutdown() {
+        for (Task task : tasks.values()) {
+            task.cancel();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Repeated reading of one database with its counters
+     */
+    public class Task implements Runnable {
+
+        private final DatabaseService service;
+        private final TelemetryPolicy policy;
+        private ScheduledFuture<?> future;
+        private volatile boolean cancelled;
+        private volatile boolean closed;
+        private Task successor;        //started when service is closed
+        private boolean opened;
+        private boolean pending;       //change seen, waiting for debounce
+        private boolean staleReported;
+        private volatile int consecutiveErrors;
+        private long lastAttempt;      //ms since epoch
+        private volatile long lastSuccess; //ms since epoch
+        private volatile long reads;
+        private volatile long errors;
+        private volatile long rows;
+        private volatile long lastLatency; //ms
+        private volatile long maxLatency;  //ms
+        private volatile AcquisitionActivity.State state = AcquisitionActivity.State.NORMAL;
+        private volatile long interval;    //ms, current read interval
+        private volatile long stateChanges;
+        private volatile long wakeUps;
+
+        private Task(DatabaseService service, TelemetryPolicy policy) {
+            this.service = service;
+            this.policy = policy;
+            this.interval = policy.getInterval();
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    closeService();
+                    return;
+                }
+            }
+            long delay;
+            try {
+                delay = step();
+            } catch (RuntimeException ex) {
+                //never let exception stop rescheduling
+                logger.error("Telemetry " + service.getName() + " failed", ex);
+                consecutiveErrors++;
+                errors++;
+                delay = policy.retryDelay(consecutiveErrors);
+            }
+            synchronized (this) {
+                if (cancelled) {
+                    closeService();
+                } else {
+                    schedule(delay);
+                }
+            }
+        }
+
+        /**
+         * @return delay before next step in milliseconds
+         */
+        private long step() {
+            long now = System.currentTimeMillis();
+            if (!opened) {
+                opened = service.open();
+                if (!opened) {
+                    consecutiveErrors++;
+                    errors++;
+                    return policy.retryDelay(consecutiveErrors);
+                }
+            }
+            updateState(now);
+            checkStaleness(now);
+            long sinceAttempt = now - lastAttempt;
+            if (service.isWatched()) {
+                boolean changed = service.pollChange();
+                pending |= changed;
+                boolean due = (pending && !changed && sinceAttempt >= policy.getMinGap(state))
+                        || sinceAttempt >= policy.getMaxStale(state);
+                if (!due) {
+                    return policy.getDebounce();
+                }
+            } else if (consecutiveErrors == 0 && sinceAttempt < interval) {
+                //wake up at least in normal interval to notice change of activity
+                return Math.min(interval - sinceAttempt, policy.getInterval());
+            }
+            lastAttempt = now;
+            long start = System.nanoTime();
+            try {
+                rows += service.read();
+            } catch (SQLException ex) {
+                consecutiveErrors++;
+                errors++;
+                service.failed(ex, consecutiveErrors);
+                return policy.retryDelay(consecutiveErrors);
+            }
+            lastLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            maxLatency = Math.max(maxLatency, lastLatency);
+            reads++;
+            consecutiveErrors = 0;
+            pending = false;
+            staleReported = false;
+            lastSuccess = System.currentTimeMillis();
+            return service.isWatched() ? policy.getDebounce() : Math.min(interval, policy.getInterval());
+        }
+
+        private void updateState(long now) {
+            AcquisitionActivity current = activity;
+            AcquisitionActivity.State newState = current == null ? AcquisitionActivity.State.NORMAL : current.getState(now);
+            interval = service.isWatched() ? policy.getMaxStale(newState) : policy.getInterval(newState);
+            if (newState != state) {
+                state = newState;
+                stateChanges++;
+                logger.info("Telemetry " + service.getName() + " " + newState.name().toLowerCase(Locale.ENGLISH)
+                        + (service.isWatched() ? ", read on change, at least every " : ", read every ") + interval + " ms");
+            }
+        }
+
+        private void checkStaleness(long now) {
+            //slow reading while idle is not staleness
+            long limit = Math.max(policy.getStaleness(), 2 * interval);
+            if (lastSuccess > 0 && !staleReported && now - lastSuccess > limit) {
+                staleReported = true;
+                logger.warn("Telemetry " + service.getName() + " is stale, last read " + (now - lastSuccess) + " ms ago");
+            }
+        }
+
+        /**
+         * Runs next step now, the step reads database because the activity
+         * changed to acquiring
+         */
+        private synchronized void wakeUp() {
+            if (cancelled || closed || future == null || consecutiveErrors > 0) {
+                return;
+            }
+            //running step schedules the next one itself
+            if (future.cancel(false)) {
+                wakeUps++;
+                schedule(0);
+            }
+        }
+
+        private void schedule(long delay) {
+            future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (future != null && future.cancel(false)) {
+                //not running, release resources in engine thread
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeService();
+                    }
+                });
+            }
+        }
+
+        private synchronized void closeService() {
+            if (!closed) {
+                service.close();
+                closed = true;
+                if (successor != null) {
+                    successor.start();
+                    successor = null;
+                }
+            }
+        }
+
+        /**
+         * Starts reading, task cancelled before start is only marked closed
+         * because service was not opened
+         */
+        private synchronized void start() {
+            if (cancelled) {
+                closed = true;
+                return;
+            }
+            try {
+                schedule(0);
+            } catch (RejectedExecutionException ex) {
+                logger.error("Telemetry " + service.getName() + " not started, engine is shut down");
+                closed = true;
+            }
+        }
+
+        /**
+         * @param next task of the same service
+         * @return false if service is already closed, so next task can start
+         * now
+         */
+        private synchronized boolean startAfterClose(Task next) {
+            if (closed) {
+                return false;
+            }
+            successor = next;
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        public long getReads() {
+            return reads;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getLastLatency() {
+            return lastLatency;
+        }
+
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        public AcquisitionActivity.State getState() {
+            return state;
+        }
+
+        /**
+         * @return ms between reads in current state, for watched database the
+         * longest time between reads
+         */
+        public long getInterval() {
+            return interval;
+        }
+
+        public long getStateChanges() {
+            return stateChanges;
+        }
+
+        public long getWakeUps() {
+            return wakeUps;
+        }
+
+        /**
+         * @return age of published values in milliseconds or -1 if nothing was
+         * read
+         */
+        public long getAge() {
+            return lastSuccess == 0 ? -1 : System.currentTimeMillis() - lastSuccess;
+        }
+
+        @Override
+        public String toString() {
+            return service.getName() + ": " + state.name().toLowerCase(Locale.ENGLISH) + ", interval " + interval
+                    + " ms, reads " + reads + ", rows " + rows + ", errors " + errors + ", wake ups " + wakeUps
+                    + ", latency " + lastLatency + " ms (max " + maxLatency + " ms), age " + getAge() + " ms";
+        }
+    }
+
+    /**
+     * Creates named daemon threads
+     */
+    private static class TelemetryThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "telemetry-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
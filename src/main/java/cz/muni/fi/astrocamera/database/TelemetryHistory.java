@@ -0,0 +1,125 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.log4j.Logger;
+
+/**
+ * History of all telemetry values shared by database services, which fill
+ * it, and FITS updates, which read values for time of exposure.
+ *
+ * Series are identified by FITS keyword of the value. Samples read from
+ * database are also written into {@link TelemetryJournal} if it is set.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryHistory {
+
+    private final static Logger logger = Logger.getLogger(TelemetryHistory.class);
+
+    public static final String TEMP_IN = "TEMP_IN";
+    public static final String TEMP_OUT = "TEMP_OUT";
+    public static final String PRES_OBS = "PRES_OBS";
+    public static final String HUMIDITY = "HUMIDITY";
+    public static final String PYRGEOM = "PYRGEOM";
+    public static final String WIND_SP = "WIND_SP";
+    public static final String RA = "RA1";
+    public static final String DEC = "DEC1";
+
+    private final int capacity;
+    private final ConcurrentMap<String, TelemetrySeries> series = new ConcurrentHashMap<>();
+    private volatile TelemetryJournal journal;
+
+    /**
+     * @param capacity number of samples kept for every value
+     */
+    public TelemetryHistory(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param key FITS keyword of value
+     * @return series of value, created when used for the first time
+     */
+    public TelemetrySeries getSeries(String key) {
+        TelemetrySeries s = series.get(key);
+        if (s == null) {
+            TelemetrySeries created = new TelemetrySeries(capacity, key.equals(RA));
+            s = series.putIfAbsent(key, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Adds sample read from database
+     *
+     * @param key FITS keyword of value
+     * @param time value of TIME column
+     * @param value value of VALUE column
+     */
+    public void add(String key, double time, double value) {
+        long millis = TelemetryTime.toMillis(time);
+        TelemetryJournal current = journal;
+        if (getSeries(key).add(millis, value) && current != null) {
+            try {
+                current.append(key, millis, value);
+            } catch (IOException ex) {
+                //history in memory still works
+                logger.error("Cannot write telemetry journal, journal disabled", ex);
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if no sample was added yet
+     */
+    public boolean isEmpty() {
+        for (TelemetrySeries s : series.values()) {
+            if (s.size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public TelemetryJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(TelemetryJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @param key FITS keyword of value
+     * @param from start of interval in milliseconds since epoch
+     * @param to end of interval in milliseconds since epoch
+     * @param statistics target statistics, samples from interval are added
+     * @return number of samples in interval
+     */
+    public int statistics(String key, long from, long to, TelemetryStatistics statistics) {
+        TelemetrySeries s = series.get(key);
+        return s == null ? 0 : s.statistics(from, to, statistics);
+    }
+
+    /**
+     * @param key FITS keyword of value
+     * @param time time in milliseconds since epoch
+     * @param maxGap maximal distance to the nearest sample in milliseconds
+     * @return interpolated value or NaN if there is no sample close enough
+     */
+    public double valueAt(String key, long time, long maxGap) {
+        TelemetrySeries s = series.get(key);
+        return s == null ? Double.NaN : s.valueAt(time, maxGap);
+    }
+
+}
@@ -0,0 +1,263 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only local journal of all telemetry samples, so history survives
+ * restart of application and outage of telemetry databases.
+ *
+ * Journal is a folder of segment files with fixed number of 24 byte records:
+ * FITS keyword (8 ASCII bytes padded by spaces), time in milliseconds since
+ * epoch (long) and value (double). Unused part of segment is filled by zeros.
+ * The active segment is memory mapped, so appended sample is in page cache
+ * without system call and is kept even if the application is killed. Full
+ * segment is replaced by new one and segments older than retention are
+ * deleted. Segments are never compacted, a segment with some expired samples
+ * is kept whole until its newest sample expires, so disk usage exceeds
+ * retention by at most one segment.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryJournal implements AutoCloseable {
+
+    private final static Logger logger = Logger.getLogger(TelemetryJournal.class);
+
+    public static final int RECORD_SIZE = 24;
+    private static final int KEY_SIZE = 8;
+    private static final String PREFIX = "telemetry-";
+    private static final String SUFFIX = ".journal";
+    private static final int REPLAY_BUFFER = RECORD_SIZE * 4096;
+
+    private final Path dir;
+    private final int segmentRecords; //records in one segment
+    private final long retention;     //ms, older segments are deleted
+    private final byte[] key = new byte[KEY_SIZE];
+    private FileChannel channel;      //active segment
+    private MappedByteBuffer buffer;  //mapped active segment
+    private long sequence;            //number of active segment
+    private long appended;
+
+    /**
+     * @param dir folder with segments, created if it doesn't exist
+     * @param segmentRecords number of records in one segment
+     * @param retention milliseconds for which samples are kept
+     */
+    public TelemetryJournal(Path dir, int segmentRecords, long retention) {
+        if (segmentRecords < 1) {
+            throw new IllegalArgumentException("Segment must have at least one record.");
+        }
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        this.retention = retention;
+    }
+
+    /**
+     * Opens the newest segment for appending, deletes expired segments
+     *
+     * @throws IOException when folder or segment cannot be opened
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(dir);
+        deleteExpired();
+        List<Path> segments = segments();
+        if (segments.isEmpty()) {
+            openSegment(1);
+        } else {
+            openSegment(sequenceOf(segments.get(segments.size() - 1)));
+            //continue after the last written record
+            int position = 0;
+            while (position < buffer.capacity() && buffer.get(position) != 0) {
+                position += RECORD_SIZE;
+            }
+            buffer.position(position);
+            if (!buffer.hasRemaining()) {
+                roll();
+            }
+        }
+        logger.info("Telemetry journal " + dir + " opened, segment " + sequence);
+    }
+
+    /**
+     * Reads all samples from journal into history, samples are added
+     * directly to series, so they are not journaled again
+     *
+     * @param history target history
+     * @return number of replayed samples
+     * @throws IOException when segment cannot be read
+     */
+    public synchronized int replay(TelemetryHistory history) throws IOException {
+        int replayed = 0;
+        long oldest = System.currentTimeMillis() - retention;
+        ByteBuffer records = ByteBuffer.allocate(REPLAY_BUFFER);
+        byte[] name = new byte[KEY_SIZE];
+        for (Path segment : segments()) {
+            try (FileChannel input = FileChannel.open(segment, StandardOpenOption.READ)) {
+                records.clear();
+                boolean end = false;
+                while (!end && input.read(records) > 0) {
+                    records.flip();
+                    while (records.remaining() >= RECORD_SIZE) {
+                        records.get(name);
+                        long time = records.getLong();
+                        double value = records.getDouble();
+                        if (name[0] == 0) {
+                            end = true; //unused part of segment
+                            break;
+                        }
+                        if (time >= oldest && history.getSeries(decode(name)).add(time, value)) {
+                            replayed++;
+                        }
+                    }
+                    records.compact();
+                }
+            }
+        }
+        logger.info("Telemetry journal replayed " + replayed + " samples");
+        return replayed;
+    }
+
+    /**
+     * Appends sample to journal
+     *
+     * @param keyword FITS keyword of value, at most 8 ASCII characters
+     * @param time time of sample in milliseconds since epoch
+     * @param value value of sample
+     * @throws IOException when new segment cannot be created
+     */
+    public synchronized void append(String keyword, long time, double value) throws IOException {
+        if (buffer == null) {
+            throw new IllegalStateException("Journal is not open.");
+        }
+        if (!buffer.hasRemaining()) {
+            roll();
+        }
+        encode(keyword);
+        buffer.put(key);
+        buffer.putLong(time);
+        buffer.putDouble(value);
+        appended++;
+    }
+
+    /**
+     * Deletes segments whose newest sample is older than retention, active
+     * segment is never deleted
+     *
+     * @return number of deleted segments
+     * @throws IOException when folder cannot be listed
+     */
+    public synchronized int deleteExpired() throws IOException {
+        long oldest = System.currentTimeMillis() - retention;
+        int deleted = 0;
+        for (Path segment : segments()) {
+            if (channel != null && sequenceOf(segment) == sequence) {
+                continue;
+            }
+            //segments are written in time order, modification time is time of the last record
+            if (Files.getLastModifiedTime(segment).toMillis() < oldest) {
+                try {
+                    Files.delete(segment);
+                    deleted++;
+                } catch (IOException ex) {
+                    //still mapped on some systems, deleted after next roll
+                    logger.warn("Cannot delete journal segment " + segment, ex);
+                }
+            }
+        }
+        if (deleted > 0) {
+            logger.info("Telemetry journal deleted " + deleted + " old segments");
+        }
+        return deleted;
+    }
+
+    /**
+     * @return number of samples appended since journal was opened
+     */
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                logger.error("Cannot close journal segment", ex);
+            }
+            channel = null;
+        }
+    }
+
+    private void roll() throws IOException {
+        buffer.force();
+        channel.close();
+        openSegment(sequence + 1);
+        deleteExpired();
+    }
+
+    private void openSegment(long number) throws IOException {
+        Path file = dir.resolve(PREFIX + String.format("%012d", number) + SUFFIX);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        //new segment is created full of zeros
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_SIZE);
+        sequence = number;
+    }
+
+    /**
+     * @return segments ordered from the oldest
+     */
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        //numbers have fixed width, so names are ordered as numbers
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private void encode(String keyword) {
+        if (keyword.isEmpty() || keyword.length() > KEY_SIZE) {
+            throw new IllegalArgumentException("Invalid keyword " + keyword);
+        }
+        for (int i = 0; i < KEY_SIZE; i++) {
+            key[i] = i < keyword.length() ? (byte) keyword.charAt(i) : (byte) ' ';
+        }
+    }
+
+    private static String decode(byte[] name) {
+        int length = KEY_SIZE;
+        while (length > 0 && name[length - 1] == ' ') {
+            length--;
+        }
+        return new String(name, 0, length, StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,122 @@
+package cz.muni.fi.astrocamera.database;
+
+/**
+ * How often {@link TelemetryEngine} reads a database and how it retries
+ *
+ * @author Karel Auf
+ */
+public class TelemetryPolicy {
+
+    private final long interval;      //ms between reads of polled database
+    private final long debounce;      //ms without change before watched database is read
+    private final long maxStale;      //ms, watched database is read at least this often
+    private final long staleness;     //ms, older values are reported as stale
+    private final long retryDelay;    //ms before the first retry
+    private final long maxRetryDelay; //ms, retry delay doubles up to this value
+    private final long activeInterval; //ms between reads while acquiring or slewing
+    private final long idleInterval;   //ms between reads while idle
+
+    public TelemetryPolicy(long interval, long debounce, long maxStale, long staleness, long retryDelay, long maxRetryDelay) {
+        this(interval, debounce, maxStale, staleness, retryDelay, maxRetryDelay, interval, interval);
+    }
+
+    public TelemetryPolicy(long interval, long debounce, long maxStale, long staleness, long retryDelay, long maxRetryDelay,
+            long activeInterval, long idleInterval) {
+        if (interval <= 0 || debounce <= 0 || retryDelay <= 0 || activeInterval <= 0 || idleInterval <= 0) {
+            throw new IllegalArgumentException("Intervals must be positive.");
+        }
+        this.interval = interval;
+        this.activeInterval = Math.min(activeInterval, interval);
+        this.idleInterval = Math.max(idleInterval, interval);
+        this.debounce = debounce;
+        this.maxStale = maxStale;
+        this.staleness = staleness;
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = Math.max(retryDelay, maxRetryDelay);
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getDebounce() {
+        return debounce;
+    }
+
+    public long getMaxStale() {
+        return maxStale;
+    }
+
+    public long getStaleness() {
+        return staleness;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public long getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    public long getActiveInterval() {
+        return activeInterval;
+    }
+
+    public long getIdleInterval() {
+        return idleInterval;
+    }
+
+    /**
+     * @param state current activity
+     * @return ms between reads of polled database
+     */
+    public long getInterval(AcquisitionActivity.State state) {
+        switch (state) {
+            case SLEWING:
+            case ACQUIRING:
+                return activeInterval;
+            case IDLE:
+                return idleInterval;
+            default:
+                return interval;
+        }
+    }
+
+    /**
+     * @param state current activity
+     * @return ms, watched database is read at least this often
+     */
+    public long getMaxStale(AcquisitionActivity.State state) {
+        switch (state) {
+            case SLEWING:
+            case ACQUIRING:
+                return Math.min(maxStale, activeInterval);
+            case IDLE:
+                return Math.max(maxStale, idleInterval);
+            default:
+                return maxStale;
+        }
+    }
+
+    /**
+     * @param state current activity
+     * @return ms, changes of watched database are not read more often
+     */
+    public long getMinGap(AcquisitionActivity.State state) {
+        return state == AcquisitionActivity.State.IDLE ? idleInterval : 0;
+    }
+
+    /**
+     * @param consecutive number of failed reads in a row
+     * @return delay before next attempt, doubled after every failure
+     */
+    public long retryDelay(int consecutive) {
+        long delay = retryDelay;
+        for (int i = 1; i < consecutive && delay < maxRetryDelay; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, maxRetryDelay);
+    }
+
+}
@@ -0,0 +1,326 @@
+package cz.muni.fi.astrocamera.database;
+
+import cz.muni.fi.astrocamera.entity.TelemetrySnapshot;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads telemetry tables incrementally. Every cycle streams all rows newer
+ * than the high-water mark of each table by its prepared query, so no sample
+ * between two cycles is lost. When a table is read for the first time, the
+ * newest rows up to the capacity of telemetry history are loaded instead.
+ *
+ * Query of every table depends on {@link QueryStrategy} detected when database
+ * file is opened. Tables without index on TIME are searched by rowid, so
+ * reading new rows doesn't scan whole table. Missing tables are looked for
+ * again every minute. Strategy and query times of every table are logged
+ * periodically.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryReader implements AutoCloseable {
+
+    private final static Logger logger = Logger.getLogger(TelemetryReader.class);
+    private static final long MISSING_RECHECK = 60000; //ms, missing tables are looked for again after it
+    private static final long STATUS_INTERVAL = 600000; //ms between logs of query times
+
+    private final TelemetryConnection db = new TelemetryConnection();
+    private final List<TelemetryChannel> channels;
+    private TelemetryHistory history;
+    private String lastFile;
+    private long cycles;
+    private long cycleNanos;
+    private long maxCycleNanos;
+    private long lastStatus = System.currentTimeMillis();
+
+    /**
+     * @param channels tables read by this reader
+     */
+    public TelemetryReader(TelemetryChannel... channels) {
+        this(Arrays.asList(channels));
+    }
+
+    /**
+     * @param channels tables read by this reader
+     */
+    public TelemetryReader(List<TelemetryChannel> channels) {
+        this.channels = Collections.unmodifiableList(new ArrayList<>(channels));
+    }
+
+    public List<TelemetryChannel> getChannels() {
+        return channels;
+    }
+
+    public TelemetryHistory getHistory() {
+        return history;
+    }
+
+    public void setHistory(TelemetryHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Reads rows added since the last call
+     *
+     * @param file absolute path to database file
+     * @return number of new rows
+     * @throws SQLException when database cannot be read
+     */
+    public int read(String file) throws SQLException {
+        if (!file.equals(lastFile)) {
+            //tables may exist in new database file and have different indexes
+            for (TelemetryChannel channel : channels) {
+                channel.setMissing(false);
+                channel.setStrategy(null);
+                channel.setRowid(0);
+            }
+            lastFile = file;
+        }
+        int rows = 0;
+        long start = System.nanoTime();
+        for (TelemetryChannel channel : channels) {
+            if (channel.isMissing() && System.currentTimeMillis() - channel.getMissingSince() >= MISSING_RECHECK) {
+                //table may be created later, e.g. when sensor is added to running logger
+                channel.setMissing(false);
+                channel.setStrategy(null);
+            }
+            if (channel.getStrategy() == null && !channel.isMissing()) {
+                detect(file, channel);
+            }
+            if (channel.isMissing()) {
+                continue;
+            }
+            if (Double.isNaN(channel.getHighWaterMark())) {
+                rows += backfill(file, channel);
+            } else {
+                rows += readNewer(file, channel);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        cycles++;
+        cycleNanos += nanos;
+        maxCycleNanos = Math.max(maxCycleNanos, nanos);
+        if (System.currentTimeMillis() - lastStatus >= STATUS_INTERVAL) {
+            lastStatus = System.currentTimeMillis();
+            logger.info("Telemetry queries of " + file + ":\n" + getQueryStatus());
+        }
+        return rows;
+    }
+
+    /**
+     * @return the newest values of all channels which have some value or null
+     * if no channel has a value
+     */
+    public TelemetrySnapshot snapshot() {
+        int count = 0;
+        for (TelemetryChannel channel : channels) {
+            if (channel.hasValue()) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        String[] keys = new String[count];
+        double[] values = new double[count];
+        double time = Double.NEGATIVE_INFINITY;
+        int i = 0;
+        for (TelemetryChannel channel : channels) {
+            if (channel.hasValue()) {
+                keys[i] = channel.getKey();
+                values[i] = channel.getValue();
+                time = Math.max(time, channel.getTime());
+                i++;
+            }
+        }
+        return new TelemetrySnapshot(keys, values, time);
+    }
+
+    /**
+     * Loads the newest rows of table which was not read yet
+     */
+    private int backfill(String file, TelemetryChannel channel) throws SQLException {
+        int limit = history == null ? 1 : history.getCapacity();
+        String sql;
+        if (channel.getStrategy() == QueryStrategy.ROWID) {
+            //the newest rows are at the end of rowid b-tree
+            sql = "select ROW_ID, TIME, VALUE from (select rowid as ROW_ID, TIME, " + channel.getColumn() + " as VALUE from "
+                    + channel.getTable() + " where rowid > (select max(rowid) from " + channel.getTable() + ") - ?) order by TIME";
+        } else {
+            sql = "select ROW_ID, TIME, VALUE from (select 0 as ROW_ID, TIME, " + channel.getColumn() + " as VALUE from "
+                    + channel.getTable() + " order by TIME desc limit ?) order by TIME";
+        }
+        PreparedStatement statement;
+        try {
+            statement = db.prepare(file, sql);
+        } catch (SQLException ex) {
+            if (isMissing(ex)) {
+                //single missing sensor must not stop other channels
+                logger.error("Channel " + channel.getKey() + " skipped: " + ex.getMessage());
+                channel.setMissing(true);
+                return 0;
+            }
+            throw ex;
+        }
+        statement.setInt(1, limit);
+        int rows = 0;
+        long start = System.nanoTime();
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                add(channel, rs);
+                rows++;
+            }
+        }
+        channel.recordQuery(System.nanoTime() - start);
+        logger.debug("Backfilled " + rows + " rows of " + channel.getTable());
+        return rows;
+    }
+
+    /**
+     * Detects how rows of table can be found quickly
+     */
+    private void detect(String file, TelemetryChannel channel) throws SQLException {
+        String table = channel.getTable();
+        QueryStrategy strategy = null;
+        long start = System.nanoTime();
+        try {
+            //TIME as alias of rowid
+            try (ResultSet rs = pragma(file, "pragma table_info(" + table + ")")) {
+                while (rs != null && rs.next()) {
+                    if ("TIME".equalsIgnoreCase(rs.getString("name")) && rs.getInt("pk") == 1
+                            && "INTEGER".equalsIgnoreCase(rs.getString("type"))) {
+                        strategy = QueryStrategy.INDEX;
+                    }
+                }
+            }
+            //TIME as the first column of some index
+            List<String> indexes = new ArrayList<>();
+            try (ResultSet rs = pragma(file, "pragma index_list(" + table + ")")) {
+                while (rs != null && rs.next()) {
+                    indexes.add(rs.getString("name"));
+                }
+            }
+            for (int i = 0; i < indexes.size() && strategy == null; i++) {
+                String index = "\"" + indexes.get(i).replace("\"", "\"\"") + "\"";
+                try (ResultSet rs = pragma(file, "pragma index_info(" + index + ")")) {
+                    while (rs != null && rs.next()) {
+                        if (rs.getInt("seqno") == 0 && "TIME".equalsIgnoreCase(rs.getString("name"))) {
+                            strategy = QueryStrategy.INDEX;
+                        }
+                    }
+                }
+            }
+            if (strategy == null) {
+                //fails for tables without rowid
+                try {
+                    db.execute(file, "select max(rowid) from " + table);
+                    strategy = QueryStrategy.ROWID;
+                } catch (SQLException ex) {
+                    if (!String.valueOf(ex.getMessage()).contains("no such column")) {
+                        throw ex;
+                    }
+                    strategy = QueryStrategy.SCAN;
+                }
+            }
+        } catch (SQLException ex) {
+            if (isMissing(ex)) {
+                logger.error("Channel " + channel.getKey() + " skipped: " + ex.getMessage());
+                channel.setMissing(true);
+                return;
+            }
+            throw ex;
+        }
+        channel.setStrategy(strategy);
+        logger.info("Table " + table + " of " + file + " is read by " + strategy.name().toLowerCase(Locale.ENGLISH)
+                + ", detected in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        if (strategy == QueryStrategy.SCAN) {
+            logger.warn("Table " + table + " has neither index on TIME nor rowid, every read scans whole table."
+                    + " Create index on TIME to read it fast.");
+        }
+    }
+
+    /**
+     * @return result of pragma or null if pragma has no result, e.g. for
+     * missing table
+     */
+    private ResultSet pragma(String file, String sql) throws SQLException {
+        PreparedStatement statement = db.prepare(file, sql);
+        return statement.execute() ? statement.getResultSet() : null;
+    }
+
+    private static boolean isMissing(SQLException ex) {
+        String message = String.valueOf(ex.getMessage());
+        return message.contains("no such table") || message.contains("no such column");
+    }
+
+    /**
+     * Streams rows newer than high-water mark of table
+     */
+    private int readNewer(String file, TelemetryChannel channel) throws SQLException {
+        boolean rowid = channel.getStrategy() == QueryStrategy.ROWID;
+        String sql = "select " + (rowid ? "rowid" : "0") + " as ROW_ID, TIME, " + channel.getColumn() + " as VALUE from "
+                + channel.getTable()
+                //rowid seek limits search to rows appended since the last read
+                + (rowid ? " where rowid > ? and TIME > ?" : " where TIME > ?") + " order by TIME";
+        PreparedStatement statement = db.prepare(file, sql);
+        int parameter = 1;
+        if (rowid) {
+            statement.setLong(parameter++, channel.getRowid());
+        }
+        statement.setDouble(parameter, channel.getHighWaterMark());
+        int rows = 0;
+        long start = System.nanoTime();
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                add(channel, rs);
+                rows++;
+            }
+        }
+        channel.recordQuery(System.nanoTime() - start);
+        return rows;
+    }
+
+    /**
+     * @return strategy and query times of every table, one table per line
+     */
+    public String getQueryStatus() {
+        StringBuilder sb = new StringBuilder();
+        for (TelemetryChannel channel : channels) {
+            sb.append(channel.getTable()).append('.').append(channel.getColumn()).append(": ")
+                    .append(channel.isMissing() ? "missing" : channel.getStrategy() == null ? "not read"
+                            : channel.getStrategy().name().toLowerCase(Locale.ENGLISH))
+                    .append(", ").append(channel.getQueries())
+                    .append(String.format(Locale.ENGLISH, " queries avg %.1f ms max %.1f ms%n",
+                            channel.getAverageQueryMillis(), channel.getMaxQueryMillis()));
+        }
+        sb.append("cycles: ").append(cycles).append(String.format(Locale.ENGLISH, " avg %.1f ms max %.1f ms",
+                cycles == 0 ? 0 : cycleNanos / 1e6 / cycles, maxCycleNanos / 1e6));
+        return sb.toString();
+    }
+
+    private void add(TelemetryChannel channel, ResultSet rs) throws SQLException {
+        double time = rs.getDouble("TIME");
+        double value = rs.getDouble("VALUE");
+        channel.advance(time, value, rs.getLong("ROW_ID"));
+        if (history != null) {
+            history.add(channel.getKey(), time, value);
+        }
+    }
+
+    /**
+     * Closes database connection, high-water marks are kept
+     */
+    @Override
+    public void close() {
+        db.close();
+    }
+
+}
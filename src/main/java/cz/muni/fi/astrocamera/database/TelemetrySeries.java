@@ -0,0 +1,228 @@
+package cz.muni.fi.astrocamera.database;
+
+/**
+ * Bounded time series of single telemetry value kept in primitive ring buffer.
+ *
+ * Samples are ordered by time, when the buffer is full the oldest sample is
+ * overwritten. Lookup is binary search and doesn't allocate.
+ *
+ * @author Karel Auf
+ */
+public class TelemetrySeries {
+
+    private final long[] times;    //time of sample in milliseconds since epoch
+    private final double[] values; //value of sample
+    private final boolean angle;   //value is angle in degrees, interpolated over 0/360
+    private int start;             //index of the oldest sample
+    private int size;              //number of samples
+
+    /**
+     * @param capacity maximal number of kept samples
+     * @param angle true if values are angles in degrees
+     */
+    public TelemetrySeries(int capacity, boolean angle) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2.");
+        }
+        this.times = new long[capacity];
+        this.values = new double[capacity];
+        this.angle = angle;
+    }
+
+    /**
+     * Adds sample, samples not newer than the last one are ignored
+     *
+     * @param time time of sample in milliseconds since epoch
+     * @param value value of sample
+     * @return true if sample was added
+     */
+    public synchronized boolean add(long time, double value) {
+        if (Double.isNaN(value) || (size > 0 && time <= timeAt(size - 1))) {
+            return false;
+        }
+        int capacity = times.length;
+        int index;
+        if (size < capacity) {
+            index = (start + size) % capacity;
+            size++;
+        } else {
+            index = start;
+            start = (start + 1) % capacity;
+        }
+        times[index] = time;
+        values[index] = value;
+        return true;
+    }
+
+    /**
+     * Gets value at given time interpolated between neighbouring samples. The
+     * nearest sample must not be further than maxGap, also inside the series,
+     * where samples may be missing because database was not available.
+     * Neighbouring samples more than twice maxGap apart are not interpolated,
+     * the nearest one is used.
+     *
+     * @param time time in milliseconds since epoch
+     * @param maxGap maximal distance to the nearest sample in milliseconds
+     * @return value or NaN if there is no sample close enough
+     */
+    public synchronized double valueAt(long time, long maxGap) {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        int i = search(time);
+        if (i >= 0) {
+            return valueAtIndex(i);
+        }
+        int next = -i - 1;
+        if (next == 0) {
+            return timeAt(0) - time <= maxGap ? valueAtIndex(0) : Double.NaN;
+        }
+        if (next == size) {
+            return time - timeAt(size - 1) <= maxGap ? valueAtIndex(size - 1) : Double.NaN;
+        }
+        long t0 = timeAt(next - 1);
+        long t1 = timeAt(next);
+        if (Math.min(time - t0, t1 - time) > maxGap) {
+            return Double.NaN;
+        }
+        if (t1 - t0 > 2 * maxGap) {
+            //values during the gap are unknown
+            return time - t0 <= t1 - time ? valueAtIndex(next - 1) : valueAtIndex(next);
+        }
+        double v0 = valueAtIndex(next - 1);
+        double v1 = valueAtIndex(next);
+        if (angle) {
+            //shortest way over 0/360
+            if (v1 - v0 > 180) {
+                v1 -= 360;
+            } else if (v0 - v1 > 180) {
+                v1 += 360;
+            }
+        }
+        double value = v0 + (v1 - v0) * (time - t0) / (t1 - t0);
+        if (angle && value < 0) {
+            value += 360;
+        } else if (angle && value >= 360) {
+            value -= 360;
+        }
+        return value;
+    }
+
+    /**
+     * Adds all samples from given time interval to statistics, interval is
+     * found by binary search and walked once without allocation
+     *
+     * @param from start of interval in milliseconds since epoch, inclusive
+     * @param to end of interval in milliseconds since epoch, inclusive
+     * @param statistics target statistics
+     * @return number of added samples
+     */
+    public synchronized int statistics(long from, long to, TelemetryStatistics statistics) {
+        int added = 0;
+        for (int i = firstIndex(from); i < size && timeAt(i) <= to; i++) {
+            statistics.add(valueAtIndex(i));
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * @param from start of interval in milliseconds since epoch, inclusive
+     * @param to end of interval in milliseconds since epoch, inclusive
+     * @return number of samples in interval
+     */
+    public synchronized int count(long from, long to) {
+        int first = firstIndex(from);
+        int last = firstIndex(to + 1);
+        return Math.max(0, last - first);
+    }
+
+    /**
+     * Copies samples from given time interval into arrays
+     *
+     * @param from start of interval in milliseconds since epoch, inclusive
+     * @param to end of interval in milliseconds since epoch, inclusive
+     * @param times target array of sample times
+     * @param values target array of sample values
+     * @return number of copied samples, at most length of arrays
+     */
+    public synchronized int copy(long from, long to, long[] times, double[] values) {
+        int n = 0;
+        int max = Math.min(times.length, values.length);
+        for (int i = firstIndex(from); i < size && n < max && timeAt(i) <= to; i++) {
+            times[n] = timeAt(i);
+            values[n] = valueAtIndex(i);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return number of kept samples
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return time of the newest sample or Long.MIN_VALUE if empty
+     */
+    public synchronized long getLastTime() {
+        return size == 0 ? Long.MIN_VALUE : timeAt(size - 1);
+    }
+
+    /**
+     * @return value of the newest sample or NaN if empty
+     */
+    public synchronized double getLastValue() {
+        return size == 0 ? Double.NaN : valueAtIndex(size - 1);
+    }
+
+    public int getCapacity() {
+        return times.length;
+    }
+
+    public boolean isAngle() {
+        return angle;
+    }
+
+    /**
+     * Binary search over samples ordered by time
+     *
+     * @return logical index of sample with given time or (-(insertion point)
+     * - 1)
+     */
+    private int search(long time) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midTime = timeAt(mid);
+            if (midTime < time) {
+                low = mid + 1;
+            } else if (midTime > time) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return logical index of the first sample not older than time
+     */
+    private int firstIndex(long time) {
+        int i = search(time);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    private long timeAt(int i) {
+        return times[(start + i) % times.length];
+    }
+
+    private double valueAtIndex(int i) {
+        return values[(start + i) % values.length];
+    }
+
+}
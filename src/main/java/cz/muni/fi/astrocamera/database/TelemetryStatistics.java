@@ -0,0 +1,84 @@
+package cz.muni.fi.astrocamera.database;
+
+/**
+ * Minimum, maximum, mean and standard deviation of samples computed in one
+ * pass by Welford's algorithm, numerically stable also for long exposures
+ * with many samples.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryStatistics {
+
+    private int count;
+    private double min;
+    private double max;
+    private double mean;
+    private double m2; //sum of squared differences from mean
+
+    /**
+     * Adds one sample
+     *
+     * @param value value of sample
+     */
+    public void add(double value) {
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    /**
+     * Forgets all samples so the object can be reused
+     */
+    public void reset() {
+        count = 0;
+        min = 0;
+        max = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest sample or NaN if there is none
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return the largest sample or NaN if there is none
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @return mean of samples or NaN if there is none
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return sample standard deviation, 0 for single sample, NaN if there
+     * is none
+     */
+    public double getStdDev() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return count == 1 ? 0 : Math.sqrt(m2 / (count - 1));
+    }
+
+}
@@ -0,0 +1,45 @@
+package cz.muni.fi.astrocamera.database;
+
+/**
+ * Converts values of TIME column of telemetry databases to milliseconds since
+ * epoch. The format is recognized by magnitude of the value, so databases
+ * storing Julian date, Delphi/OLE date or Unix time in seconds or milliseconds
+ * are all supported.
+ *
+ * @author Karel Auf
+ */
+public final class TelemetryTime {
+
+    private static final double MILLIS_PER_DAY = 86400000.0;
+    private static final double JD_UNIX_EPOCH = 2440587.5;  //Julian date of 1970-01-01
+    private static final double OLE_UNIX_EPOCH = 25569.0;   //days from 1899-12-30 to 1970-01-01
+
+    private TelemetryTime() {
+    }
+
+    /**
+     * @param time value of TIME column
+     * @return milliseconds since epoch
+     */
+    public static long toMillis(double time) {
+        if (time > 1e11) {
+            return (long) time;                                       //Unix milliseconds
+        }
+        if (time > 1e8) {
+            return (long) (time * 1000.0);                            //Unix seconds
+        }
+        if (time > 2e6) {
+            return Math.round((time - JD_UNIX_EPOCH) * MILLIS_PER_DAY);  //Julian date
+        }
+        return Math.round((time - OLE_UNIX_EPOCH) * MILLIS_PER_DAY);     //days since 1899-12-30
+    }
+
+    /**
+     * @param jd Julian date
+     * @return milliseconds since epoch
+     */
+    public static long julianDateToMillis(double jd) {
+        return Math.round((jd - JD_UNIX_EPOCH) * MILLIS_PER_DAY);
+    }
+
+}
@@ -1,42 +1,45 @@
 package cz.muni.fi.astrocamera.entity;
 
-import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  *
  * This entity holds telescope data which are used for updating information in
  * FITS files
  *
+ * Telescope position is published by tele database service as one immutable
+ * snapshot, so RA and DEC of every FITS file come from the same database
+ * cycle.
+ *
  * @author Karel Auf
  */
 public class TeleData {
 
-    private BigDecimal raNum;   //right ascension in degree format
-    private BigDecimal decNum;  //declination in degree format
-    private String raString;    //right ascension in hours minutes seconds format
-    private String decString;   //declination in degrees minutes seconds format
-    private String longitude;   //longitude of telescope
-    private String latitude;    //latitude of telescope
-    private String elevation;   //elevation above sea level of telescope
-    private String observer;
+    private final AtomicReference<TelemetrySnapshot> snapshot = new AtomicReference<>();
+    private volatile String raString;    //right ascension in hours minutes seconds format
+    private volatile String decString;   //declination in degrees minutes seconds format
+    private volatile String longitude;   //longitude of telescope
+    private volatile String latitude;    //latitude of telescope
+    private volatile String elevation;   //elevation above sea level of telescope
+    private volatile String observer;
 
     public TeleData() {
     }
 
-    public BigDecimal getRaNum() {
-        return raNum;
-    }
-
-    public void setRaNum(String raNum) {
-        this.raNum = new BigDecimal(raNum);
-    }
-
-    public BigDecimal getDecNum() {
-        return decNum;
+    /**
+     * @return the latest telescope position or null if nothing was read yet
+     */
+    public TelemetrySnapshot getSnapshot() {
+        return snapshot.get();
     }
 
-    public void setDecNum(String decNum) {
-        this.decNum = new BigDecimal(decNum);
+    /**
+     * Replaces telescope position at once
+     *
+     * @param snapshot position read in one database cycle
+     */
+    public void publish(TelemetrySnapshot snapshot) {
+        this.snapshot.set(snapshot);
     }
 
     public String getRaString() {
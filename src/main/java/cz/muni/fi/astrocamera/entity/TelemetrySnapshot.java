@@ -0,0 +1,60 @@
+package cz.muni.fi.astrocamera.entity;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of telemetry values read from one database in one cycle,
+ * values are identified by FITS keyword
+ *
+ * @author Karel Auf
+ */
+public final class TelemetrySnapshot {
+
+    private final String[] keys;
+    private final double[] values;
+    private final double time; //value of TIME column of the newest row
+
+    /**
+     * @param keys FITS keywords of values
+     * @param values values as read from database
+     * @param time TIME of the newest row
+     */
+    public TelemetrySnapshot(String[] keys, double[] values, double time) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Number of keys and values differs.");
+        }
+        this.keys = Arrays.copyOf(keys, keys.length);
+        this.values = Arrays.copyOf(values, values.length);
+        this.time = time;
+    }
+
+    /**
+     * @param key FITS keyword
+     * @return value or NaN if snapshot doesn't contain keyword
+     */
+    public double get(String key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return values[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String getKey(int i) {
+        return keys[i];
+    }
+
+    public double getValue(int i) {
+        return values[i];
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+}
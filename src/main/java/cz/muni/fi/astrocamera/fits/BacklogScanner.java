@@ -0,0 +1,149 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import javax.swing.JTextArea;
+import org.apache.log4j.Logger;
+
+/**
+ * Finds FITS files in watched folder which were created while the folder was
+ * not watched or whose events were lost by overflow and queues their update.
+ *
+ * Only limited number of files from the scan is queued at once, so frames
+ * arriving from camera at the same time don't wait behind the whole backlog.
+ * Files last modified before the folder started to be watched are updated
+ * only from telemetry history of their exposure, see
+ * {@link FitsFileUpdateImpl#setCatchUp(boolean)}. Newer files are frames of
+ * current session whose events were lost, they are updated like frames found
+ * by the watcher.
+ *
+ * @author Karel Auf
+ */
+public class BacklogScanner implements Runnable {
+
+    private final static Logger logger = Logger.getLogger(BacklogScanner.class);
+    private static final long PROGRESS_INTERVAL = 5000; //ms
+
+    private final FolderWatchImpl watch;
+    private final int limit;
+    private final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
+
+    /**
+     * @param watch folder watch whose folder is scanned
+     * @param limit maximal number of files from scan queued at once
+     */
+    public BacklogScanner(FolderWatchImpl watch, int limit) {
+        this.watch = watch;
+        this.limit = limit;
+    }
+
+    @Override
+    public void run() {
+        logger.debug("catchUp()");
+        List<Path> backlog;
+        try {
+            backlog = findUnprocessed(watch.getPath(), watch.getSkipped());
+        } catch (IOException ex) {
+            logger.error("Error while scanning folder " + watch.getPath(), ex);
+            return;
+        }
+        if (backlog.isEmpty()) {
+            return;
+        }
+        JTextArea textArea = watch.getTextArea();
+        ResourceBundle bundle = ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle");
+        textArea.insert(sdf.format(new Date()) + " " + bundle.getString("BacklogScanner.info.start") + backlog.size() + "\n", 0);
+
+        Semaphore throttle = new Semaphore(limit);
+        long start = System.currentTimeMillis();
+        long lastReport = start;
+        int queued = 0;
+        try {
+            for (Path file : backlog) {
+                if (!watch.getReady()) {
+                    break;
+                }
+                throttle.acquire();
+                if (watch.submitUpdate(file.toString(), throttle, isBacklog(file))) {
+                    queued++;
+                } else {
+                    throttle.release();
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= PROGRESS_INTERVAL) {
+                    lastReport = now;
+                    int done = queued - (limit - throttle.availablePermits());
+                    textArea.insert(sdf.format(new Date()) + " " + bundle.getString("BacklogScanner.info.progress")
+                            + done + "/" + backlog.size() + " (" + rate(done, now - start) + ")\n", 0);
+                }
+            }
+            //wait for the last updates
+            throttle.acquire(limit);
+        } catch (InterruptedException ex) {
+            logger.error("Catch-up interrupted ", ex);
+            return;
+        }
+        long time = System.currentTimeMillis() - start;
+        logger.info("Catch-up of " + queued + " files finished in " + time + " ms");
+        textArea.insert(sdf.format(new Date()) + " " + bundle.getString("BacklogScanner.info.done")
+                + queued + "/" + backlog.size() + " (" + rate(queued, time) + ")\n", 0);
+    }
+
+    /**
+     * Lists FITS files without values added by update
+     *
+     * @param dir watched folder
+     * @param skipped files already skipped for missing history
+     * @return unprocessed files ordered by name
+     * @throws IOException when folder cannot be listed
+     */
+    private static List<Path> findUnprocessed(Path dir, Set<String> skipped) throws IOException {
+        List<Path> backlog = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SequenceIndex.EXTENSION)) {
+            for (Path file : stream) {
+                if (!FolderWatchImpl.isNewFitsFile(file.getFileName()) || skipped.contains(file.toString())) {
+                    continue;
+                }
+                try {
+                    if (!FitsFileUpdateImpl.isProcessed(FitsStructure.read(file))) {
+                        backlog.add(file);
+                    }
+                } catch (IOException ex) {
+                    logger.error("Cannot read header of " + file, ex);
+                }
+            }
+        }
+        Collections.sort(backlog);
+        return backlog;
+    }
+
+    /**
+     * @return true if file was last modified before the folder started to be
+     * watched
+     */
+    private boolean isBacklog(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() < watch.getWatchStart();
+        } catch (IOException ex) {
+            logger.debug("Cannot read modification time of " + file + ": " + ex.getMessage());
+            return true;
+        }
+    }
+
+    private static String rate(int files, long millis) {
+        double perSecond = millis > 0 ? files * 1000.0 / millis : files;
+        return String.format(Locale.ENGLISH, "%.1f files/s", perSecond);
+    }
+
+}
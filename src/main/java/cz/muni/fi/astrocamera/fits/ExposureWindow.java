@@ -0,0 +1,96 @@
+package cz.muni.fi.astrocamera.fits;
+
+import cz.muni.fi.astrocamera.database.TelemetryTime;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import nom.tam.fits.Header;
+
+/**
+ * Time interval of exposure read from FITS header
+ *
+ * @author Karel Auf
+ */
+public class ExposureWindow {
+
+    private final long start; //start of exposure in milliseconds since epoch
+    private final long end;   //end of exposure in milliseconds since epoch
+
+    public ExposureWindow(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Reads start of exposure from DATE-OBS (optionally with TIME-OBS) or JD
+     * and its length from EXPTIME or EXPOSURE
+     *
+     * @param hdr FITS header
+     * @return exposure window or null if header doesn't contain start of
+     * exposure
+     */
+    public static ExposureWindow of(Header hdr) {
+        long start = Long.MIN_VALUE;
+        if (hdr.containsKey("DATE-OBS")) {
+            String date = hdr.getStringValue("DATE-OBS").trim();
+            if (!date.contains("T") && hdr.containsKey("TIME-OBS")) {
+                date = date + "T" + hdr.getStringValue("TIME-OBS").trim();
+            }
+            start = parseDate(date);
+        }
+        if (start == Long.MIN_VALUE && hdr.containsKey("JD")) {
+            start = TelemetryTime.julianDateToMillis(hdr.getDoubleValue("JD"));
+        }
+        if (start == Long.MIN_VALUE) {
+            return null;
+        }
+        double exposure = 0;
+        if (hdr.containsKey("EXPTIME")) {
+            exposure = hdr.getDoubleValue("EXPTIME");
+        } else if (hdr.containsKey("EXPOSURE")) {
+            exposure = hdr.getDoubleValue("EXPOSURE");
+        }
+        return new ExposureWindow(start, start + Math.round(exposure * 1000.0));
+    }
+
+    /**
+     * @param date date in ISO format used by FITS, UTC
+     * @return milliseconds since epoch or Long.MIN_VALUE if date cannot be
+     * parsed
+     */
+    private static long parseDate(String date) {
+        String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss"};
+        if (date.indexOf('.') > 0) {
+            //SimpleDateFormat reads fraction as number of milliseconds
+            int dot = date.indexOf('.');
+            date = (date + "000").substring(0, dot + 4);
+        }
+        for (String pattern : patterns) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            format.setLenient(false);
+            try {
+                return format.parse(date).getTime();
+            } catch (ParseException ex) {
+                //try next pattern
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return middle of exposure in milliseconds since epoch
+     */
+    public long getMidpoint() {
+        return start + (end - start) / 2;
+    }
+
+}
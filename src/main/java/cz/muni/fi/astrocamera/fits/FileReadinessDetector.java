@@ -0,0 +1,114 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * Decides when newly created FITS file is completely written by camera
+ * software.
+ *
+ * File is ready when its header contains END card, file is long enough to hold
+ * all data described by BITPIX and NAXISn and neither size nor modification
+ * time changed for stable time. Waiting threads are woken up by
+ * {@link #fileChanged(Path)} which is called for modify events of watched
+ * folder, poll interval is only a fallback for missed events.
+ *
+ * @author Karel Auf
+ */
+public class FileReadinessDetector {
+
+    private final static Logger logger = Logger.getLogger(FileReadinessDetector.class);
+    private static final long POLL_INTERVAL = 250; //ms
+
+    private final long stableTime; //ms
+    private final long timeout;    //ms
+    private final Object lock = new Object();
+
+    /**
+     * @param stableTime how long size and modification time must not change
+     * in milliseconds
+     * @param timeout maximal waiting time for single file in milliseconds
+     */
+    public FileReadinessDetector(long stableTime, long timeout) {
+        this.stableTime = stableTime;
+        this.timeout = timeout;
+    }
+
+    public long getStableTime() {
+        return stableTime;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Wakes up threads waiting for files, called when file in watched folder
+     * was modified
+     *
+     * @param file modified file
+     */
+    public void fileChanged(Path file) {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until file is completely written
+     *
+     * @param file FITS file
+     * @return true if file is ready, false if it wasn't completed within
+     * timeout or it was deleted
+     * @throws InterruptedException when waiting thread is interrupted
+     */
+    public boolean awaitReady(Path file) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+        long lastSize = -1;
+        long lastModified = -1;
+        long stableSince = start;
+        FitsStructure structure = null;
+        while (true) {
+            long now = System.currentTimeMillis();
+            try {
+                long size = Files.size(file);
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                if (size != lastSize || modified != lastModified) {
+                    lastSize = size;
+                    lastModified = modified;
+                    stableSince = now;
+                    structure = null;
+                }
+                if (structure == null || !structure.isComplete(size)) {
+                    structure = FitsStructure.read(file);
+                }
+                if (structure.isComplete(size) && now - stableSince >= stableTime) {
+                    logger.debug("File " + file + " ready after " + (now - start) + " ms");
+                    return true;
+                }
+            } catch (NoSuchFileException ex) {
+                logger.debug("File " + file + " disappeared.");
+                return false;
+            } catch (IOException ex) {
+                //file may be still locked by camera software
+                logger.debug("File " + file + " not readable yet: " + ex.getMessage());
+            }
+            if (now >= deadline) {
+                logger.error("File " + file + " not complete after " + timeout + " ms");
+                return false;
+            }
+            long wait = POLL_INTERVAL;
+            if (structure != null && structure.isComplete(lastSize)) {
+                wait = Math.max(1, Math.min(wait, stableSince + stableTime - now));
+            }
+            synchronized (lock) {
+                lock.wait(Math.min(wait, deadline - now));
+            }
+        }
+    }
+
+}
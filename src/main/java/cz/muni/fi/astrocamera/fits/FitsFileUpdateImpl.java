@@ -5,25 +5,27 @@
  */
 package cz.muni.fi.astrocamera.fits;
 
+import cz.muni.fi.astrocamera.coordinates.CoordinateCatalog;
+import cz.muni.fi.astrocamera.database.ChannelDefinition;
+import cz.muni.fi.astrocamera.database.ChannelRegistry;
+import cz.muni.fi.astrocamera.database.TelemetryHistory;
+import cz.muni.fi.astrocamera.database.TelemetryStatistics;
+import cz.muni.fi.astrocamera.entity.AstronomicalObject;
 import cz.muni.fi.astrocamera.entity.MeteoData;
 import cz.muni.fi.astrocamera.entity.TeleData;
+import cz.muni.fi.astrocamera.entity.TelemetrySnapshot;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
-import static java.lang.Thread.sleep;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.DecimalFormat;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.ResourceBundle;
-import nom.tam.fits.Fits;
+import java.util.Set;
 import nom.tam.fits.FitsException;
 import nom.tam.fits.Header;
-import nom.tam.util.BufferedFile;
-import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.log4j.Logger;
 import static cz.muni.fi.astrocamera.fits.HJD.computeHJD;
 
@@ -34,6 +36,10 @@ import static cz.muni.fi.astrocamera.fits.HJD.computeHJD;
 public class FitsFileUpdateImpl implements FitsFileUpdate {
 
     private final static Logger logger = Logger.getLogger(FitsFileUpdateImpl.class);
+    private static final long MAX_SAMPLE_GAP = 60000; //ms, samples further from exposure are not used
+    public static final String PROCESSED = "ACPROC";          //marker card written by every update
+    public static final String PROCESSED_VERSION = "ACPROCV"; //version of update which wrote header
+    private static final int VERSION = 1;
     private String fileName;
     private MeteoData meteodata;
     private TeleData teledata;
@@ -49,6 +55,16 @@ public class FitsFileUpdateImpl implements FitsFileUpdate {
     private String jd = "";
     private String ra = "";
     private String dec = "";
+    private FileReadinessDetector detector;
+    private SequenceIndex sequenceIndex;
+    private TelemetryHistory history;
+    private ChannelRegistry registry;
+    private CoordinateCatalog catalog;
+    private double identifyRadius;
+    private boolean durable;
+    private boolean catchUp; //frame from backlog, only history of its exposure is used
+    private Set<String> skipped; //frames from backlog not updated for missing history
+    private FitsHeaderWriter.SyncPolicy syncPolicy = FitsHeaderWriter.SyncPolicy.NONE;
 
     public FitsFileUpdateImpl(String fileName, MeteoData meteodata, TeleData teledata, String objectName, javax.swing.JTextArea textArea, javax.swing.JCheckBox altFileName) {
         this.fileName = fileName;
@@ -91,25 +107,161 @@ public class FitsFileUpdateImpl implements FitsFileUpdate {
         this.objectName = objectName;
     }
 
+    public FileReadinessDetector getDetector() {
+        return detector;
+    }
+
+    public void setDetector(FileReadinessDetector detector) {
+        this.detector = detector;
+    }
+
+    public SequenceIndex getSequenceIndex() {
+        return sequenceIndex;
+    }
+
+    public void setSequenceIndex(SequenceIndex sequenceIndex) {
+        this.sequenceIndex = sequenceIndex;
+    }
+
+    public ChannelRegistry getRegistry() {
+        return registry;
+    }
+
+    public void setRegistry(ChannelRegistry registry) {
+        this.registry = registry;
+    }
+
+    public TelemetryHistory getHistory() {
+        return history;
+    }
+
+    public void setHistory(TelemetryHistory history) {
+        this.history = history;
+    }
+
+    public CoordinateCatalog getCatalog() {
+        return catalog;
+    }
+
+    public void setCatalog(CoordinateCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public double getIdentifyRadius() {
+        return identifyRadius;
+    }
+
+    public void setIdentifyRadius(double identifyRadius) {
+        this.identifyRadius = identifyRadius;
+    }
+
+    public boolean isCatchUp() {
+        return catchUp;
+    }
+
+    /**
+     * @param catchUp true for frame created while the folder was not watched,
+     * current values and selected object are not used for it and it is not
+     * updated when history doesn't cover its exposure
+     */
+    public void setCatchUp(boolean catchUp) {
+        this.catchUp = catchUp;
+    }
+
+    public Set<String> getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @param skipped set to which frame from backlog is added when history
+     * doesn't cover its exposure, so later scans don't report it again
+     */
+    public void setSkipped(Set<String> skipped) {
+        this.skipped = skipped;
+    }
+
+    public boolean isDurable() {
+        return durable;
+    }
+
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    public FitsHeaderWriter.SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public void setSyncPolicy(FitsHeaderWriter.SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
     public void update(String fileName, MeteoData meteodata, TeleData teledata, String objectName, javax.swing.JTextArea textArea) {
         logger.debug("update()");
-        Fits f;
         try {
-            sleep(2000); //to ensure that file is fully created before updating it
-            f = new Fits(fileName);
-            f.read();
-            Header hdr = f.getHDU(0).getHeader();
+            //wait until camera software finishes writing the file
+            if (!detector.awaitReady(Paths.get(fileName))) {
+                date = new Date();
+                textArea.insert(sdf.format(date) + " " + ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle").getString("FitsFileUpdateImpl.error.ready") + fileName + "\n", 0);
+                return;
+            }
+            FitsHeaderWriter writer = new FitsHeaderWriter(Paths.get(fileName), durable, syncPolicy);
+            Header hdr = writer.readHeader();
+            if (isProcessed(writer.getStructure())) {
+                //replacing the file by enlarged header may be reported as new file
+                logger.debug("File " + fileName + " already updated.");
+                return;
+            }
+
+            //one consistent set of current values for whole file, none for frame from backlog
+            TelemetrySnapshot meteo = catchUp ? null : meteodata.getSnapshot();
+            TelemetrySnapshot tele = catchUp ? null : teledata.getSnapshot();
+            //history replayed from journal is enough when databases are unavailable
+            if (meteo == null && tele == null && (history == null || history.isEmpty())) {
+                date = new Date();
+                textArea.insert(sdf.format(date) + " " + ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle").getString("FitsFileUpdateImpl.error.telemetry") + fileName + "\n", 0);
+                logger.error("No telemetry read yet, file " + fileName + " not updated.");
+                return;
+            }
+            //values in the middle of exposure, current values if history doesn't cover it
+            ExposureWindow window = ExposureWindow.of(hdr);
+            double[] values = new double[registry.getChannels().size()];
+            for (int i = 0; i < values.length; i++) {
+                ChannelDefinition channel = registry.getChannels().get(i);
+                TelemetrySnapshot current = ChannelRegistry.TELE.equals(channel.getDatabase()) ? tele : meteo;
+                values[i] = atMidpoint(window, channel.getKeyword(), current == null ? Double.NaN : current.get(channel.getKeyword()));
+            }
+            double raNum = valueOf(TelemetryHistory.RA, values);
+            double decNum = valueOf(TelemetryHistory.DEC, values);
+            double pressure = valueOf(TelemetryHistory.PRES_OBS, values);
+            if (catchUp && (Double.isNaN(raNum) || Double.isNaN(decNum))) {
+                //pointing at another time would give wrong RA, DEC, HJD and object
+                date = new Date();
+                textArea.insert(sdf.format(date) + " " + ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle").getString("FitsFileUpdateImpl.error.history") + fileName + "\n", 0);
+                logger.warn("History doesn't cover exposure of " + fileName + ", file not updated.");
+                if (skipped != null) {
+                    skipped.add(fileName);
+                }
+                return;
+            }
 
             //adds/updates header's value
             
-            if (objectName.length() > 0 || hdr.containsKey("OBJECT") == false) hdr.addValue("OBJECT", objectName, "object name");
-            this.objectName = hdr.getStringValue("OBJECT");
-            hdr.addValue("RA", getRa(teledata.getRaNum()), "right ascension in [hours:minutes:seconds]");
-            hdr.addValue("DEC", getDec(teledata.getDecNum()), "declination in [degrees:minutes:seconds]");
-
-            hdr.addValue("RA1", teledata.getRaNum().setScale(6, BigDecimal.ROUND_HALF_UP).toPlainString(), "right ascension");
-            hdr.addValue("DEC1", teledata.getDecNum().setScale(6, BigDecimal.ROUND_HALF_UP).toPlainString(), "declination");
-            if (teledata.getObserver() != null) {
+            //object selected now is not the one of frame from backlog
+            if (!catchUp && (objectName.length() > 0 || hdr.containsKey("OBJECT") == false)) hdr.addValue("OBJECT", objectName, "object name");
+            this.objectName = hdr.getStringValue("OBJECT") == null ? "" : hdr.getStringValue("OBJECT");
+            if (this.objectName.trim().isEmpty()) {
+                String identified = identify(raNum, decNum);
+                if (identified != null) {
+                    hdr.addValue("OBJECT", identified, "object name identified by pointing");
+                    this.objectName = identified;
+                }
+            }
+            if (!Double.isNaN(raNum) && !Double.isNaN(decNum)) {
+                hdr.addValue("RA", getRa(raNum), "right ascension in [hours:minutes:seconds]");
+                hdr.addValue("DEC", getDec(decNum), "declination in [degrees:minutes:seconds]");
+            }
+            if (!catchUp && teledata.getObserver() != null) {
                 hdr.addValue("OBSERVER", teledata.getObserver(), "observer");
             }
             if (teledata.getLongitude() != null) {
@@ -123,142 +275,57 @@ public class FitsFileUpdateImpl implements FitsFileUpdate {
             if (teledata.getElevation() != null) {
                 String[] elevParts = teledata.getElevation().split("/");
                 hdr.addValue("ELEV-OBS", elevParts[0], elevParts[1]);
-                hdr.addValue("PRES_SEA", getSeaLevelPressure(meteodata.getPressure(), new BigDecimal(elevParts[0])), "pressure at sea level in [mbar]");
+                if (!Double.isNaN(pressure)) {
+                    hdr.addValue("PRES_SEA", getSeaLevelPressure(pressure, Double.parseDouble(elevParts[0].trim())), "pressure at sea level in [mbar]");
+                }
             }
-            
-            hdr.addValue("PRES_OBS", meteodata.getPressure().toPlainString(), "pressure at observation in [mbar]");
-            hdr.addValue("TEMP_IN", meteodata.getTemperatureInside().toPlainString(), "temperature in dome in [deg C]");
-            hdr.addValue("TEMP_OUT", meteodata.getTemperatureOutside().toPlainString(), "temperature outside in [deg C]");
-            hdr.addValue("HUMIDITY", meteodata.getHumidity().toPlainString(), "humidity in [%]");
-            hdr.addValue("PYRGEOM", meteodata.getPyrgeometer().toPlainString(), "pyrgeometer in [Wm-2]");
-            hdr.addValue("WIND_SP", meteodata.getWind().toPlainString(), "wind speed in [ms-1]");
+
+            //one card per channel from registry
+            for (int i = 0; i < values.length; i++) {
+                ChannelDefinition channel = registry.getChannels().get(i);
+                if (Double.isNaN(values[i])) {
+                    logger.debug("No value of " + channel.getKeyword() + " for file " + fileName);
+                    continue;
+                }
+                String value = isCoordinate(channel.getKeyword())
+                        ? FixedFormat.format(values[i], channel.getPrecision())
+                        : FixedFormat.formatStripped(values[i], channel.getPrecision());
+                hdr.addValue(channel.getKeyword(), value, channel.getHeaderComment());
+            }
+            addStatistics(hdr, window);
+            addDrift(hdr, window);
 
             //gets header values
-            getHeaderData(hdr);
+            getHeaderData(hdr, raNum, decNum);
             hdr.addValue("HJD", getHJD(jd, ra, dec), "Heliocentric Julian Date in the middle of exposure");
+            //marker doesn't depend on values which may be missing
+            hdr.addValue(PROCESSED, true, "header updated by AstroCamera");
+            hdr.addValue(PROCESSED_VERSION, VERSION, "version of AstroCamera header update");
 
-            //save changes to file
-            File backupFile = new File(fileName + ".orig");//backup file of original FITS
+            //save changes to file, image data are not touched
             File file = new File(fileName);
-            BufferedFile bf = null;
             try {
-                Files.copy(file.toPath(), backupFile.toPath());
-                bf = new BufferedFile(file, "rw");
-                f.write(bf);
-                Files.delete(backupFile.toPath());
-                f.close();
+                writer.writeHeader(hdr);
             } catch (IOException ex) {
                 date = new Date();
                 textArea.insert(sdf.format(date) + " " + ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle").getString("FitsFileUpdateImpl.error.file") + fileName + ": " + ex.getMessage() + "\n", 0);
                 logger.error("IO Error with file " + fileName + ": " + ex.getMessage());
-            } finally {
-                if (bf != null) {
-                    bf.close();
-                }
-                f.close();
             }
             
             //alternative name for files
             if (altFileName.isSelected()) { 
-                //tady zmena nazvu
-                //vyresit problem s detekci vzniku ve folderwatch -2x podtrzitko v nazvu souboru pred porad cislem -- VYRESENO
                 //vyresit problem s nenastavenym/nulovym filtrem a expTime
                 Path source = file.toPath();    
-                //imageType is BIAS
                 if (imageType.compareToIgnoreCase("bias") == 0) {
-                    File dir = file.getParentFile();
-                    FileFilter fileFilter = new WildcardFileFilter("bias__*.fits");
-                    File[] files = dir.listFiles(fileFilter);
-                    long numberB = 0; 
-                    if (files.length==0) {
-                        numberB = 1;
-                    } else {
-                        for (File file1 : files) {
-                            String name = file1.toString();
-                            int i = name.indexOf("__") + 2;
-                            int j = name.indexOf(".fits");
-                            if (numberB <= Long.parseLong(name.substring(i, j))) numberB = Long.parseLong(name.substring(i, j)) + 1;
-                        } 
-                    } 
-                    try {
-                        Files.move(source, source.resolveSibling("bias__" + numberB +".fits"));
-                    } catch (IOException ex) {
-                        logger.error("IO Error with bias alternative file name for file" + fileName + ": " + ex.getMessage());
-                    }
-                } else {
-                    //imageType is FLAT
-                    if (imageType.compareToIgnoreCase("flat") == 0) {
-                        File dir = file.getParentFile();
-                        FileFilter fileFilter = new WildcardFileFilter("flat*__*.fits");
-                        File[] files = dir.listFiles(fileFilter);
-                        long numberF = 0; 
-                        if (files.length==0) {
-                            numberF = 1;
-                        } else {
-                            for (File file1 : files) {
-                                String name = file1.toString();
-                                int i = name.indexOf("__") + 2;
-                                int j = name.indexOf(".fits");
-                                if (numberF <= Long.parseLong(name.substring(i, j))) numberF = Long.parseLong(name.substring(i, j)) + 1;
-                            } 
-                        }
-                        
-                        try {
-                            Files.move(source, source.resolveSibling("flat" + filter +  expTime + "__" + numberF + ".fits"));
-                        } catch (IOException ex) {
-                            logger.error("IO Error with flat alternative file name for file" + fileName + ": " + ex.getMessage());
-                        }
-                    } else {
-                        //imageType is DARK
-                        if (imageType.compareToIgnoreCase("dark") == 0) {
-                            File dir = file.getParentFile();
-                            FileFilter fileFilter = new WildcardFileFilter("dark*__*.fits");
-                            File[] files = dir.listFiles(fileFilter);
-                            long numberD = 0; 
-                            if (files.length==0) {
-                                numberD = 1;
-                            } else {
-                                for (File file1 : files) {
-                                    String name = file1.toString();
-                                    int i = name.indexOf("__") + 2;
-                                    int j = name.indexOf(".fits");
-                                    if (numberD <= Long.parseLong(name.substring(i, j))) numberD = Long.parseLong(name.substring(i, j)) + 1;
-                                } 
-                            }
-                            try {
-                                Files.move(source, source.resolveSibling("dark"  + expTime + "__" + numberD + ".fits"));
-                            } catch (IOException ex) {
-                                logger.error("IO Error with dark alternative file name for file" + fileName + ": " + ex.getMessage());
-                            }
-                        } else {
-                            //other imageType, file name is name of the object                            
-                            if (/*imageType.compareToIgnoreCase("") == 0 &&*/ this.objectName.replaceAll("\\s+", "").compareToIgnoreCase("") != 0) {
-                                
-                                File dir = file.getParentFile();
-                                FileFilter fileFilter = new WildcardFileFilter(this.objectName + "*__*.fits");
-                                File[] files = dir.listFiles(fileFilter);
-                                long numberO = 0; 
-                                if (files.length==0) {
-                                    numberO = 1;
-                                } else {
-                                    for (File file1 : files) {
-                                        String name = file1.toString();
-                                        int i = name.indexOf("__") + 2;
-                                        int j = name.indexOf(".fits");
-                                        if (numberO <= Long.parseLong(name.substring(i, j))) numberO = Long.parseLong(name.substring(i, j)) + 1;
-                                    } 
-                                }
-                                try {
-                                    Files.move(source, source.resolveSibling(this.objectName + "__" + numberO + ".fits"));
-                                } catch (IOException ex) {
-                                    logger.error("IO Error with alternative file name for file" + fileName + ": " + ex.getMessage());
-                                }
-                            }
-                        }
-
-                    }
+                    rename(source, "bias", "bias");
+                } else if (imageType.compareToIgnoreCase("flat") == 0) {
+                    rename(source, "flat*", "flat" + filter + expTime);
+                } else if (imageType.compareToIgnoreCase("dark") == 0) {
+                    rename(source, "dark*", "dark" + expTime);
+                } else if (this.objectName.replaceAll("\\s+", "").compareToIgnoreCase("") != 0) {
+                    //other imageType, file name is name of the object
+                    rename(source, this.objectName + "*", this.objectName);
                 }
-
             } else {
                 //name doesn't change - no valid condition meet
             }
@@ -270,12 +337,162 @@ public class FitsFileUpdateImpl implements FitsFileUpdate {
         } catch (IOException ex) {
             logger.error("IO error while modifying FITS files: ", ex);
         } catch (InterruptedException ex) {
-            logger.error("Sleep error: ", ex);
+            logger.error("Interrupted while waiting for file: ", ex);
         }
 
     }
     
-    private void getHeaderData(Header hdr){
+    /**
+     * Gets value in the middle of exposure from telemetry history
+     *
+     * @param window exposure window or null if unknown
+     * @param key FITS keyword of value
+     * @param current current value used when history doesn't cover exposure
+     * @return interpolated value or current value
+     */
+    private double atMidpoint(ExposureWindow window, String key, double current) {
+        if (history == null || window == null) {
+            return current;
+        }
+        double value = history.valueAt(key, window.getMidpoint(), MAX_SAMPLE_GAP);
+        if (Double.isNaN(value)) {
+            logger.debug("No " + key + " sample near exposure of " + fileName);
+            return current;
+        }
+        return value;
+    }
+
+    /**
+     * Finds catalogued object nearest to telescope pointing
+     *
+     * @param raNum RA of pointing in degrees
+     * @param decNum DEC of pointing in degrees
+     * @return name of object or null if there is none within radius
+     */
+    private String identify(double raNum, double decNum) {
+        if (catalog == null || identifyRadius <= 0 || Double.isNaN(raNum) || Double.isNaN(decNum)) {
+            return null;
+        }
+        try {
+            AstronomicalObject found = catalog.nearest(raNum, decNum, identifyRadius);
+            if (found == null) {
+                logger.debug("No object within " + identifyRadius + " arcsec from pointing of " + fileName);
+                return null;
+            }
+            logger.info("Object " + found.getName() + " identified by pointing of " + fileName);
+            return found.getName();
+        } catch (IOException ex) {
+            logger.error("Error while reading coordinate catalog " + catalog.getFile() + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes minimum, maximum, mean and standard deviation of channels with
+     * statistics over samples from exposure window
+     *
+     * @param hdr FITS header
+     * @param window exposure window or null if unknown
+     */
+    private void addStatistics(Header hdr, ExposureWindow window) throws FitsException {
+        if (history == null || window == null) {
+            return;
+        }
+        TelemetryStatistics statistics = new TelemetryStatistics();
+        for (ChannelDefinition channel : registry.getChannels()) {
+            String prefix = channel.getStatistics();
+            if (prefix == null) {
+                continue;
+            }
+            statistics.reset();
+            if (history.statistics(channel.getKeyword(), window.getStart(), window.getEnd(), statistics) == 0) {
+                logger.debug("No " + channel.getKeyword() + " samples during exposure of " + fileName);
+                continue;
+            }
+            int precision = channel.getPrecision();
+            hdr.addValue(prefix + "_MIN", FixedFormat.formatStripped(statistics.getMin(), precision), channel.getHeaderComment("min. "));
+            hdr.addValue(prefix + "_MAX", FixedFormat.formatStripped(statistics.getMax(), precision), channel.getHeaderComment("max. "));
+            hdr.addValue(prefix + "_AVG", FixedFormat.formatStripped(statistics.getMean(), precision), channel.getHeaderComment("mean "));
+            hdr.addValue(prefix + "_SD", FixedFormat.formatStripped(statistics.getStdDev(), Math.min(precision + 1, FixedFormat.MAX_DECIMALS)),
+                    channel.getHeaderComment("std. dev. of "));
+        }
+    }
+
+    /**
+     * Writes drift of telescope pointing during exposure in arcseconds
+     *
+     * @param hdr FITS header
+     * @param window exposure window or null if unknown
+     */
+    private void addDrift(Header hdr, ExposureWindow window) throws FitsException {
+        if (history == null || window == null) {
+            return;
+        }
+        PointingDrift drift = PointingDrift.of(history, window);
+        if (drift == null) {
+            logger.debug("Not enough RA/DEC samples during exposure of " + fileName);
+            return;
+        }
+        hdr.addValue("DRIFT_RA", FixedFormat.format(drift.getDeltaRa(), 2), "RA drift during exposure in [arcsec]");
+        hdr.addValue("DRIFT_DE", FixedFormat.format(drift.getDeltaDec(), 2), "DEC drift during exposure in [arcsec]");
+        hdr.addValue("DRIFT", FixedFormat.format(drift.getDelta(), 2), "pointing drift during exposure in [arcsec]");
+        hdr.addValue("DRIFTRMS", FixedFormat.format(drift.getRms(), 2), "RMS deviation from mean position in [arcsec]");
+        hdr.addValue("DRIFTMAX", FixedFormat.format(drift.getMax(), 2), "max. deviation from mean position in [arcsec]");
+    }
+
+    /**
+     * @param keyword FITS keyword of channel
+     * @param values values of all channels in order of registry
+     * @return value of channel or NaN if channel is not in registry
+     */
+    private double valueOf(String keyword, double[] values) {
+        List<ChannelDefinition> channels = registry.getChannels();
+        for (int i = 0; i < values.length; i++) {
+            if (channels.get(i).getKeyword().equals(keyword)) {
+                return values[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * RA1 and DEC1 keep all decimal places like before
+     */
+    private static boolean isCoordinate(String keyword) {
+        return keyword.equals(TelemetryHistory.RA) || keyword.equals(TelemetryHistory.DEC);
+    }
+
+    /**
+     * Renames file to name__number.fits, number is next free number of all
+     * names matching pattern
+     *
+     * @param source file to rename
+     * @param pattern name whose numbers are shared, prefix when it ends with *
+     * @param name new name without number
+     */
+    private void rename(Path source, String pattern, String name) {
+        try {
+            if (sequenceIndex.move(source, pattern, name) == null) {
+                logger.error("No free alternative file name " + name + " for file " + fileName);
+            }
+        } catch (IOException ex) {
+            logger.error("IO Error with alternative file name " + name + " for file " + fileName + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether header contains marker card written by this update, or
+     * HJD and PRES_OBS written by versions before the marker
+     *
+     * @param structure structure of FITS file
+     * @return true if file was already updated
+     */
+    public static boolean isProcessed(FitsStructure structure) {
+        return structure.containsKey(PROCESSED)
+                || (structure.containsKey("HJD") && structure.containsKey(TelemetryHistory.PRES_OBS));
+    }
+
+    private void getHeaderData(Header hdr, double raNum, double decNum){
         if (hdr.containsKey("IMAGETYP")) {
                 imageType = hdr.getStringValue("IMAGETYP").replaceAll("\\s+", "").replace("\\", "").replace("/", "");
                 try { 
@@ -302,54 +519,59 @@ public class FitsFileUpdateImpl implements FitsFileUpdate {
                     jd = "";
                 }
             try { 
-                    ra = teledata.getRaNum().setScale(6, BigDecimal.ROUND_HALF_UP).toPlainString();                    
+                    ra = Double.isNaN(raNum) ? "" : FixedFormat.format(raNum, 6);                    
                 } catch (Exception ex){                       
                     ra = "";
                 }
             try { 
-                    dec = teledata.getDecNum().setScale(6, BigDecimal.ROUND_HALF_UP).toPlainString();                    
+                    dec = Double.isNaN(decNum) ? "" : FixedFormat.format(decNum, 6);                    
                 } catch (Exception ex){                    
                     dec = "";
                 }
     }
 
-    private String getRa(BigDecimal ra) {
-        //DecimalFormat df = new DecimalFormat("00.########");
-        DecimalFormat df = new DecimalFormat("00.##");
-        BigDecimal help = ra.divide(new BigDecimal("15"), RoundingMode.HALF_UP);
-        BigDecimal fraction = help.remainder(BigDecimal.ONE);
-        help = help.subtract(fraction).stripTrailingZeros();
-        String hours = df.format(help);
-
-        help = fraction.multiply(new BigDecimal("60"));
-        fraction = help.remainder(BigDecimal.ONE);
-        help = help.subtract(fraction).stripTrailingZeros();
-        String minutes = df.format(help);
-
-        help = fraction.multiply(new BigDecimal("60")).stripTrailingZeros();
-        help = help.setScale(2, BigDecimal.ROUND_HALF_UP);
-        String seconds = df.format(help);
-        return (hours + ":" + minutes + ":" + seconds).replace(',', '.');
-    }
-
-    private String getDec(BigDecimal dec) {
-        //DecimalFormat df = new DecimalFormat("00.########");
-        DecimalFormat df = new DecimalFormat("00.##");
-        BigDecimal help = dec;
-        BigDecimal fraction = help.remainder(BigDecimal.ONE);
-        help = help.subtract(fraction).stripTrailingZeros();
-        String hours = df.format(help);
-
-        help = fraction.multiply(new BigDecimal("60")).abs();
-        fraction = help.remainder(BigDecimal.ONE);
-        help = help.subtract(fraction).stripTrailingZeros();
-        String minutes = df.format(help);
-
-        help = fraction.multiply(new BigDecimal("60")).stripTrailingZeros();
-        //
-        help = help.setScale(2, BigDecimal.ROUND_HALF_UP);
-        String seconds = df.format(help);
-        return (hours + ":" + minutes + ":" + seconds).replace(',', '.');
+    private String getRa(double ra) {
+        return sexagesimal(new StringBuilder(12), ra / 15, false).toString();
+    }
+
+    private String getDec(double dec) {
+        return sexagesimal(new StringBuilder(12), dec, true).toString();
+    }
+
+    /**
+     * Appends angle in format [-]dd:mm:ss.ss, trailing zeros of seconds are
+     * left out
+     *
+     * @param sb target buffer
+     * @param value angle in hours or degrees
+     * @param signed true to keep sign of negative value
+     * @return target buffer
+     */
+    private static StringBuilder sexagesimal(StringBuilder sb, double value, boolean signed) {
+        long hundredths = Math.round(Math.abs(value) * 360000); //1/100 of arcsecond or time second
+        if (signed && value < 0 && hundredths != 0) {
+            sb.append('-');
+        } else if (!signed) {
+            hundredths %= 24 * 360000; //23:59:59.999 is rounded to 00:00:00
+        }
+        appendTwoDigits(sb, hundredths / 360000).append(':');
+        appendTwoDigits(sb, hundredths / 6000 % 60).append(':');
+        appendTwoDigits(sb, hundredths / 100 % 60);
+        long fraction = hundredths % 100;
+        if (fraction != 0) {
+            sb.append('.').append((char) ('0' + fraction / 10));
+            if (fraction % 10 != 0) {
+                sb.append((char) ('0' + fraction % 10));
+            }
+        }
+        return sb;
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, long value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        return sb.append(value);
     }
     
     private double getHJD(String jd, String ra, String dec){
@@ -380,9 +602,8 @@ public class FitsFileUpdateImpl implements FitsFileUpdate {
         return hjd;
     }
 
-    private String getSeaLevelPressure(BigDecimal press, BigDecimal elev) {
-        BigDecimal seaPress = press.add(elev.divide(new BigDecimal("8.3"), 1, BigDecimal.ROUND_HALF_UP));        //.setScale(1, BigDecimal.ROUND_HALF_UP).stripTrailingZeros()
-        return seaPress.toPlainString();
+    private String getSeaLevelPressure(double press, double elev) {
+        return FixedFormat.format(press + elev / 8.3, 1);
     }
 
     @Override
@@ -0,0 +1,298 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.Header;
+import nom.tam.util.BufferedDataOutputStream;
+import nom.tam.util.BufferedFile;
+import org.apache.log4j.Logger;
+
+/**
+ * Updates header of primary HDU without reading the image data.
+ *
+ * When the new header fits into the original header blocks, only the changed
+ * blocks are rewritten in place. Otherwise new file is created next to the
+ * original, data are copied from channel to channel so they never pass through
+ * Java heap and the new file atomically replaces the original. In durable mode
+ * the new file is always created, so a crash leaves either the original or
+ * the updated file.
+ *
+ * @author Karel Auf
+ */
+public class FitsHeaderWriter {
+
+    private final static Logger logger = Logger.getLogger(FitsHeaderWriter.class);
+    public static final String TEMP_SUFFIX = ".tmp";
+    public static final String BACKUP_SUFFIX = ".orig";
+    private static final byte BLANK = ' ';
+
+    /**
+     * What is flushed to disk before the new file replaces the original
+     */
+    public enum SyncPolicy {
+        NONE,      //leave it to operating system
+        FILE,      //force content of the new file
+        DIRECTORY  //force new file and also the directory entry after rename
+    }
+
+    private final Path file;
+    private final boolean durable;
+    private final SyncPolicy syncPolicy;
+    private FitsStructure structure;
+
+    public FitsHeaderWriter(Path file) {
+        this(file, false, SyncPolicy.NONE);
+    }
+
+    /**
+     * @param file FITS file
+     * @param durable true to always write new file and rename it over the
+     * original instead of patching header in place
+     * @param syncPolicy what is forced to disk before and after rename
+     */
+    public FitsHeaderWriter(Path file, boolean durable, SyncPolicy syncPolicy) {
+        this.file = file;
+        this.durable = durable;
+        this.syncPolicy = syncPolicy;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return structure of file found by last {@link #readHeader()}
+     */
+    public FitsStructure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Reads header of primary HDU
+     *
+     * @return header of file
+     * @throws IOException when file cannot be read
+     * @throws FitsException when file is not valid FITS file
+     */
+    public Header readHeader() throws IOException, FitsException {
+        structure = FitsStructure.read(file);
+        if (!structure.isHeaderComplete()) {
+            throw new FitsException("Missing END card in header of " + file);
+        }
+        try (BufferedFile bf = new BufferedFile(file.toFile(), "r")) {
+            return Header.readHeader(bf);
+        }
+    }
+
+    /**
+     * Writes header back to file read by {@link #readHeader()}
+     *
+     * @param hdr updated header
+     * @throws IOException when file cannot be written
+     * @throws FitsException when header cannot be serialized
+     */
+    public void writeHeader(Header hdr) throws IOException, FitsException {
+        if (structure == null) {
+            throw new IllegalStateException("Header was not read.");
+        }
+        byte[] bytes = serialize(hdr);
+        long oldSize = structure.getHeaderSize();
+        if (bytes.length <= oldSize) {
+            bytes = fill(bytes, (int) oldSize);
+            if (!durable) {
+                patchInPlace(bytes);
+                return;
+            }
+        }
+        rewrite(bytes);
+    }
+
+    /**
+     * Serializes header into whole blocks
+     */
+    private static byte[] serialize(Header hdr) throws FitsException, IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BufferedDataOutputStream out = new BufferedDataOutputStream(bos);
+        hdr.write(out);
+        out.flush();
+        byte[] bytes = bos.toByteArray();
+        int blocks = (bytes.length + FitsStructure.BLOCK_SIZE - 1) / FitsStructure.BLOCK_SIZE;
+        if (bytes.length != blocks * FitsStructure.BLOCK_SIZE) {
+            int length = bytes.length;
+            bytes = Arrays.copyOf(bytes, blocks * FitsStructure.BLOCK_SIZE);
+            Arrays.fill(bytes, length, bytes.length, BLANK);
+        }
+        return bytes;
+    }
+
+    /**
+     * Enlarges shorter header to given size by inserting blank cards before
+     * END card, data must stay on their position
+     */
+    private static byte[] fill(byte[] bytes, int size) {
+        if (bytes.length == size) {
+            return bytes;
+        }
+        int end = findEnd(bytes);
+        byte[] filled = new byte[size];
+        Arrays.fill(filled, BLANK);
+        System.arraycopy(bytes, 0, filled, 0, end);
+        int newEnd = end + size - bytes.length;
+        System.arraycopy(bytes, end, filled, newEnd, FitsStructure.CARD_SIZE);
+        return filled;
+    }
+
+    /**
+     * @return offset of END card
+     */
+    private static int findEnd(byte[] bytes) {
+        for (int i = 0; i + FitsStructure.CARD_SIZE <= bytes.length; i += FitsStructure.CARD_SIZE) {
+            if (bytes[i] == 'E' && bytes[i + 1] == 'N' && bytes[i + 2] == 'D') {
+                boolean end = true;
+                for (int j = 3; j < 8; j++) {
+                    end = end && bytes[i + j] == BLANK;
+                }
+                if (end) {
+                    return i;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Header without END card.");
+    }
+
+    /**
+     * Rewrites only header blocks which differ from the original
+     */
+    private void patchInPlace(byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer original = ByteBuffer.allocate(FitsStructure.BLOCK_SIZE);
+            int written = 0;
+            for (int offset = 0; offset < bytes.length; offset += FitsStructure.BLOCK_SIZE) {
+                original.clear();
+                while (original.hasRemaining()) {
+                    if (channel.read(original, offset + original.position()) < 0) {
+                        break;
+                    }
+                }
+                ByteBuffer block = ByteBuffer.wrap(bytes, offset, FitsStructure.BLOCK_SIZE);
+                original.flip();
+                if (!original.equals(block)) {
+                    //position of wrapped block equals its offset in file
+                    while (block.hasRemaining()) {
+                        channel.write(block, block.position());
+                    }
+                    written++;
+                }
+            }
+            if (syncPolicy != SyncPolicy.NONE && written > 0) {
+                channel.force(false);
+            }
+            logger.debug("Header of " + file + " patched in place, " + written + " block(s) written");
+        }
+    }
+
+    /**
+     * Writes larger header followed by the original data into new file which
+     * then replaces the original
+     */
+    private void rewrite(byte[] bytes) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+                FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.wrap(bytes);
+            while (header.hasRemaining()) {
+                target.write(header);
+            }
+            long position = structure.getHeaderSize();
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            if (syncPolicy != SyncPolicy.NONE) {
+                target.force(true);
+            }
+        } catch (IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (syncPolicy == SyncPolicy.DIRECTORY) {
+            forceDirectory(file.getParent());
+        }
+        logger.debug("Header of " + file + " written with data to new file, " + bytes.length + " bytes of header");
+    }
+
+    /**
+     * Flushes directory entries, not supported on every platform
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            logger.debug("Directory " + dir + " cannot be forced: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Cleans up after interrupted updates in given folder. Temporary files are
+     * deleted because the rename is atomic and the original is still valid.
+     * Backups left by older versions, which rewrote the original in place,
+     * mean that the write may have been interrupted and the original may have
+     * damaged header of the right length, so complete backup always replaces
+     * its original. Backup cut by crash during copying is deleted, the
+     * original was not touched yet.
+     *
+     * @param dir folder with FITS files
+     * @return number of recovered files
+     * @throws IOException when folder cannot be listed
+     */
+    public static int recover(Path dir) throws IOException {
+        int recovered = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.fits{" + TEMP_SUFFIX + "," + BACKUP_SUFFIX + "}")) {
+            for (Path leftover : stream) {
+                String name = leftover.getFileName().toString();
+                try {
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        Files.delete(leftover);
+                        logger.info("Deleted unfinished update " + leftover);
+                    } else {
+                        Path original = leftover.resolveSibling(name.substring(0, name.length() - BACKUP_SUFFIX.length()));
+                        if (!isIntact(leftover)) {
+                            Files.delete(leftover);
+                            logger.info("Deleted incomplete backup of " + original);
+                        } else {
+                            Files.move(leftover, original, StandardCopyOption.REPLACE_EXISTING);
+                            logger.warn("Restored " + original + " from backup");
+                        }
+                    }
+                    recovered++;
+                } catch (IOException ex) {
+                    logger.error("Cannot recover " + leftover, ex);
+                }
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * @return true if file exists and contains the whole primary HDU
+     */
+    private static boolean isIntact(Path file) {
+        try {
+            return FitsStructure.read(file).isComplete(Files.size(file));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+}
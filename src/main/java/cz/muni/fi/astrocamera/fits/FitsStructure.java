@@ -0,0 +1,158 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Layout of primary HDU of FITS file read directly from header blocks without
+ * loading the image data
+ *
+ * @author Karel Auf
+ */
+public class FitsStructure {
+
+    public static final int BLOCK_SIZE = 2880;
+    public static final int CARD_SIZE = 80;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final boolean headerComplete; //END card was found
+    private final long headerSize;        //size of header including padding
+    private final long dataSize;          //size of data without padding
+    private final Set<String> keywords;   //keywords present in header
+
+    private FitsStructure(boolean headerComplete, long headerSize, long dataSize, Set<String> keywords) {
+        this.headerComplete = headerComplete;
+        this.headerSize = headerSize;
+        this.dataSize = dataSize;
+        this.keywords = Collections.unmodifiableSet(keywords);
+    }
+
+    /**
+     * Reads header blocks of primary HDU
+     *
+     * @param file FITS file
+     * @return structure of file, header is incomplete if END card is missing
+     * @throws IOException when file cannot be read
+     */
+    public static FitsStructure read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Reads header blocks of primary HDU from the beginning of channel
+     *
+     * @param channel channel opened for reading
+     * @return structure of file, header is incomplete if END card is missing
+     * @throws IOException when channel cannot be read
+     */
+    public static FitsStructure read(FileChannel channel) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        byte[] card = new byte[CARD_SIZE];
+        Set<String> keywords = new HashSet<>();
+        long position = 0;
+        long bitpix = 0;
+        long naxis = 0;
+        long pcount = 0;
+        long gcount = 1;
+        long product = 1;
+        while (true) {
+            block.clear();
+            while (block.hasRemaining()) {
+                if (channel.read(block, position + block.position()) < 0) {
+                    return new FitsStructure(false, position, 0, keywords);
+                }
+            }
+            position += BLOCK_SIZE;
+            block.flip();
+            while (block.remaining() >= CARD_SIZE) {
+                block.get(card);
+                String keyword = new String(card, 0, 8, ASCII).trim();
+                if (keyword.equals("END")) {
+                    long data = 0;
+                    if (naxis > 0) {
+                        data = Math.abs(bitpix) / 8 * gcount * (pcount + product);
+                    }
+                    return new FitsStructure(true, position, data, keywords);
+                }
+                if (keyword.length() == 0) {
+                    continue;
+                }
+                keywords.add(keyword);
+                if (keyword.equals("BITPIX")) {
+                    bitpix = parseLong(card);
+                } else if (keyword.equals("NAXIS")) {
+                    naxis = parseLong(card);
+                } else if (keyword.startsWith("NAXIS")) {
+                    product *= parseLong(card);
+                } else if (keyword.equals("PCOUNT")) {
+                    pcount = parseLong(card);
+                } else if (keyword.equals("GCOUNT")) {
+                    gcount = parseLong(card);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses integer value of header card
+     *
+     * @param card 80 bytes of single card
+     * @return value or 0 when the card doesn't hold integer
+     */
+    private static long parseLong(byte[] card) {
+        String value = new String(card, 10, CARD_SIZE - 10, ASCII);
+        int comment = value.indexOf('/');
+        if (comment >= 0) {
+            value = value.substring(0, comment);
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    public boolean isHeaderComplete() {
+        return headerComplete;
+    }
+
+    public long getHeaderSize() {
+        return headerSize;
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * @return size of data rounded up to whole blocks
+     */
+    public long getPaddedDataSize() {
+        return (dataSize + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    public boolean containsKey(String keyword) {
+        return keywords.contains(keyword);
+    }
+
+    /**
+     * Checks whether file of given size contains the whole primary HDU, last
+     * data block does not need to be padded
+     *
+     * @param fileSize current size of file
+     * @return true if header and all data are present
+     */
+    public boolean isComplete(long fileSize) {
+        return headerComplete && fileSize >= headerSize + dataSize;
+    }
+
+}
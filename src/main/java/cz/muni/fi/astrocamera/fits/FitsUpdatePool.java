@@ -0,0 +1,324 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded pool of worker threads updating FITS headers.
+ *
+ * Frames wait in a bounded queue, when the queue is full the policy decides
+ * whether the frame waits or is dropped. Waiting frames are kept in bounded
+ * pending queue which is drained by a submitter thread blocked until workers
+ * take frames from the queue, so the caller (folder watcher) never processes
+ * a frame itself, it must keep delivering file changes which workers wait
+ * for. Only when also the pending queue is full the caller waits at most
+ * {@link #SUBMIT_TIMEOUT} ms, then the frame is rejected. Rejected frames are
+ * not marked as processed, so they are found by the next backlog scan.
+ *
+ * @author Karel Auf
+ */
+public class FitsUpdatePool {
+
+    private final static Logger logger = Logger.getLogger(FitsUpdatePool.class);
+
+    public static final String POLICY_WAIT = "wait";
+    public static final String POLICY_DISCARD = "discard";
+    private static final String POLICY_CALLER_RUNS = "caller"; //former name of wait policy in configuration
+    public static final long SUBMIT_TIMEOUT = 1000; //ms, caller waits for space in pending queue
+    private static final long POLL = 100;           //ms, submitter checks for shutdown
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final int pendingCapacity;
+    private final String policy;
+    private final BlockingQueue<Runnable> pending; //frames waiting for space in queue
+    private final Thread submitter;
+    private volatile boolean shutdown;
+    private final AtomicInteger submitting = new AtomicInteger(); //callers inside submit
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+    /**
+     * @param workers number of worker threads
+     * @param queueCapacity maximal number of frames waiting for a worker
+     * @param pendingCapacity maximal number of frames waiting for space in
+     * queue with {@link #POLICY_WAIT}
+     * @param policy what to do with frame when queue is full, either
+     * {@link #POLICY_WAIT} or {@link #POLICY_DISCARD}
+     */
+    public FitsUpdatePool(int workers, int queueCapacity, int pendingCapacity, String policy) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive.");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive.");
+        }
+        if (pendingCapacity < 1) {
+            throw new IllegalArgumentException("Pending capacity must be positive.");
+        }
+        this.queueCapacity = queueCapacity;
+        this.pendingCapacity = pendingCapacity;
+        this.pending = new LinkedBlockingQueue<>(pendingCapacity);
+        if (POLICY_CALLER_RUNS.equalsIgnoreCase(policy)) {
+            logger.warn("Queue policy " + policy + " is replaced by " + POLICY_WAIT);
+        }
+        this.policy = POLICY_DISCARD.equalsIgnoreCase(policy) ? POLICY_DISCARD : POLICY_WAIT;
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerFactory(), new Backpressure());
+        this.executor.allowCoreThreadTimeOut(true);
+        if (POLICY_WAIT.equals(this.policy)) {
+            submitter = new Thread(new Submitter(), "fits-update-submitter");
+            submitter.setDaemon(true);
+            submitter.start();
+        } else {
+            submitter = null;
+        }
+    }
+
+    /**
+     * Queues FITS file update. When the queue is full, update waits in
+     * pending queue or is dropped depending on policy. Blocks only when also
+     * pending queue is full, at most {@link #SUBMIT_TIMEOUT} ms.
+     *
+     * @param update update of single FITS file
+     * @return false if the update was dropped
+     */
+    public boolean submit(FitsFileUpdate update) {
+        //submitter doesn't finish while some caller is inside
+        submitting.incrementAndGet();
+        try {
+            if (shutdown) {
+                rejected.incrementAndGet();
+                logger.warn("FITS update rejected, pool is shut down.");
+                return false;
+            }
+            if (submitter == null) {
+                boolean accepted = execute(update);
+                if (accepted) {
+                    submitted.incrementAndGet();
+                }
+                return accepted;
+            }
+            boolean accepted;
+            try {
+                accepted = pending.offer(update, SUBMIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                accepted = false;
+            }
+            if (!accepted) {
+                rejected.incrementAndGet();
+                logger.error("FITS update pending queue full, frame rejected. " + getStatus());
+                return false;
+            }
+            submitted.incrementAndGet();
+            updatePeak();
+            return true;
+        } finally {
+            submitting.decrementAndGet();
+        }
+    }
+
+    private boolean execute(Runnable update) {
+        try {
+            executor.execute(update);
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+        updatePeak();
+        return true;
+    }
+
+    /**
+     * Remembers the largest number of frames waiting in queue and pending
+     * queue together
+     */
+    private void updatePeak() {
+        int depth = executor.getQueue().size() + pending.size();
+        int peak = peakQueueDepth.get();
+        while (depth > peak && !peakQueueDepth.compareAndSet(peak, depth)) {
+            peak = peakQueueDepth.get();
+        }
+    }
+
+    /**
+     * Stops accepting new frames, frames already queued or pending are still
+     * processed
+     */
+    public void shutdown() {
+        shutdown = true;
+        if (submitter == null) {
+            executor.shutdown();
+        }
+        //otherwise executor is shut down by submitter after the last pending frame
+    }
+
+    /**
+     * Waits until all accepted frames are processed after {@link #shutdown}
+     *
+     * @param timeout maximal time to wait
+     * @param unit unit of timeout
+     * @return true if all frames were processed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (submitter != null) {
+            submitter.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (submitter.isAlive()) {
+                return false;
+            }
+        }
+        return executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of frames waiting for space in queue
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public int getPendingCapacity() {
+        return pendingCapacity;
+    }
+
+    /**
+     * @return the largest number of frames waiting in queue and pending queue
+     * together
+     */
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return number of frames which waited in pending queue for space in
+     * queue
+     */
+    public long getWaitedCount() {
+        return waited.get();
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return one line summary of pool state for logging
+     */
+    public String getStatus() {
+        return "queue " + getQueueDepth() + "/" + queueCapacity + ", pending " + getPendingCount() + "/" + pendingCapacity
+                + " (peak " + getPeakQueueDepth() + "), active " + getActiveCount() + ", completed " + getCompletedCount()
+                + ", waited " + getWaitedCount() + ", rejected " + getRejectedCount();
+    }
+
+    /**
+     * Handles full queue according to selected policy
+     */
+    private class Backpressure implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            if (e.isShutdown()) {
+                rejected.incrementAndGet();
+                logger.warn("FITS update rejected, pool is shut down.");
+                throw new RejectedExecutionException("Pool is shut down.");
+            }
+            if (POLICY_WAIT.equals(policy)) {
+                //called only by submitter thread
+                try {
+                    e.getQueue().put(r);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for queue.", ex);
+                }
+            } else {
+                rejected.incrementAndGet();
+                logger.error("FITS update queue full, frame dropped. " + getStatus());
+                throw new RejectedExecutionException("Queue is full.");
+            }
+        }
+    }
+
+    /**
+     * Moves pending frames to queue, waits while the queue is full
+     */
+    private class Submitter implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable update = pending.poll(POLL, TimeUnit.MILLISECONDS);
+                    if (update == null) {
+                        //the order of checks matters, see submit
+                        if (shutdown && submitting.get() == 0 && pending.isEmpty()) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (executor.getQueue().remainingCapacity() == 0) {
+                        waited.incrementAndGet();
+                        logger.debug("FITS update queue full, waiting. " + getStatus());
+                    }
+                    execute(update);
+                }
+            } catch (InterruptedException ex) {
+                logger.error("FITS update submitter interrupted, " + pending.size() + " frames not processed.", ex);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Creates named daemon worker threads
+     */
+    private static class WorkerFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fits-update-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Formats numbers with fixed number of decimal places for FITS header values.
+ *
+ * Digits are appended directly to given StringBuilder, no intermediate
+ * BigDecimal or String is created except for values too large for exact
+ * arithmetic. Rounding is half up like BigDecimal.ROUND_HALF_UP applied to
+ * the decimal representation of value, the same as String.format, but
+ * negative value rounded to zero has no sign.
+ *
+ * @author Karel Auf
+ */
+public final class FixedFormat {
+
+    private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L,
+        10000000L, 100000000L, 1000000000L};
+    public static final int MAX_DECIMALS = POW10.length - 1;
+    private static final double MAX_EXACT = 1L << 52; //every half of unit below it is exact double
+
+    private FixedFormat() {
+    }
+
+    /**
+     * @param value number to format
+     * @param decimals number of decimal places
+     * @return value with exactly given number of decimal places
+     */
+    public static String format(double value, int decimals) {
+        return append(new StringBuilder(24), value, decimals, false).toString();
+    }
+
+    /**
+     * @param value number to format
+     * @param decimals maximal number of decimal places
+     * @return rounded value without trailing zeros
+     */
+    public static String formatStripped(double value, int decimals) {
+        return append(new StringBuilder(24), value, decimals, true).toString();
+    }
+
+    /**
+     * Appends value rounded to given number of decimal places
+     *
+     * @param sb target buffer
+     * @param value number to format
+     * @param decimals number of decimal places, at most {@link #MAX_DECIMALS}
+     * @param strip true to leave out trailing zeros of fraction
+     * @return target buffer
+     */
+    public static StringBuilder append(StringBuilder sb, double value, int decimals, boolean strip) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Unsupported number of decimals " + decimals);
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return sb.append(value);
+        }
+        long pow = POW10[decimals];
+        double magnitude = Math.abs(value);
+        double scaled = magnitude * pow;
+        if (scaled >= MAX_EXACT) {
+            //too large for exact arithmetic below, rare
+            BigDecimal rounded = BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_UP);
+            if (strip) {
+                rounded = rounded.stripTrailingZeros();
+                rounded = rounded.setScale(Math.max(0, rounded.scale()));
+            }
+            return sb.append(rounded.toPlainString());
+        }
+        long units = (long) scaled;
+        //values like 0.15 are stored as 0.1499999..., so value is compared with
+        //the double nearest to half way, division by exact power of ten is correctly rounded
+        if (magnitude >= (units + 0.5) / pow) {
+            units++;
+        }
+        if (units != 0 && value < 0) {
+            sb.append('-');
+        }
+        sb.append(units / pow);
+        long fraction = units % pow;
+        int digits = decimals;
+        if (strip) {
+            while (digits > 0 && fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+        }
+        if (digits > 0) {
+            sb.append('.');
+            for (int i = digits - 1; i >= 0; i--) {
+                sb.append((char) ('0' + (fraction / POW10[i]) % 10));
+            }
+        }
+        return sb;
+    }
+
+}
@@ -1,6 +1,10 @@
 package cz.muni.fi.astrocamera.fits;
 
 import cz.muni.fi.astrocamera.coordinates.AstroObjectServiceImpl;
+import cz.muni.fi.astrocamera.coordinates.CoordinateCatalog;
+import cz.muni.fi.astrocamera.database.AcquisitionActivity;
+import cz.muni.fi.astrocamera.database.ChannelRegistry;
+import cz.muni.fi.astrocamera.database.TelemetryHistory;
 import cz.muni.fi.astrocamera.entity.MeteoData;
 import cz.muni.fi.astrocamera.entity.TeleData;
 import java.io.IOException;
@@ -11,13 +15,18 @@ import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import javax.swing.JCheckBox;
 import javax.swing.JTextArea;
 import org.apache.log4j.Logger;
@@ -38,6 +47,23 @@ public class FolderWatchImpl implements FolderWatch {
     private volatile Boolean ready;
     private javax.swing.JTextArea textArea;
     private javax.swing.JCheckBox altFileName;
+    private FitsUpdatePool pool;
+    private FileReadinessDetector detector;
+    private boolean durable;
+    private int catchUpLimit;
+    private SequenceIndex sequenceIndex;
+    private TelemetryHistory history;
+    private ChannelRegistry registry = ChannelRegistry.loadDefault();
+    private AcquisitionActivity activity;
+    private volatile CoordinateCatalog catalog;
+    private double identifyRadius;
+    private volatile long watchStart; //ms, time when the folder started to be watched
+    private Thread scanner;         //scan of folder for unprocessed files, null if none runs
+    private boolean scanRequested; //folder must be scanned again
+    private final Set<String> inProgress = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> skipped = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<Path> recovered = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private FitsHeaderWriter.SyncPolicy syncPolicy = FitsHeaderWriter.SyncPolicy.NONE;
     private Date date;
     private SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
 
@@ -117,6 +143,114 @@ public class FolderWatchImpl implements FolderWatch {
     public void setAltFileName(JCheckBox altFileName) {
         this.altFileName = altFileName;
     }    
+
+    public FitsUpdatePool getPool() {
+        return pool;
+    }
+
+    public void setPool(FitsUpdatePool pool) {
+        this.pool = pool;
+    }
+
+    public FileReadinessDetector getDetector() {
+        return detector;
+    }
+
+    public void setDetector(FileReadinessDetector detector) {
+        this.detector = detector;
+    }
+
+    public ChannelRegistry getRegistry() {
+        return registry;
+    }
+
+    public void setRegistry(ChannelRegistry registry) {
+        this.registry = registry;
+    }
+
+    public AcquisitionActivity getActivity() {
+        return activity;
+    }
+
+    public void setActivity(AcquisitionActivity activity) {
+        this.activity = activity;
+    }
+
+    public CoordinateCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * @param catalog catalog used to identify object of frames without name,
+     * null disables identification
+     */
+    public void setCatalog(CoordinateCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public double getIdentifyRadius() {
+        return identifyRadius;
+    }
+
+    /**
+     * @param identifyRadius arcsec, maximal distance of identified object from
+     * pointing, 0 disables identification
+     */
+    public void setIdentifyRadius(double identifyRadius) {
+        this.identifyRadius = identifyRadius;
+    }
+
+    public TelemetryHistory getHistory() {
+        return history;
+    }
+
+    public void setHistory(TelemetryHistory history) {
+        this.history = history;
+    }
+
+    public int getCatchUpLimit() {
+        return catchUpLimit;
+    }
+
+    /**
+     * @param catchUpLimit maximal number of files from catch-up scan queued at
+     * once, 0 disables the scan
+     */
+    public void setCatchUpLimit(int catchUpLimit) {
+        this.catchUpLimit = catchUpLimit;
+    }
+
+    /**
+     * @return time in milliseconds since epoch when the folder started to be
+     * watched, files modified later are frames of current session
+     */
+    public long getWatchStart() {
+        return watchStart;
+    }
+
+    /**
+     * @return frames from backlog which were not updated because history
+     * didn't cover their exposure, scans in this session leave them out
+     */
+    public Set<String> getSkipped() {
+        return skipped;
+    }
+
+    public boolean isDurable() {
+        return durable;
+    }
+
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    public FitsHeaderWriter.SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public void setSyncPolicy(FitsHeaderWriter.SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
     
 
     @Override
@@ -149,12 +283,27 @@ public class FolderWatchImpl implements FolderWatch {
         textArea.insert(sdf.format(date) + " " + ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle").getString("FolderWatchImpl.info.start") + path + "\n", 0);
         //obtain filesystem on given path
         FileSystem fs = path.getFileSystem();
-        FitsFileUpdateImpl ffu;
 
         // create new WatchService
         try (WatchService service = fs.newWatchService()) {
-            //register path to WatchService
-            path.register(service, ENTRY_CREATE);
+            //register path to WatchService, files modified since now are live frames
+            watchStart = System.currentTimeMillis();
+            path.register(service, ENTRY_CREATE, ENTRY_MODIFY);
+            //clean up after updates interrupted by crash, restored files are reported as created;
+            //only once per folder, after restart of watch workers may still write temporary files
+            if (recovered.add(path.toAbsolutePath().normalize())) {
+                int count = FitsHeaderWriter.recover(path);
+                if (count > 0) {
+                    date = new Date();
+                    textArea.insert(sdf.format(date) + " " + ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle").getString("FolderWatchImpl.info.recovered") + count + "\n", 0);
+                }
+            }
+            //numbers of alternative file names, folder is listed only now
+            sequenceIndex = new SequenceIndex(path);
+            //frames created while the application was not watching
+            if (catchUpLimit > 0) {
+                scanBacklog();
+            }
 
             //start checking in loop
             WatchKey key = null;
@@ -166,18 +315,22 @@ public class FolderWatchImpl implements FolderWatch {
                     // Get the type of the event
                     kind = watchEvent.kind();
                     if (kind == OVERFLOW) {
-                        continue; // loop
+                        // events were lost, new files are found by scan
+                        logger.warn("Events of folder " + path + " lost, scanning folder.");
+                        scanBacklog();
+                    } else if (kind == ENTRY_MODIFY) {
+                        // file is still being written, wake up updates waiting for it
+                        detector.fileChanged((Path) watchEvent.context());
                     } else if (kind == ENTRY_CREATE) {
                         // A new Path was created
-                        Path newPath = ((WatchEvent<Path>) watchEvent).context();
+                        Path newPath = (Path) watchEvent.context();
                         // Output
-                        if (!(newPath.toString().contains(".orig")) 
-                                && (newPath.toString().contains(".fits")) 
-                                && !(newPath.toString().contains("__"))
-                                && ready == true) {
-                            System.out.println("New path created: " + path.toString() + "\\" + newPath.toString());                            
-                            ffu = new FitsFileUpdateImpl(path.toString() + "\\" + newPath.toString(), meteodata, teledata, objectName, textArea, altFileName);
-                            ffu.start();
+                        if (isNewFitsFile(newPath) && ready == true) {
+                            logger.debug("New path created: " + path.resolve(newPath));
+                            if (activity != null) {
+                                activity.frameArrived();
+                            }
+                            submitUpdate(path.resolve(newPath).toString(), null, false);
                         }
                     }
                 }
@@ -186,6 +339,7 @@ public class FolderWatchImpl implements FolderWatch {
                     break; // loop
                 }
             }
+            logger.info("FITS update pool: " + pool.getStatus());
             date = new Date();
             textArea.insert(sdf.format(date) + " " + ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle").getString("FolderWatchImpl.info.stop"), 0);
         } catch (IOException ex) {
@@ -196,6 +350,96 @@ public class FolderWatchImpl implements FolderWatch {
 
     }
 
+    /**
+     * Starts scan of folder for unprocessed files, scan requested while
+     * another scan runs is done after it
+     */
+    private synchronized void scanBacklog() {
+        scanRequested = true;
+        if (scanner == null) {
+            scanner = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (takeScanRequest()) {
+                        new BacklogScanner(FolderWatchImpl.this, Math.max(1, catchUpLimit)).run();
+                    }
+                }
+            }, "fits-catch-up");
+            scanner.setDaemon(true);
+            scanner.start();
+        }
+    }
+
+    /**
+     * @return true if scan was requested, scanner thread ends otherwise
+     */
+    private synchronized boolean takeScanRequest() {
+        boolean requested = scanRequested;
+        scanRequested = false;
+        if (!requested) {
+            scanner = null;
+        }
+        return requested;
+    }
+
+    /**
+     * Checks name of file in watched folder
+     *
+     * @param file name of file
+     * @return true for FITS files which are not backups, temporary files or
+     * already renamed files
+     */
+    static boolean isNewFitsFile(Path file) {
+        String name = file.toString();
+        return !name.contains(FitsHeaderWriter.BACKUP_SUFFIX)
+                && !name.endsWith(FitsHeaderWriter.TEMP_SUFFIX)
+                && name.contains(SequenceIndex.EXTENSION)
+                && !name.contains(SequenceIndex.SEPARATOR);
+    }
+
+    /**
+     * Queues update of FITS file unless the same file is already queued
+     *
+     * @param fileName absolute path of FITS file
+     * @param throttle semaphore released when update finishes or null
+     * @param catchUp true for file created while the folder was not watched
+     * @return true if update was queued
+     */
+    boolean submitUpdate(final String fileName, final Semaphore throttle, boolean catchUp) {
+        if (!inProgress.add(fileName)) {
+            logger.debug("Update of " + fileName + " already queued.");
+            return false;
+        }
+        final FitsFileUpdateImpl ffu = new FitsFileUpdateImpl(fileName, meteodata, teledata, objectName, textArea, altFileName);
+        ffu.setDetector(detector);
+        ffu.setSequenceIndex(sequenceIndex);
+        ffu.setHistory(history);
+        ffu.setRegistry(registry);
+        ffu.setDurable(durable);
+        ffu.setSyncPolicy(syncPolicy);
+        ffu.setCatalog(catalog);
+        ffu.setIdentifyRadius(identifyRadius);
+        ffu.setCatchUp(catchUp);
+        ffu.setSkipped(skipped);
+        boolean queued = pool.submit(new FitsFileUpdate() {
+            @Override
+            public void run() {
+                try {
+                    ffu.run();
+                } finally {
+                    inProgress.remove(fileName);
+                    if (throttle != null) {
+                        throttle.release();
+                    }
+                }
+            }
+        });
+        if (!queued) {
+            inProgress.remove(fileName);
+        }
+        return queued;
+    }
+
     private void validate() throws IOException {
         Boolean isFolder = (Boolean) Files.getAttribute(path, "basic:isDirectory", NOFOLLOW_LINKS);
         if (!isFolder) {
@@ -210,6 +454,12 @@ public class FolderWatchImpl implements FolderWatch {
         if (teledata == null) {
             throw new IllegalArgumentException("Teledata is null.");
         }
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool is null.");
+        }
+        if (detector == null) {
+            throw new IllegalArgumentException("Detector is null.");
+        }
     }
 
     @Override
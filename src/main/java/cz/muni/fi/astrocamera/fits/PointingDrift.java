@@ -0,0 +1,168 @@
+package cz.muni.fi.astrocamera.fits;
+
+import cz.muni.fi.astrocamera.database.TelemetryHistory;
+import cz.muni.fi.astrocamera.database.TelemetrySeries;
+
+/**
+ * Drift of telescope pointing during exposure computed from RA1/DEC1 samples
+ * in telemetry history.
+ *
+ * Positions are projected to plane tangent at the first sample, offsets are
+ * in arcseconds on sky (RA offset is multiplied by cos(DEC)). Samples are
+ * copied into primitive arrays and every metric is a simple loop over them,
+ * so the computation is cheap even for thousands of samples.
+ *
+ * @author Karel Auf
+ */
+public class PointingDrift {
+
+    private static final int MIN_SAMPLES = 2;
+    private static final long DEC_MARGIN = 60000; //ms, DEC samples around exposure used for interpolation
+
+    private final double deltaRa;  //arcsec, RA offset of the last sample from the first
+    private final double deltaDec; //arcsec, DEC offset of the last sample from the first
+    private final double rms;      //arcsec, RMS distance from mean position
+    private final double max;      //arcsec, the largest distance from mean position
+    private final int samples;
+
+    private PointingDrift(double deltaRa, double deltaDec, double rms, double max, int samples) {
+        this.deltaRa = deltaRa;
+        this.deltaDec = deltaDec;
+        this.rms = rms;
+        this.max = max;
+        this.samples = samples;
+    }
+
+    /**
+     * @param history telemetry history with RA1 and DEC1 in degrees
+     * @param window exposure window
+     * @return drift or null if history has less than 2 RA samples during
+     * exposure or no DEC samples
+     */
+    public static PointingDrift of(TelemetryHistory history, ExposureWindow window) {
+        long from = window.getStart();
+        long to = window.getEnd();
+        TelemetrySeries raSeries = history.getSeries(TelemetryHistory.RA);
+        TelemetrySeries decSeries = history.getSeries(TelemetryHistory.DEC);
+        int n = raSeries.count(from, to);
+        if (n < MIN_SAMPLES) {
+            return null;
+        }
+        long[] raTimes = new long[n];
+        double[] ra = new double[n];
+        n = raSeries.copy(from, to, raTimes, ra);
+        //DEC samples around exposure for interpolation at RA times
+        int m = decSeries.count(from - DEC_MARGIN, to + DEC_MARGIN);
+        long[] decTimes = new long[m];
+        double[] dec = new double[m];
+        m = decSeries.copy(from - DEC_MARGIN, to + DEC_MARGIN, decTimes, dec);
+        if (n < MIN_SAMPLES || m == 0) {
+            return null;
+        }
+        return compute(raTimes, ra, n, decTimes, dec, m);
+    }
+
+    /**
+     * @param raTimes times of RA samples
+     * @param ra RA samples in degrees
+     * @param n number of RA samples
+     * @param decTimes times of DEC samples
+     * @param dec DEC samples in degrees
+     * @param m number of DEC samples
+     * @return drift at times of RA samples
+     */
+    static PointingDrift compute(long[] raTimes, double[] ra, int n, long[] decTimes, double[] dec, int m) {
+        double[] x = new double[n];
+        double[] y = new double[n];
+        alignDec(raTimes, n, decTimes, dec, m, y);
+        double ra0 = ra[0];
+        double dec0 = y[0];
+        double scale = Math.cos(Math.toRadians(dec0)) * 3600.0;
+        //offsets from the first sample, RA over 0/360 is unwrapped without branching
+        for (int i = 0; i < n; i++) {
+            double d = ra[i] - ra0;
+            x[i] = (d - 360.0 * Math.rint(d / 360.0)) * scale;
+        }
+        for (int i = 0; i < n; i++) {
+            y[i] = (y[i] - dec0) * 3600.0;
+        }
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < n; i++) {
+            sumX += x[i];
+            sumY += y[i];
+        }
+        double meanX = sumX / n;
+        double meanY = sumY / n;
+        double sumSq = 0;
+        double maxSq = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = x[i] - meanX;
+            double dy = y[i] - meanY;
+            double sq = dx * dx + dy * dy;
+            sumSq += sq;
+            maxSq = Math.max(maxSq, sq);
+        }
+        return new PointingDrift(x[n - 1], y[n - 1], Math.sqrt(sumSq / n), Math.sqrt(maxSq), n);
+    }
+
+    /**
+     * Interpolates DEC samples at times of RA samples, both are ordered by
+     * time so one merge pass is enough
+     */
+    private static void alignDec(long[] times, int n, long[] decTimes, double[] dec, int m, double[] target) {
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            long t = times[i];
+            while (j < m - 1 && decTimes[j + 1] <= t) {
+                j++;
+            }
+            if (j == m - 1 || decTimes[j] >= t) {
+                target[i] = dec[j];
+            } else {
+                double f = (double) (t - decTimes[j]) / (decTimes[j + 1] - decTimes[j]);
+                target[i] = dec[j] + (dec[j + 1] - dec[j]) * f;
+            }
+        }
+    }
+
+    /**
+     * @return arcsec, RA offset (on sky) of the last sample from the first
+     */
+    public double getDeltaRa() {
+        return deltaRa;
+    }
+
+    /**
+     * @return arcsec, DEC offset of the last sample from the first
+     */
+    public double getDeltaDec() {
+        return deltaDec;
+    }
+
+    /**
+     * @return arcsec, distance of the last sample from the first
+     */
+    public double getDelta() {
+        return Math.sqrt(deltaRa * deltaRa + deltaDec * deltaDec);
+    }
+
+    /**
+     * @return arcsec, RMS distance of samples from mean position
+     */
+    public double getRms() {
+        return rms;
+    }
+
+    /**
+     * @return arcsec, the largest distance of sample from mean position
+     */
+    public double getMax() {
+        return max;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+}
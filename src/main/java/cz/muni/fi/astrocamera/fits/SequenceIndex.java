@@ -0,0 +1,134 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps highest sequence numbers of alternative file names in format
+ * name__number.fits, so the next number is found without listing the folder.
+ *
+ * Numbers are grouped by pattern which is either exact name (bias) or prefix
+ * ending with * (flat* covers flat_R_10.0 and flat_V_5.0). The folder is
+ * scanned only once when the index is created, later names are recorded when
+ * numbers are reserved.
+ *
+ * @author Karel Auf
+ */
+public class SequenceIndex {
+
+    private final static Logger logger = Logger.getLogger(SequenceIndex.class);
+    public static final String SEPARATOR = "__";
+    public static final String EXTENSION = ".fits";
+    private static final int ATTEMPTS = 3; //numbers tried when file with reserved number exists
+
+    private final Map<String, Long> names = new HashMap<>();  //highest number for every name
+    private final Map<String, Long> patterns = new HashMap<>(); //highest number for every used pattern
+
+    /**
+     * Creates index of alternative file names in given folder
+     *
+     * @param dir folder with FITS files
+     * @throws IOException when folder cannot be listed
+     */
+    public SequenceIndex(Path dir) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEPARATOR + "*" + EXTENSION)) {
+            for (Path file : stream) {
+                String fileName = file.getFileName().toString();
+                int i = fileName.lastIndexOf(SEPARATOR);
+                int j = fileName.lastIndexOf(EXTENSION);
+                try {
+                    record(fileName.substring(0, i), Long.parseLong(fileName.substring(i + SEPARATOR.length(), j)));
+                    count++;
+                } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+                    logger.debug("Not a sequence file name: " + fileName);
+                }
+            }
+        }
+        logger.info("Sequence index of " + dir + " created from " + count + " files");
+    }
+
+    /**
+     * Reserves next number for new file name
+     *
+     * @param pattern name whose numbers are shared, prefix when it ends with *
+     * @param name name of the new file without number
+     * @return number which was not used by any name matching pattern
+     */
+    public synchronized long reserve(String pattern, String name) {
+        Long max = patterns.get(pattern);
+        if (max == null) {
+            //first use of pattern, go through known names instead of files
+            max = 0L;
+            for (Map.Entry<String, Long> entry : names.entrySet()) {
+                if (matches(pattern, entry.getKey()) && entry.getValue() > max) {
+                    max = entry.getValue();
+                }
+            }
+            patterns.put(pattern, max);
+        }
+        long number = max + 1;
+        record(name, number);
+        return number;
+    }
+
+    /**
+     * Renames file to name__number.fits with the next reserved number
+     *
+     * @param source file to rename
+     * @param pattern name whose numbers are shared, prefix when it ends with *
+     * @param name new name without number
+     * @return renamed file or null if files with all tried numbers exist
+     * @throws IOException when file cannot be renamed
+     */
+    public Path move(Path source, String pattern, String name) throws IOException {
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            Path target = source.resolveSibling(fileName(name, reserve(pattern, name)));
+            try {
+                return Files.move(source, target);
+            } catch (FileAlreadyExistsException ex) {
+                //file was created outside of this application, index already moved past it
+                logger.debug("File " + target + " already exists.");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records used number of name and all patterns matching it
+     */
+    private void record(String name, long number) {
+        Long max = names.get(name);
+        if (max == null || max < number) {
+            names.put(name, number);
+        }
+        for (Map.Entry<String, Long> entry : patterns.entrySet()) {
+            if (entry.getValue() < number && matches(entry.getKey(), name)) {
+                entry.setValue(number);
+            }
+        }
+    }
+
+    private static boolean matches(String pattern, String name) {
+        if (pattern.endsWith("*")) {
+            return name.startsWith(pattern.substring(0, pattern.length() - 1));
+        }
+        return name.equals(pattern);
+    }
+
+    /**
+     * @param name name without number
+     * @param number sequence number
+     * @return file name in format name__number.fits
+     */
+    public static String fileName(String name, long number) {
+        return name + SEPARATOR + number + EXTENSION;
+    }
+
+}
@@ -1,7 +1,18 @@
 package cz.muni.fi.astrocamera.ui;
 
 import cz.muni.fi.astrocamera.coordinates.AstroObjectServiceImpl;
+import cz.muni.fi.astrocamera.coordinates.ResolverCache;
+import cz.muni.fi.astrocamera.database.AcquisitionActivity;
+import cz.muni.fi.astrocamera.database.ChannelRegistry;
+import cz.muni.fi.astrocamera.database.DatabaseWatcher;
 import cz.muni.fi.astrocamera.database.MeteoDatabaseService;
+import cz.muni.fi.astrocamera.database.TelemetryEngine;
+import cz.muni.fi.astrocamera.database.TelemetryHistory;
+import cz.muni.fi.astrocamera.database.TelemetryJournal;
+import cz.muni.fi.astrocamera.database.TelemetryPolicy;
+import cz.muni.fi.astrocamera.fits.FileReadinessDetector;
+import cz.muni.fi.astrocamera.fits.FitsHeaderWriter;
+import cz.muni.fi.astrocamera.fits.FitsUpdatePool;
 import cz.muni.fi.astrocamera.fits.FolderWatchImpl;
 import cz.muni.fi.astrocamera.database.TeleDatabaseService;
 import cz.muni.fi.astrocamera.coordinates.TelescopeControlImpl;
@@ -9,6 +20,12 @@ import cz.muni.fi.astrocamera.entity.AstronomicalObject;
 import cz.muni.fi.astrocamera.entity.MeteoData;
 import cz.muni.fi.astrocamera.entity.TeleData;
 import cz.muni.fi.astrocamera.entity.Telescope;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
@@ -24,11 +41,18 @@ import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JFileChooser;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import org.apache.log4j.Logger;
@@ -51,6 +75,7 @@ public class AstroCameraUI extends javax.swing.JFrame {
     private final MeteoDatabaseService meteoDbServ;
     private final TeleDatabaseService teleDbServ;
     private final FolderWatchImpl fw;
+    private TelemetryEngine telemetryEngine;
     private final Telescope telescope;
     private final TelescopeControlImpl telescopeControl;
     private AstronomicalObject astroObject;
@@ -58,6 +83,52 @@ public class AstroCameraUI extends javax.swing.JFrame {
     private String serverIP;
     private int serverPort;
     private String serverPassword;
+    private int workers = 2;
+    private int queueCapacity = 500;
+    private int pendingCapacity = 5000; //frames waiting for space in queue
+    private String queuePolicy = FitsUpdatePool.POLICY_WAIT;
+    private long readyStable = 100;
+    private long readyTimeout = 120000;
+    private String writeMode = "inplace";
+    private String fsync = "file";
+    private int catchUp = 1;
+    private int historySize = 20000;
+    private String dbRefresh = DatabaseWatcher.MODE_EVENT;
+    private long dbDebounce = 50;
+    private long dbMaxStale = 5000;
+    private int telemetryThreads = 2;
+    private long meteoInterval = 5000;
+    private long teleInterval = 5000;
+    private long meteoStaleness = 60000;
+    private long teleStaleness = 30000;
+    private long dbRetry = 3000;
+    private long dbMaxRetry = 60000;
+    private long meteoActiveInterval = 2000;
+    private long teleActiveInterval = 1000;
+    private long meteoIdleInterval = 60000;
+    private long teleIdleInterval = 30000;
+    private long activeWindow = 120000; //ms after frame with fast telemetry
+    private long idleAfter = 900000;    //ms without frame before telemetry slows down
+    private double slewRate = 60;       //arcsec/s
+    private String channels = ""; //file with channel registry, bundled registry if empty
+    private String journal = "journal"; //folder of telemetry journal, disabled if empty
+    private int journalSegment = 65536; //records in one journal segment
+    private long journalRetention = 172800000; //ms, older journal segments are deleted
+    private double identifyRadius = 300; //arcsec, object of frame without name is identified by pointing, 0 disables
+    private long compileCatalog = 16777216; //bytes, larger files with coordinates are compiled, -1 never
+    private String simbadUrl = AstroObjectServiceImpl.SIMBAD_URL;
+    private String aavsoUrl = AstroObjectServiceImpl.AAVSO_URL;
+    private String resolverCache = "resolver.cache"; //file of online resolutions, memory only if empty
+    private int resolverMemory = 256;                //resolutions kept in memory
+    private long resolverTtl = 2592000000L;          //ms, found names are resolved again after it
+    private long resolverNegativeTtl = 86400000;     //ms, not found names are resolved again after it
+    private boolean mergeResolved = true;            //resolved objects are saved to file with coordinates
+    private static final int SUGGESTIONS = 10; //names offered while typing
+    private static final long EXIT_TIMEOUT = 30; //s, waiting for queued FITS updates on exit
+    private boolean exiting;
+    private final JPopupMenu suggestionPopup = new JPopupMenu();
+    private Timer suggestionTimer;
+    private SwingWorker<List<String>, Void> suggestionWorker;
     private ResourceBundle bundle = ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle");
     private Date date;
     private SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
@@ -100,10 +171,103 @@ public class AstroCameraUI extends javax.swing.JFrame {
         astroObject = new AstronomicalObject();
         loadLocale();
         initComponents();
+        initAutocomplete();
         teleDbServ.setTeleProgressBar(teleProgressBar);
         meteoDbServ.setMeteoProgressBar(meteoProgressBar);
         fw.setAltFileName(AltFileNameCheckBox);
         loadProperties();
+        fw.setPool(new FitsUpdatePool(workers, queueCapacity, pendingCapacity, queuePolicy));
+        fw.setDetector(new FileReadinessDetector(readyStable, readyTimeout));
+        fw.setDurable(writeMode.equalsIgnoreCase("durable"));
+        fw.setCatchUpLimit(catchUp);
+        fw.setIdentifyRadius(identifyRadius);
+        service.setCompileSize(compileCatalog);
+        service.setSimbadUrl(simbadUrl);
+        service.setAavsoUrl(aavsoUrl);
+        openResolverCache();
+        TelemetryHistory history = new TelemetryHistory(historySize);
+        meteoDbServ.setHistory(history);
+        teleDbServ.setHistory(history);
+        fw.setHistory(history);
+        openJournal(history);
+        ChannelRegistry registry = loadChannels();
+        meteoDbServ.setChannels(registry);
+        teleDbServ.setChannels(registry);
+        fw.setRegistry(registry);
+        telemetryEngine = new TelemetryEngine(telemetryThreads);
+        AcquisitionActivity activity = new AcquisitionActivity(activeWindow, idleAfter, slewRate);
+        telemetryEngine.setActivity(activity);
+        fw.setActivity(activity);
+        teleDbServ.setActivity(activity);
+        meteoDbServ.setEngine(telemetryEngine);
+        meteoDbServ.setRefreshMode(dbRefresh);
+        meteoDbServ.setPolicy(new TelemetryPolicy(meteoInterval, dbDebounce, dbMaxStale, meteoStaleness, dbRetry, dbMaxRetry,
+                meteoActiveInterval, meteoIdleInterval));
+        teleDbServ.setEngine(telemetryEngine);
+        teleDbServ.setRefreshMode(dbRefresh);
+        teleDbServ.setPolicy(new TelemetryPolicy(teleInterval, dbDebounce, dbMaxStale, teleStaleness, dbRetry, dbMaxRetry,
+                teleActiveInterval, teleIdleInterval));
+        try {
+            fw.setSyncPolicy(FitsHeaderWriter.SyncPolicy.valueOf(fsync.toUpperCase(Locale.ENGLISH)));
+        } catch (IllegalArgumentException ex) {
+            logger.error("Unknown fsync policy " + fsync, ex);
+        }
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                exit();
+            }
+        });
+    }
+
+    /**
+     * Closes the window at once, queued FITS updates are finished on
+     * background thread and the application exits after them
+     */
+    private void exit() {
+        if (exiting) {
+            return;
+        }
+        exiting = true;
+        dispose();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    shutdown();
+                } finally {
+                    System.exit(0);
+                }
+            }
+        }, "astrocamera-exit");
+        thread.start();
+    }
+
+    /**
+     * Stops watching and waits for queued FITS updates before application
+     * exits, so no header is left half written
+     */
+    private void shutdown() {
+        if (fw.getReady()) {
+            fw.stop();
+        }
+        teleDbServ.stop();
+        meteoDbServ.stop();
+        telemetryEngine.shutdown();
+        FitsUpdatePool pool = fw.getPool();
+        pool.shutdown();
+        try {
+            long waited = 0;
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (++waited >= EXIT_TIMEOUT) {
+                    logger.error("FITS updates not finished before exit: " + pool.getStatus());
+                    return;
+                }
+                logger.info("Waiting for FITS updates before exit: " + pool.getStatus());
+            }
+        } catch (InterruptedException ex) {
+            logger.error("Interrupted while waiting for FITS updates", ex);
+        }
     }
 
     /**
@@ -123,6 +287,46 @@ public class AstroCameraUI extends javax.swing.JFrame {
             serverIP = prop.getProperty("ip");
             serverPort = Integer.parseInt(prop.getProperty("port"));
             serverPassword = prop.getProperty("password");
+            workers = Integer.parseInt(prop.getProperty("workers", Integer.toString(workers)));
+            queueCapacity = Integer.parseInt(prop.getProperty("queue", Integer.toString(queueCapacity)));
+            pendingCapacity = Integer.parseInt(prop.getProperty("pending", Integer.toString(pendingCapacity)));
+            queuePolicy = prop.getProperty("queuePolicy", queuePolicy);
+            readyStable = Long.parseLong(prop.getProperty("readyStable", Long.toString(readyStable)));
+            readyTimeout = Long.parseLong(prop.getProperty("readyTimeout", Long.toString(readyTimeout)));
+            writeMode = prop.getProperty("writeMode", writeMode);
+            fsync = prop.getProperty("fsync", fsync);
+            catchUp = Integer.parseInt(prop.getProperty("catchUp", Integer.toString(catchUp)));
+            historySize = Integer.parseInt(prop.getProperty("history", Integer.toString(historySize)));
+            dbRefresh = prop.getProperty("dbRefresh", dbRefresh);
+            dbDebounce = Long.parseLong(prop.getProperty("dbDebounce", Long.toString(dbDebounce)));
+            dbMaxStale = Long.parseLong(prop.getProperty("dbMaxStale", Long.toString(dbMaxStale)));
+            telemetryThreads = Integer.parseInt(prop.getProperty("telemetryThreads", Integer.toString(telemetryThreads)));
+            meteoInterval = Long.parseLong(prop.getProperty("meteoInterval", Long.toString(meteoInterval)));
+            teleInterval = Long.parseLong(prop.getProperty("teleInterval", Long.toString(teleInterval)));
+            meteoStaleness = Long.parseLong(prop.getProperty("meteoStaleness", Long.toString(meteoStaleness)));
+            teleStaleness = Long.parseLong(prop.getProperty("teleStaleness", Long.toString(teleStaleness)));
+            dbRetry = Long.parseLong(prop.getProperty("dbRetry", Long.toString(dbRetry)));
+            dbMaxRetry = Long.parseLong(prop.getProperty("dbMaxRetry", Long.toString(dbMaxRetry)));
+            meteoActiveInterval = Long.parseLong(prop.getProperty("meteoActiveInterval", Long.toString(meteoActiveInterval)));
+            teleActiveInterval = Long.parseLong(prop.getProperty("teleActiveInterval", Long.toString(teleActiveInterval)));
+            meteoIdleInterval = Long.parseLong(prop.getProperty("meteoIdleInterval", Long.toString(meteoIdleInterval)));
+            teleIdleInterval = Long.parseLong(prop.getProperty("teleIdleInterval", Long.toString(teleIdleInterval)));
+            activeWindow = Long.parseLong(prop.getProperty("activeWindow", Long.toString(activeWindow)));
+            idleAfter = Long.parseLong(prop.getProperty("idleAfter", Long.toString(idleAfter)));
+            slewRate = Double.parseDouble(prop.getProperty("slewRate", Double.toString(slewRate)));
+            channels = prop.getProperty("channels", channels);
+            journal = prop.getProperty("journal", journal);
+            journalSegment = Integer.parseInt(prop.getProperty("journalSegment", Integer.toString(journalSegment)));
+            journalRetention = Long.parseLong(prop.getProperty("journalRetention", Long.toString(journalRetention)));
+            identifyRadius = Double.parseDouble(prop.getProperty("identifyRadius", Double.toString(identifyRadius)));
+            compileCatalog = Long.parseLong(prop.getProperty("compileCatalog", Long.toString(compileCatalog)));
+            simbadUrl = prop.getProperty("simbadUrl", simbadUrl);
+            aavsoUrl = prop.getProperty("aavsoUrl", aavsoUrl);
+            resolverCache = prop.getProperty("resolverCache", resolverCache);
+            resolverMemory = Integer.parseInt(prop.getProperty("resolverMemory", Integer.toString(resolverMemory)));
+            resolverTtl = Long.parseLong(prop.getProperty("resolverTtl", Long.toString(resolverTtl)));
+            resolverNegativeTtl = Long.parseLong(prop.getProperty("resolverNegativeTtl", Long.toString(resolverNegativeTtl)));
+            mergeResolved = Boolean.parseBoolean(prop.getProperty("mergeResolved", Boolean.toString(mergeResolved)));
 
             fcPhoto.setCurrentDirectory(new File(prop.getProperty("photo")));
             File file = new File(prop.getProperty("photo"));
@@ -133,7 +337,7 @@ public class AstroCameraUI extends javax.swing.JFrame {
 
             fcMeteo.setCurrentDirectory(new File(prop.getProperty("meteo")));
             file = new File(prop.getProperty("meteo"));
-            meteoDbServ.setReady(false);
+            meteoDbServ.stop();
             meteoTextField.setText(file.getAbsolutePath());
             p = Paths.get(file.getAbsolutePath());
             meteoDbServ.setPath(p);
@@ -174,6 +378,66 @@ public class AstroCameraUI extends javax.swing.JFrame {
         }
     }
 
+    /**
+     * Replays telemetry journal into history and journals new samples
+     *
+     * @param history shared telemetry history
+     */
+    private void openJournal(TelemetryHistory history) {
+        if (journal.trim().isEmpty()) {
+            return;
+        }
+        TelemetryJournal telemetryJournal = new TelemetryJournal(Paths.get(journal.trim()), journalSegment, journalRetention);
+        try {
+            telemetryJournal.open();
+            telemetryJournal.replay(history);
+            history.setJournal(telemetryJournal);
+        } catch (IOException | IllegalArgumentException ex) {
+            logger.error("Error while opening telemetry journal " + journal, ex);
+            telemetryJournal.close();
+            date = new Date();
+            logTextArea.insert(sdf.format(date) + " " + bundle.getString("AstroCameraUI.error.journal") + ex.getMessage() + "\n", 0);
+        }
+    }
+
+    /**
+     * Opens cache of names resolved online, cache is kept only in memory if
+     * its file cannot be opened
+     */
+    private void openResolverCache() {
+        Path file = resolverCache.trim().isEmpty() ? null : Paths.get(resolverCache.trim());
+        ResolverCache cache = new ResolverCache(file, resolverMemory, resolverTtl, resolverNegativeTtl);
+        try {
+            cache.open();
+        } catch (IOException ex) {
+            logger.error("Error while opening resolver cache " + resolverCache, ex);
+            cache = new ResolverCache(null, resolverMemory, resolverTtl, resolverNegativeTtl);
+            date = new Date();
+            logTextArea.insert(sdf.format(date) + " " + bundle.getString("AstroCameraUI.error.resolverCache") + ex.getMessage() + "\n", 0);
+        }
+        service.setCache(cache);
+    }
+
+    /**
+     * Loads telemetry channels from file set in configuration
+     *
+     * @return loaded channels or bundled channels if file is not set or
+     * invalid
+     */
+    private ChannelRegistry loadChannels() {
+        if (channels.trim().isEmpty()) {
+            return ChannelRegistry.loadDefault();
+        }
+        try {
+            return ChannelRegistry.load(Paths.get(channels.trim()));
+        } catch (IOException | IllegalArgumentException ex) {
+            logger.error("Error while loading channels from " + channels, ex);
+            date = new Date();
+            logTextArea.insert(sdf.format(date) + " " + bundle.getString("AstroCameraUI.error.channels") + ex.getMessage() + "\n", 0);
+            return ChannelRegistry.loadDefault();
+        }
+    }
+
     /**
      * Saves current settings of variables into configuration file
      * config.properties
@@ -186,6 +450,46 @@ public class AstroCameraUI extends javax.swing.JFrame {
             props.setProperty("ip", serverIP);
             props.setProperty("port", Integer.toString(serverPort));
             props.setProperty("password", serverPassword);
+            props.setProperty("workers", Integer.toString(workers));
+            props.setProperty("queue", Integer.toString(queueCapacity));
+            props.setProperty("pending", Integer.toString(pendingCapacity));
+            props.setProperty("queuePolicy", queuePolicy);
+            props.setProperty("readyStable", Long.toString(readyStable));
+            props.setProperty("readyTimeout", Long.toString(readyTimeout));
+            props.setProperty("writeMode", writeMode);
+            props.setProperty("fsync", fsync);
+            props.setProperty("catchUp", Integer.toString(catchUp));
+            props.setProperty("history", Integer.toString(historySize));
+            props.setProperty("dbRefresh", dbRefresh);
+            props.setProperty("dbDebounce", Long.toString(dbDebounce));
+            props.setProperty("dbMaxStale", Long.toString(dbMaxStale));
+            props.setProperty("telemetryThreads", Integer.toString(telemetryThreads));
+            props.setProperty("meteoInterval", Long.toString(meteoInterval));
+            props.setProperty("teleInterval", Long.toString(teleInterval));
+            props.setProperty("meteoStaleness", Long.toString(meteoStaleness));
+            props.setProperty("teleStaleness", Long.toString(teleStaleness));
+            props.setProperty("dbRetry", Long.toString(dbRetry));
+            props.setProperty("dbMaxRetry", Long.toString(dbMaxRetry));
+            props.setProperty("meteoActiveInterval", Long.toString(meteoActiveInterval));
+            props.setProperty("teleActiveInterval", Long.toString(teleActiveInterval));
+            props.setProperty("meteoIdleInterval", Long.toString(meteoIdleInterval));
+            props.setProperty("teleIdleInterval", Long.toString(teleIdleInterval));
+            props.setProperty("activeWindow", Long.toString(activeWindow));
+            props.setProperty("idleAfter", Long.toString(idleAfter));
+            props.setProperty("slewRate", Double.toString(slewRate));
+            props.setProperty("channels", channels);
+            props.setProperty("journal", journal);
+            props.setProperty("journalSegment", Integer.toString(journalSegment));
+            props.setProperty("journalRetention", Long.toString(journalRetention));
+            props.setProperty("identifyRadius", Double.toString(identifyRadius));
+            props.setProperty("compileCatalog", Long.toString(compileCatalog));
+            props.setProperty("simbadUrl", simbadUrl);
+            props.setProperty("aavsoUrl", aavsoUrl);
+            props.setProperty("resolverCache", resolverCache);
+            props.setProperty("resolverMemory", Integer.toString(resolverMemory));
+            props.setProperty("resolverTtl", Long.toString(resolverTtl));
+            props.setProperty("resolverNegativeTtl", Long.toString(resolverNegativeTtl));
+            props.setProperty("mergeResolved", Boolean.toString(mergeResolved));
 
             props.setProperty("photo", fw.getPath().toString());
             props.setProperty("meteo", meteoDbServ.getPath().toString());
@@ -241,6 +545,101 @@ public class AstroCameraUI extends javax.swing.JFrame {
         }
     }
 
+    /**
+     * Offers names from file with coordinates while name is typed into
+     * searchNameTextField
+     */
+    private void initAutocomplete() {
+        suggestionPopup.setFocusable(false);
+        //wait for pause in typing
+        suggestionTimer = new Timer(150, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                suggestNames();
+            }
+        });
+        suggestionTimer.setRepeats(false);
+        searchNameTextField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                suggestionTimer.restart();
+            }
+
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                suggestionTimer.restart();
+            }
+        });
+        searchNameTextField.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                suggestionPopup.setVisible(false);
+            }
+        });
+    }
+
+    /**
+     * Searches names in background, catalog may be large and it is loaded on
+     * the first search
+     */
+    private void suggestNames() {
+        final String text = searchNameTextField.getText();
+        if (suggestionWorker != null) {
+            suggestionWorker.cancel(false);
+        }
+        if (text.trim().length() < 2 || coordFilePath == null || !coordFilePath.toFile().isFile()) {
+            suggestionPopup.setVisible(false);
+            return;
+        }
+        final File file = coordFilePath.toFile();
+        suggestionWorker = new SwingWorker<List<String>, Void>() {
+            @Override
+            protected List<String> doInBackground() {
+                return service.suggestNames(file, text, SUGGESTIONS);
+            }
+
+            @Override
+            protected void done() {
+                //text changed while searching
+                if (isCancelled() || !text.equals(searchNameTextField.getText())) {
+                    return;
+                }
+                try {
+                    showSuggestions(get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    logger.error("Error while searching names: ", ex);
+                }
+            }
+        };
+        suggestionWorker.execute();
+    }
+
+    private void showSuggestions(List<String> names) {
+        suggestionPopup.setVisible(false);
+        suggestionPopup.removeAll();
+        if (names.isEmpty() || !searchNameTextField.isShowing()) {
+            return;
+        }
+        for (final String name : names) {
+            JMenuItem item = new JMenuItem(name);
+            item.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    searchNameTextField.setText(name);
+                    suggestionTimer.stop();
+                    suggestionPopup.setVisible(false);
+                    loadButtonActionPerformed(e);
+                }
+            });
+            suggestionPopup.add(item);
+        }
+        suggestionPopup.show(searchNameTextField, 0, searchNameTextField.getHeight());
+    }
+
     /**
      * Action performed on pressing Load from file button
      *
@@ -252,16 +651,35 @@ public class AstroCameraUI extends javax.swing.JFrame {
      */
     private void loadButtonActionPerformed(java.awt.event.ActionEvent e) {
         if (searchNameTextField.getText().length() > 1) {
-            astroObject.setName(searchNameTextField.getText());
-            astroObject.setDec(null);
-            astroObject.setRa(null);
-            astroObject = service.loadObjectFromFile(coordFilePath.toFile(), astroObject);
-            selectedNameTextField.setText(astroObject.getName());
-            raTextField.setText(astroObject.getRa());
-            decTextField.setText(astroObject.getDec());
+            final AstronomicalObject object = new AstronomicalObject();
+            object.setName(searchNameTextField.getText());
+            final File file = coordFilePath.toFile();
+            //compiling or reading large catalog must not block the window
+            new SwingWorker<AstronomicalObject, Void>() {
+                @Override
+                protected AstronomicalObject doInBackground() {
+                    return service.loadObjectFromFile(file, object);
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        showObject(get());
+                    } catch (InterruptedException | ExecutionException ex) {
+                        logger.error("Error while loading object from file: ", ex);
+                    }
+                }
+            }.execute();
         }
     }
 
+    private void showObject(AstronomicalObject object) {
+        astroObject = object;
+        selectedNameTextField.setText(astroObject.getName());
+        raTextField.setText(astroObject.getRa());
+        decTextField.setText(astroObject.getDec());
+    }
+
     /**
      * Action performed when Search button is pressed Searches for astronomical
      * object selected in searchNameTextField and puts results in
@@ -270,13 +688,31 @@ public class AstroCameraUI extends javax.swing.JFrame {
      * @param e
      */
     private void searchButtonActionPerformed(java.awt.event.ActionEvent e) {
-        astroObject.setName(searchNameTextField.getText());
-        astroObject.setDec(null);
-        astroObject.setRa(null);
-        astroObject = service.getObjectOnline(astroObject);
-        selectedNameTextField.setText(astroObject.getName());
-        raTextField.setText(astroObject.getRa());
-        decTextField.setText(astroObject.getDec());
+        final AstronomicalObject object = new AstronomicalObject();
+        object.setName(searchNameTextField.getText());
+        final File file = mergeResolved && coordFilePath != null ? coordFilePath.toFile() : null;
+        //online databases may answer after several seconds
+        searchButton.setEnabled(false);
+        new SwingWorker<AstronomicalObject, Void>() {
+            @Override
+            protected AstronomicalObject doInBackground() {
+                AstronomicalObject found = service.getObjectOnline(object);
+                if (file != null && found.getRa() != null) {
+                    service.saveObjectToFile(file, found);
+                }
+                return found;
+            }
+
+            @Override
+            protected void done() {
+                searchButton.setEnabled(true);
+                try {
+                    showObject(get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    logger.error("Error while searching online: ", ex);
+                }
+            }
+        }.execute();
     }
 
     /**
@@ -365,7 +801,7 @@ public class AstroCameraUI extends javax.swing.JFrame {
         int returnVal = fcMeteo.showOpenDialog(AstroCameraUI.this);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
             File file = fcMeteo.getSelectedFile();
-            meteoDbServ.setReady(false);
+            meteoDbServ.stop();
             //Handle file 
             meteoTextField.setText(file.getAbsolutePath());
             Path p = Paths.get(file.getAbsolutePath());
@@ -389,7 +825,7 @@ public class AstroCameraUI extends javax.swing.JFrame {
         int returnVal = fcTele.showOpenDialog(AstroCameraUI.this);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
             File file = fcTele.getSelectedFile();
-            teleDbServ.setReady(false);
+            teleDbServ.stop();
             //Handle file 
             teleTextField.setText(file.getAbsolutePath());
             Path p = Paths.get(file.getAbsolutePath());
@@ -417,6 +853,7 @@ public class AstroCameraUI extends javax.swing.JFrame {
             coordTextField.setText(file.getAbsolutePath());
             Path p = Paths.get(file.getAbsolutePath());
             coordFilePath = p;
+            fw.setCatalog(service.getCatalog(file));
             saveProperties();
         } else {
             //aborted open file
@@ -434,6 +871,9 @@ public class AstroCameraUI extends javax.swing.JFrame {
     private void startButtonActionPerformed(java.awt.event.ActionEvent e) {
         if ((fw.getPath() != null) && (meteoDbServ.getPath() != null)) {
             fw.setTextArea(logTextArea);
+            if (coordFilePath != null) {
+                fw.setCatalog(service.getCatalog(coordFilePath.toFile()));
+            }
             teleDbServ.setTextArea(logTextArea);
             meteoDbServ.setTextArea(logTextArea);
             meteoDbServ.start();
@@ -452,9 +892,10 @@ public class AstroCameraUI extends javax.swing.JFrame {
      * @param e
      */
     private void stopButtonActionPerformed(java.awt.event.ActionEvent e) {
+        logger.info("Telemetry status:\n" + telemetryEngine.getStatus());
         fw.stop();
-        teleDbServ.setReady(false);
-        meteoDbServ.setReady(false);
+        teleDbServ.stop();
+        meteoDbServ.stop();
     }
 
     /**
@@ -510,7 +951,7 @@ public class AstroCameraUI extends javax.swing.JFrame {
         languageLabel = new javax.swing.JLabel();
         languageComboBox = new javax.swing.JComboBox();
 
-        setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE);
         java.util.ResourceBundle bundle = java.util.ResourceBundle.getBundle("cz/muni/fi/astrocamera/ui/Bundle"); // NOI18N
         setTitle(bundle.getString("AstroCameraUI.title")); // NOI18N
 
@@ -0,0 +1,186 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import cz.muni.fi.astrocamera.entity.AstronomicalObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Online resolution against local stand-ins of SIMBAD and AAVSO, which
+ * answers are cached and which are not.
+ *
+ * @author Karel Auf
+ */
+public class AstroObjectServiceImplTest {
+
+    private static final String SIMBAD_VEGA = "::data::::\n\nVega :  18 36 56.33;+38 47 01.28\n";
+    private static final String SIMBAD_EMPTY = "::data::::\n\n\n";
+    private static final String AAVSO_VEGA = "<chart>\n <ra>18:36:56.336</ra>\n <dec>38:47:01.28</dec>\n</chart>\n";
+
+    private HttpServer server;
+    private final Database simbad = new Database();
+    private final Database aavso = new Database();
+    private AstroObjectServiceImpl service;
+    private ResolverCache cache;
+
+    /**
+     * Stand-in answering with configured code and body
+     */
+    private static class Database implements HttpHandler {
+
+        private volatile int code = 200;
+        private volatile String body = "";
+        private volatile long delay;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private void answer(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/simbad", simbad);
+        server.createContext("/aavso", aavso);
+        server.start();
+        String address = "http://127.0.0.1:" + server.getAddress().getPort();
+        service = new AstroObjectServiceImpl();
+        service.setSimbadUrl(address + "/simbad");
+        service.setAavsoUrl(address + "/aavso");
+        service.setTimeout(2000);
+        cache = new ResolverCache(null, 10, 3600000, 3600000);
+        service.setCache(cache);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private AstronomicalObject resolve(String name) {
+        AstronomicalObject object = new AstronomicalObject();
+        object.setName(name);
+        return service.getObjectOnline(object);
+    }
+
+    @Test
+    public void foundBySimbadIsCached() {
+        simbad.answer(200, SIMBAD_VEGA);
+        AstronomicalObject vega = resolve("Vega");
+        assertEquals("18 36 56.33", vega.getRa());
+        assertEquals("38 47 01.28", vega.getDec());
+        assertEquals(0, aavso.requests.get());
+        assertEquals("18 36 56.33", resolve("vega").getRa());
+        assertEquals(1, simbad.requests.get());
+    }
+
+    @Test
+    public void aavsoAfterSimbadMiss() {
+        simbad.answer(200, SIMBAD_EMPTY);
+        aavso.answer(200, AAVSO_VEGA);
+        AstronomicalObject vega = resolve("Vega");
+        assertEquals("18 36 56.33", vega.getRa());
+        assertEquals("38 47 01.28", vega.getDec());
+        assertEquals(1, aavso.requests.get());
+    }
+
+    @Test
+    public void notFoundIsCached() {
+        simbad.answer(404, "");
+        aavso.answer(400, "");
+        assertNull(resolve("No such star").getRa());
+        assertNull(resolve("no such star").getRa());
+        assertEquals(1, simbad.requests.get());
+        assertEquals(1, aavso.requests.get());
+        ResolverCache.Resolution miss = cache.get("No such star");
+        assertFalse(miss.isFound());
+        assertTrue(cache.isFresh(miss));
+    }
+
+    @Test
+    public void unavailableIsNotCached() {
+        for (int code : new int[]{500, 503, 429, 408}) {
+            simbad.answer(code, "");
+            aavso.answer(code, "");
+            assertNull(resolve("Vega").getRa());
+            assertNull(String.valueOf(code), cache.get("Vega"));
+        }
+        assertEquals(4, simbad.requests.get());
+        //one database not available, the other doesn't know the name
+        simbad.answer(404, "");
+        aavso.answer(503, "");
+        assertNull(resolve("Vega").getRa());
+        assertNull(cache.get("Vega"));
+    }
+
+    @Test
+    public void expiredUsedWhenUnavailable() {
+        cache = new ResolverCache(null, 10, 0, 0);
+        service.setCache(cache);
+        simbad.answer(200, SIMBAD_VEGA);
+        assertEquals("18 36 56.33", resolve("Vega").getRa());
+        //expired at once, so databases are asked again
+        simbad.answer(503, "");
+        aavso.answer(503, "");
+        assertEquals("18 36 56.33", resolve("Vega").getRa());
+        assertEquals(2, simbad.requests.get());
+    }
+
+    @Test
+    public void expiredUsedAfterTimeout() {
+        cache = new ResolverCache(null, 10, 0, 0);
+        service.setCache(cache);
+        simbad.answer(200, SIMBAD_VEGA);
+        resolve("Vega");
+        service.setTimeout(200);
+        simbad.delay = 1000;
+        aavso.delay = 1000;
+        long start = System.currentTimeMillis();
+        assertEquals("38 47 01.28", resolve("Vega").getDec());
+        assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    @Test
+    public void offline() {
+        simbad.answer(200, SIMBAD_VEGA);
+        resolve("Vega");
+        server.stop(0);
+        //fresh entry doesn't need databases
+        assertEquals("18 36 56.33", resolve("Vega").getRa());
+        AstronomicalObject deneb = resolve("Deneb");
+        assertNull(deneb.getRa());
+        assertEquals("Deneb", deneb.getName());
+        assertNull(cache.get("Deneb"));
+    }
+
+}
@@ -0,0 +1,177 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import cz.muni.fi.astrocamera.entity.AstronomicalObject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compiled catalog must answer like the text catalog it was compiled from.
+ *
+ * @author Karel Auf
+ */
+public class CompiledCatalogTest {
+
+    private static final int N = 3000;
+
+    //memory mapping is not supported by some temporary file systems
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File("target"));
+
+    private Path file;
+    private Path target;
+
+    @Before
+    public void setUp() throws IOException {
+        new File("target").mkdirs();
+        file = folder.getRoot().toPath().resolve("coordinates.txt");
+        target = file.resolveSibling(file.getFileName() + CompiledCatalog.SUFFIX);
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(11);
+        for (int i = 0; i < N; i++) {
+            sb.append(String.format(Locale.ENGLISH, "Star %d#%02d %02d %04.1f#%+03d %02d %02d#\n", i,
+                    random.nextInt(24), random.nextInt(60), random.nextDouble() * 59.9,
+                    random.nextInt(179) - 89, random.nextInt(60), random.nextInt(60)));
+        }
+        sb.append("Vega#18 36 56#+38 47 01#\n");
+        sb.append("Barnardova hvězda#17 57 48#+04 41 36#\n");
+        sb.append("Broken#xx#yy#\n");
+        write(sb.toString());
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(file, text.getBytes(Charset.defaultCharset()));
+    }
+
+    private void append(String text) throws IOException {
+        Files.write(file, text.getBytes(Charset.defaultCharset()), StandardOpenOption.APPEND);
+    }
+
+    private Object compiledKey() throws IOException {
+        return Files.readAttributes(target, BasicFileAttributes.class).fileKey();
+    }
+
+    @Test
+    public void sameAnswersAsTextCatalog() throws IOException {
+        CompiledCatalog compiled = new CompiledCatalog(file);
+        CoordinateCatalogImpl text = new CoordinateCatalogImpl(file);
+        text.refresh();
+        AstronomicalObject vega = compiled.find("  VEGA ");
+        assertTrue(Files.exists(target));
+        assertEquals("Vega", vega.getName());
+        assertEquals("18 36 56", vega.getRa());
+        assertEquals("+38 47 01", vega.getDec());
+        if (Charset.defaultCharset().newEncoder().canEncode("ě")) {
+            //pool of compiled file is UTF-8 whatever the charset of text file is
+            assertEquals("Barnardova hvězda", compiled.find("barnardova hvězda").getName());
+        }
+        assertNotNull(compiled.find("broken"));
+        assertNull(compiled.find("Deneb"));
+        assertEquals(text.size(), compiled.size());
+        assertEquals(N + 3, compiled.size());
+        for (String query : new String[]{"star 12", "vegq", "barn", "star 2999"}) {
+            assertEquals(query, text.search(query, 10), compiled.search(query, 10));
+        }
+        Random random = new Random(5);
+        for (int i = 0; i < 200; i++) {
+            double ra = random.nextDouble() * 360;
+            double dec = random.nextDouble() * 180 - 90;
+            AstronomicalObject expected = text.nearest(ra, dec, 7200);
+            AstronomicalObject actual = compiled.nearest(ra, dec, 7200);
+            assertEquals(expected == null ? null : expected.getName(), actual == null ? null : actual.getName());
+        }
+    }
+
+    @Test
+    public void compiledFileIsReused() throws IOException {
+        new CompiledCatalog(file).refresh();
+        Object key = compiledKey();
+        CompiledCatalog reopened = new CompiledCatalog(file);
+        assertEquals("Vega", reopened.find("vega").getName());
+        assertEquals(key, compiledKey());
+    }
+
+    @Test
+    public void appendedLinesAreNotCompiled() throws IOException {
+        CompiledCatalog compiled = new CompiledCatalog(file);
+        compiled.refresh();
+        Object key = compiledKey();
+        //as saved by AstroObjectServiceImpl.saveObjectToFile
+        append("\nNova Star#00 00 01#+00 00 01#");
+        assertEquals("00 00 01", compiled.find("nova star").getRa());
+        assertEquals(Arrays.asList("Nova Star"), compiled.search("nova", 10));
+        assertEquals("Nova Star", compiled.nearest(0, 0, 60).getName());
+        assertEquals(N + 4, compiled.size());
+        //newer coordinates of compiled name
+        append("\nVega#18 36 57#+38 47 02#");
+        assertEquals("18 36 57", compiled.find("vega").getRa());
+        assertEquals(N + 4, compiled.size());
+        assertEquals(key, compiledKey());
+
+        //next start maps the file and reads only appended lines
+        CompiledCatalog reopened = new CompiledCatalog(file);
+        assertEquals("18 36 57", reopened.find("vega").getRa());
+        assertEquals("00 00 01", reopened.find("Nova Star").getRa());
+        assertEquals(key, compiledKey());
+    }
+
+    @Test
+    public void staleHeaderIsCompiledAgain() throws IOException {
+        CompiledCatalog compiled = new CompiledCatalog(file);
+        compiled.refresh();
+        Object key = compiledKey();
+        //rewritten file of the same size
+        byte[] bytes = Files.readAllBytes(file);
+        String text = new String(bytes, Charset.defaultCharset()).replace("Vega#18 36 56", "Vegb#18 36 56");
+        write(text);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+        assertEquals(bytes.length, Files.size(file));
+        CompiledCatalog reopened = new CompiledCatalog(file);
+        assertNull(reopened.find("vega"));
+        assertEquals("Vegb", reopened.find("vegb").getName());
+        assertNotEquals(key, compiledKey());
+        //shorter file
+        write("Deneb#20 41 26#+45 16 49#\n");
+        assertNull(compiled.find("vega"));
+        assertEquals("Deneb", compiled.find("deneb").getName());
+        assertEquals(1, compiled.size());
+    }
+
+    @Test
+    public void largeAppendIsCompiled() throws IOException {
+        CompiledCatalog compiled = new CompiledCatalog(file);
+        compiled.refresh();
+        Object key = compiledKey();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() <= CompiledCatalog.OVERLAY_LIMIT; i++) {
+            sb.append("Added ").append(i).append("#01 02 03#+04 05 06#\n");
+        }
+        append(sb.toString());
+        assertEquals("Added 0", compiled.find("added 0").getName());
+        assertNotEquals(key, compiledKey());
+        //no temporary file left
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder.getRoot().toPath(), "*.tmp")) {
+            assertFalse(stream.iterator().hasNext());
+        }
+    }
+
+}
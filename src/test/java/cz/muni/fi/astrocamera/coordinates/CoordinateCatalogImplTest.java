@@ -0,0 +1,127 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import cz.muni.fi.astrocamera.entity.AstronomicalObject;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reading of coordinate catalog, its refresh after append and parsing of
+ * angles for search by position.
+ *
+ * @author Karel Auf
+ */
+public class CoordinateCatalogImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private CoordinateCatalogImpl catalog;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("coordinates.txt").toPath();
+        catalog = new CoordinateCatalogImpl(file);
+    }
+
+    private void append(String text) throws IOException {
+        //catalog is saved in default charset
+        Files.write(file, text.getBytes(Charset.defaultCharset()), StandardOpenOption.APPEND);
+    }
+
+    private void assertCoordinates(String name, String ra, String dec) throws IOException {
+        AstronomicalObject object = catalog.find(name);
+        assertEquals(ra, object.getRa());
+        assertEquals(dec, object.getDec());
+    }
+
+    @Test
+    public void appendedLinesAreRead() throws IOException {
+        append("Vega#18 36 56#+38 47 01#\n");
+        assertCoordinates("vega", "18 36 56", "+38 47 01");
+        assertNull(catalog.find("Deneb"));
+        append("Deneb#20 41 26#+45 16 49#\n");
+        assertCoordinates("  DENEB ", "20 41 26", "+45 16 49");
+        assertEquals(2, catalog.size());
+    }
+
+    @Test
+    public void lastLineWins() throws IOException {
+        append("Vega#18 36 56#+38 47 01#\nDeneb#20 41 26#+45 16 49#\n");
+        catalog.refresh();
+        append("VEGA#18 37#+38 48#\n");
+        assertCoordinates("Vega", "18 37", "+38 48");
+        assertEquals("VEGA", catalog.find("vega").getName());
+        assertEquals(2, catalog.size());
+    }
+
+    @Test
+    public void lineCompletedByAppend() throws IOException {
+        append("Vega#18 36 56#+38 47 01#\nAltair#19 50");
+        catalog.refresh();
+        assertNull(catalog.find("Altair"));
+        append(" 47#+08 52");
+        assertCoordinates("Altair", "19 50 47", "+08 52");
+        append(" 06#\n");
+        assertCoordinates("Altair", "19 50 47", "+08 52 06");
+        assertEquals(2, catalog.size());
+    }
+
+    @Test
+    public void shorterFileIsReadAgain() throws IOException {
+        append("Vega#18 36 56#+38 47 01#\nDeneb#20 41 26#+45 16 49#\n");
+        catalog.refresh();
+        Files.write(file, "Altair#19 50 47#+08 52 06#\n".getBytes(Charset.defaultCharset()));
+        assertNull(catalog.find("Vega"));
+        assertCoordinates("Altair", "19 50 47", "+08 52 06");
+        assertEquals(1, catalog.size());
+    }
+
+    @Test
+    public void invalidLinesAreSkipped() throws IOException {
+        append("no coordinates\n\n#18 36 56#+38 47 01#\nVega#18 36 56#+38 47 01#\n");
+        catalog.refresh();
+        assertEquals(1, catalog.size());
+    }
+
+    private static double angle(String s) {
+        return CoordinateCatalogImpl.parseAngle(s, 0, s.length());
+    }
+
+    @Test
+    public void sexagesimalAngles() {
+        assertEquals(12 + 34 / 60.0 + 56.7 / 3600, angle("12 34 56.7"), 1e-12);
+        assertEquals(12 + 34 / 60.0 + 56.7 / 3600, angle("12:34:56.7"), 1e-12);
+        assertEquals(-(12 + 34 / 60.0 + 56.7 / 3600), angle(" -12  34 56.7 "), 1e-12);
+        assertEquals(8 + 52.5 / 60, angle("+08 52.5"), 1e-12);
+        assertEquals(45.25, angle("45.25"), 0);
+        //sign applies to whole angle, also when degrees are zero
+        assertEquals(-0.5, angle("-00 30"), 1e-12);
+    }
+
+    @Test
+    public void angleInPartOfLine() {
+        String line = "Vega#18 36 56#+38 47 01#";
+        assertEquals(18 + 36 / 60.0 + 56 / 3600.0, CoordinateCatalogImpl.parseAngle(line, 5, 13), 1e-12);
+        assertEquals(38 + 47 / 60.0 + 1 / 3600.0, CoordinateCatalogImpl.parseAngle(line, 14, 23), 1e-12);
+    }
+
+    @Test
+    public void invalidAngles() {
+        String[] invalid = {"", "  ", "-", "12 34 56 7", "12h34m", "abc", "12..5", "1-2", "12 -34"};
+        for (String s : invalid) {
+            assertTrue(s, Double.isNaN(angle(s)));
+        }
+    }
+
+}
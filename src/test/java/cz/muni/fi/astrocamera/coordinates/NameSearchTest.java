@@ -0,0 +1,121 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Prefix and fuzzy search over sorted names.
+ *
+ * @author Karel Auf
+ */
+public class NameSearchTest {
+
+    private static NameSearch search(String... names) {
+        List<String> keys = new ArrayList<>(Arrays.asList(names));
+        Collections.sort(keys);
+        return new NameSearch(keys);
+    }
+
+    @Test
+    public void prefixFromShortest() {
+        NameSearch search = search("v1234 cyg", "v123 cyg", "vega", "v12 cyg", "deneb");
+        assertEquals(Arrays.asList("v12 cyg", "v123 cyg", "v1234 cyg"), search.search("v12", 10));
+        assertEquals(Arrays.asList("v12 cyg", "v123 cyg"), search.search("v12", 2));
+    }
+
+    @Test
+    public void typos() {
+        NameSearch search = search("betelgeuse", "bellatrix", "deneb", "vega", "altair");
+        //substitution, insertion, deletion and transposition as two edits
+        assertEquals(Arrays.asList("betelgeuse"), search.search("betelgeese", 10));
+        assertEquals(Arrays.asList("betelgeuse"), search.search("beetelgeuse", 10));
+        assertEquals(Arrays.asList("betelgeuse"), search.search("btelgeuse", 10));
+        assertEquals(Arrays.asList("betelgeuse"), search.search("bteelgeuse", 10));
+        assertEquals(Arrays.asList("deneb"), search.search("denab", 10));
+    }
+
+    @Test
+    public void allowedDistanceDependsOnLength() {
+        NameSearch search = search("vega", "deneb", "altair");
+        //no typo allowed in very short query
+        assertEquals(Collections.<String>emptyList(), search.search("vd", 10));
+        //one typo in short query
+        assertEquals(Arrays.asList("vega"), search.search("vegq", 10));
+        assertEquals(Collections.<String>emptyList(), search.search("vqgq", 10));
+        //two typos in longer query
+        assertEquals(Arrays.asList("altair"), search.search("altbjr", 10));
+        assertEquals(Collections.<String>emptyList(), search.search("xltbjr", 10));
+    }
+
+    @Test
+    public void prefixBeforeSimilar() {
+        NameSearch search = search("rr lyr", "rr lyra", "rs lyr", "rt lyr");
+        List<String> result = search.search("rr lyr", 10);
+        assertEquals(Arrays.asList("rr lyr", "rr lyra", "rs lyr", "rt lyr"), result);
+    }
+
+    @Test
+    public void orderedByDistance() {
+        NameSearch search = search("abxxef", "abcxef", "abcdef", "zzzzzz");
+        assertEquals(Arrays.asList("abcdef", "abcxef", "abxxef"), search.search("abcyef", 10));
+    }
+
+    @Test
+    public void emptyInputs() {
+        assertEquals(Collections.<String>emptyList(), search().search("vega", 10));
+        assertEquals(Collections.<String>emptyList(), search("vega").search("", 10));
+        assertEquals(Collections.<String>emptyList(), search("vega").search("vega", 0));
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        //catalog keys are unique
+        Set<String> unique = new TreeSet<>();
+        Random random = new Random(3);
+        while (unique.size() < 3000) {
+            char[] name = new char[3 + random.nextInt(6)];
+            for (int j = 0; j < name.length; j++) {
+                name[j] = (char) ('a' + random.nextInt(4));
+            }
+            unique.add(new String(name));
+        }
+        String[] names = unique.toArray(new String[unique.size()]);
+        NameSearch search = search(names);
+        for (int i = 0; i < 50; i++) {
+            String query = names[random.nextInt(names.length)].substring(1) + "d";
+            int max = query.length() <= 5 ? 1 : 2;
+            List<String> result = search.search(query, Integer.MAX_VALUE);
+            for (String name : names) {
+                boolean expected = name.startsWith(query) || distance(name, query) <= max;
+                assertEquals(query + " " + name, expected, result.contains(name));
+            }
+            assertEquals(result.size(), new HashSet<>(result).size());
+        }
+    }
+
+    private static int distance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+}
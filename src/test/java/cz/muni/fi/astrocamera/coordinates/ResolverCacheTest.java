@@ -0,0 +1,126 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Resolver cache file, its index and compaction on opening.
+ *
+ * @author Karel Auf
+ */
+public class ResolverCacheTest {
+
+    private static final long HOUR = 3600000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private ResolverCache cache;
+
+    @Before
+    public void setUp() {
+        file = folder.getRoot().toPath().resolve("resolver.txt");
+    }
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private ResolverCache open() throws IOException {
+        if (cache != null) {
+            cache.close();
+        }
+        cache = new ResolverCache(file, 10, HOUR, HOUR);
+        cache.open();
+        return cache;
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> lines() throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void compactionKeepsNewestLines() throws IOException {
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            sb.append("Vega#18 36 ").append(i).append("#+38 47 01#").append(i).append("#\n");
+        }
+        sb.append("Deneb#20 41 26#+45 16 49#1000#\n");
+        sb.append("Barnardova hvězda#17 57 48#+04 41 36#2000#\n");
+        sb.append("Ghost###1000#\n");
+        sb.append("Fresh ghost###").append(now).append("#\n");
+        //line cut by crash in the middle and at the end
+        sb.append("Altair#19 50\n");
+        sb.append("Vega#18 36 99#+38");
+        write(sb.toString());
+
+        ResolverCache cache = open();
+        assertEquals(4, lines().size());
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+        assertEquals("18 36 149", cache.get("vega").getRa());
+        //expired found name is kept for use when online databases fail
+        ResolverCache.Resolution deneb = cache.get("DENEB");
+        assertEquals("+45 16 49", deneb.getDec());
+        assertFalse(cache.isFresh(deneb));
+        assertEquals("Barnardova hvězda", cache.get("barnardova  hvězda").getName());
+        assertNull(cache.get("ghost"));
+        ResolverCache.Resolution fresh = cache.get("fresh ghost");
+        assertFalse(fresh.isFound());
+        assertTrue(cache.isFresh(fresh));
+        assertNull(cache.get("altair"));
+    }
+
+    @Test
+    public void fewSupersededLinesAreKept() throws IOException {
+        write("Vega#18 36 56#+38 47 01#1000#\nVega#18 36 57#+38 47 01#2000#\n");
+        ResolverCache cache = open();
+        assertEquals(2, lines().size());
+        assertEquals("18 36 57", cache.get("vega").getRa());
+    }
+
+    @Test
+    public void cutLineIsEnded() throws IOException {
+        write("Vega#18 36 56#+38 47 01#1000#\nDeneb#20 4");
+        open().put("Altair", "19 50 47", "+08 52 06");
+        ResolverCache cache = open();
+        assertEquals(3, lines().size());
+        assertEquals("19 50 47", cache.get("altair").getRa());
+        assertNull(cache.get("deneb"));
+    }
+
+    @Test
+    public void putIsReadAfterReopen() throws IOException {
+        ResolverCache cache = open();
+        cache.put("Vega", "18 36 56", "+38 47 01");
+        cache.put("V1#23 Cyg", null, null);
+        cache.put("vega", "18 36 57", "+38 47 02");
+        cache = open();
+        assertEquals("18 36 57", cache.get("VEGA").getRa());
+        ResolverCache.Resolution missing = cache.get("v1 23 cyg");
+        assertEquals("V1 23 Cyg", missing.getName());
+        assertFalse(missing.isFound());
+        assertNull(cache.get("deneb"));
+    }
+
+}
@@ -0,0 +1,120 @@
+package cz.muni.fi.astrocamera.coordinates;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Compares nearest neighbour search with brute force.
+ *
+ * @author Karel Auf
+ */
+public class SkyIndexTest {
+
+    private static final int N = 20000;
+
+    private final Random random = new Random(7);
+    private final double[] ra = new double[N];
+    private final double[] dec = new double[N];
+
+    public SkyIndexTest() {
+        for (int i = 0; i < N; i++) {
+            ra[i] = random.nextDouble() * 360;
+            //uniform on sphere, so poles are covered too
+            dec[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+        }
+    }
+
+    private int bruteForce(double queryRa, double queryDec, double radius) {
+        int best = -1;
+        double bestDistance = radius;
+        for (int i = 0; i < N; i++) {
+            double distance = SkyIndex.separation(queryRa, queryDec, ra[i], dec[i]);
+            if (distance <= bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static void assertSameDistance(String message, int expected, int actual, double queryRa, double queryDec,
+            double[] ra, double[] dec) {
+        if (expected == actual) {
+            return;
+        }
+        //two positions may be equally near
+        assertEquals(message, SkyIndex.separation(queryRa, queryDec, ra[expected], dec[expected]),
+                SkyIndex.separation(queryRa, queryDec, ra[actual], dec[actual]), 1e-6);
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        SkyIndex index = new SkyIndex(ra, dec, N);
+        for (int i = 0; i < 500; i++) {
+            double queryRa = random.nextDouble() * 360;
+            double queryDec = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            double radius = random.nextBoolean() ? 3600 : 648000;
+            int expected = bruteForce(queryRa, queryDec, radius);
+            int actual = index.nearest(queryRa, queryDec, radius);
+            if (expected < 0) {
+                assertEquals(-1, actual);
+            } else {
+                assertSameDistance(queryRa + " " + queryDec, expected, actual, queryRa, queryDec, ra, dec);
+            }
+        }
+    }
+
+    @Test
+    public void wrapAndPoles() {
+        double[] ra = {359.999, 0.001, 180, 90};
+        double[] dec = {10, -10, 89.9999, -89.9999};
+        SkyIndex index = new SkyIndex(ra, dec, ra.length);
+        assertEquals(0, index.nearest(0.0005, 9.9, 3600));
+        assertEquals(1, index.nearest(359.9999, -10, 3600));
+        //RA doesn't matter at pole
+        assertEquals(2, index.nearest(0, 89.99995, 60));
+        assertEquals(3, index.nearest(270, -90, 60));
+    }
+
+    @Test
+    public void outsideRadius() {
+        SkyIndex index = new SkyIndex(new double[]{10}, new double[]{20}, 1);
+        assertEquals(-1, index.nearest(10, 20.1, 300));
+        assertEquals(0, index.nearest(10, 20.1, 400));
+    }
+
+    @Test
+    public void emptyAndInvalidQuery() {
+        assertEquals(-1, new SkyIndex(new double[0], new double[0], 0).nearest(10, 20, 648000));
+        SkyIndex index = new SkyIndex(ra, dec, N);
+        assertEquals(-1, index.nearest(Double.NaN, 20, 648000));
+        assertEquals(-1, index.nearest(10, Double.NaN, 648000));
+    }
+
+    @Test
+    public void duplicatePositions() {
+        double[] ra = new double[100];
+        double[] dec = new double[100];
+        for (int i = 0; i < ra.length; i++) {
+            ra[i] = 45;
+            dec[i] = i < 50 ? 30 : -30;
+        }
+        SkyIndex index = new SkyIndex(ra, dec, ra.length);
+        assertEquals(30, dec[index.nearest(45, 29, 7200)], 0);
+        assertEquals(-30, dec[index.nearest(45, -29, 7200)], 0);
+    }
+
+    @Test
+    public void indexFromBuffers() {
+        SkyIndex index = new SkyIndex(ra, dec, N);
+        SkyIndex copy = new SkyIndex(index.getVectors(), index.getIds());
+        assertEquals(index.size(), copy.size());
+        for (int i = 0; i < 100; i++) {
+            double queryRa = random.nextDouble() * 360;
+            double queryDec = random.nextDouble() * 180 - 90;
+            assertEquals(index.nearest(queryRa, queryDec, 648000), copy.nearest(queryRa, queryDec, 648000));
+        }
+    }
+
+}
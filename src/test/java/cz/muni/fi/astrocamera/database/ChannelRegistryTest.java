@@ -0,0 +1,106 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Parsing of channel definitions, their order and rejected lines.
+ *
+ * @author Karel Auf
+ */
+public class ChannelRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ChannelRegistry load(String text) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, text.getBytes(StandardCharsets.ISO_8859_1));
+        return ChannelRegistry.load(file);
+    }
+
+    private static List<String> keywords(List<ChannelDefinition> channels) {
+        List<String> keywords = new ArrayList<>();
+        for (ChannelDefinition channel : channels) {
+            keywords.add(channel.getKeyword());
+        }
+        return keywords;
+    }
+
+    private void assertInvalid(String text) throws IOException {
+        try {
+            load(text);
+            fail("Accepted " + text);
+        } catch (IllegalArgumentException ex) {
+            //expected
+        }
+    }
+
+    @Test
+    public void parsedInOrder() throws IOException {
+        ChannelRegistry registry = load("# comment\n"
+                + "WIND_SP = meteo, METEO_WIND_SPEED, VALUE, 1, ms-1, wind speed, gusts included\n"
+                + "RA1=tele,TELE_RA,POSITION,6,,right ascension\n"
+                + "DOMEAZ=tele, DOME, AZIMUTH, 0, deg, dome azimuth\n"
+                + "WIND_SP.stats= WIND\n");
+        assertEquals(Arrays.asList("WIND_SP", "RA1", "DOMEAZ"), keywords(registry.getChannels()));
+        assertEquals(Arrays.asList("RA1", "DOMEAZ"), keywords(registry.getChannels(ChannelRegistry.TELE)));
+
+        ChannelDefinition wind = registry.get("WIND_SP");
+        assertEquals(ChannelRegistry.METEO, wind.getDatabase());
+        assertEquals("METEO_WIND_SPEED", wind.getTable());
+        assertEquals("VALUE", wind.getColumn());
+        assertEquals(1, wind.getPrecision());
+        //comment may contain comma
+        assertEquals("wind speed, gusts included in [ms-1]", wind.getHeaderComment());
+        assertEquals("max. wind speed, gusts included in [ms-1]", wind.getHeaderComment("max. "));
+        assertEquals("WIND", wind.getStatistics());
+
+        ChannelDefinition ra = registry.get("RA1");
+        assertEquals("POSITION", ra.getColumn());
+        assertEquals("right ascension", ra.getHeaderComment());
+        assertNull(ra.getStatistics());
+        assertNull(registry.get("PRES_OBS"));
+    }
+
+    @Test
+    public void defaultChannels() {
+        ChannelRegistry registry = ChannelRegistry.loadDefault();
+        assertEquals("PRES_OBS", registry.getChannels().get(0).getKeyword());
+        assertEquals(6, registry.getChannels(ChannelRegistry.METEO).size());
+        assertEquals(Arrays.asList(TelemetryHistory.RA, TelemetryHistory.DEC),
+                keywords(registry.getChannels(ChannelRegistry.TELE)));
+        assertEquals("TIN", registry.get("TEMP_IN").getStatistics());
+    }
+
+    @Test
+    public void invalidLinesRejected() throws IOException {
+        assertInvalid("TEMP=meteo, TEMPERATURE, VALUE, 1, deg C\n");
+        assertInvalid("TEMPERATURE=meteo, TEMPERATURE, VALUE, 1, deg C, too long keyword\n");
+        assertInvalid("temp=meteo, TEMPERATURE, VALUE, 1, deg C, lower case keyword\n");
+        assertInvalid("TEMP=dome, TEMPERATURE, VALUE, 1, deg C, unknown database\n");
+        assertInvalid("TEMP=meteo, TEMPERATURE; drop table X, VALUE, 1, deg C, injected table\n");
+        assertInvalid("TEMP=meteo, TEMPERATURE, VALUE, one, deg C, precision not a number\n");
+        assertInvalid("TEMP=meteo, TEMPERATURE, VALUE, 10, deg C, precision too high\n");
+        assertInvalid("TEMP=meteo, TEMPERATURE, VALUE, 1, deg C, temperature\nTEMP.stats=TEMPS\n");
+        assertInvalid("HUMIDITY.stats=HUM\n");
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        assertTrue(load("# no channels\n").getChannels().isEmpty());
+    }
+
+}
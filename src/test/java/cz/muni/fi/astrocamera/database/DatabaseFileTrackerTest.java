@@ -0,0 +1,104 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Rotation of database files, other files in the folder are not candidates.
+ *
+ * @author Karel Auf
+ */
+public class DatabaseFileTrackerTest {
+
+    private static final long WAIT = 5000; //ms, delivery of folder events
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DatabaseFileTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+    }
+
+    @After
+    public void tearDown() {
+        if (tracker != null) {
+            tracker.close();
+        }
+    }
+
+    private File database(String name, String... statements) throws SQLException {
+        File file = new File(folder.getRoot(), name);
+        execute(file, statements);
+        return file;
+    }
+
+    private static void execute(File file, String... statements) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+                Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.executeUpdate(sql);
+            }
+        }
+    }
+
+    /**
+     * @return active file once it is the expected one or after timeout
+     */
+    private File awaitActive(File expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + WAIT;
+        File active = tracker.getActiveFile();
+        while (!expected.equals(active) && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+            active = tracker.getActiveFile();
+        }
+        return active;
+    }
+
+    @Test
+    public void rotationWaitsForRows() throws Exception {
+        File first = database("2018-02-03.db", "create table tele (ra real)", "insert into tele values (1)");
+        tracker = new DatabaseFileTracker(folder.getRoot().toPath(), Arrays.asList("TELE"));
+        assertEquals(first, tracker.getActiveFile());
+
+        //files which are not databases never become active or pending
+        Files.write(folder.getRoot().toPath().resolve("notes.txt"), "no database".getBytes(StandardCharsets.US_ASCII));
+        Files.write(folder.getRoot().toPath().resolve("empty.db"), new byte[0]);
+        Thread.sleep(200);
+        assertEquals(first, tracker.getActiveFile());
+
+        File second = database("2018-02-04.db", "create table tele (ra real)");
+        Thread.sleep(200);
+        assertEquals(first, tracker.getActiveFile());
+        execute(second, "insert into tele values (2)");
+        assertEquals(second, awaitActive(second));
+    }
+
+    @Test
+    public void lastModifiedDatabaseAtStart() throws Exception {
+        File older = database("a.db", "create table tele (ra real)");
+        older.setLastModified(System.currentTimeMillis() - 60000);
+        File newer = database("b.db", "create table tele (ra real)");
+        newer.setLastModified(System.currentTimeMillis() - 30000);
+        //newest file in folder is not a database
+        Files.write(folder.getRoot().toPath().resolve("c.db"), "not a database".getBytes(StandardCharsets.US_ASCII));
+        tracker = new DatabaseFileTracker(folder.getRoot().toPath());
+        assertEquals(newer, tracker.getActiveFile());
+    }
+
+}
@@ -0,0 +1,87 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Changes of database file and its auxiliary files are reported, other files
+ * in the folder are not.
+ *
+ * @author Karel Auf
+ */
+public class DatabaseWatcherTest {
+
+    private static final long WAIT = 5000; //ms, delivery of folder events
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private Path database;
+    private DatabaseWatcher watcher;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.getRoot().toPath();
+        database = Files.createFile(dir.resolve("meteo.db"));
+        Files.createFile(dir.resolve("meteo.db-wal"));
+        Files.createFile(dir.resolve("notes.txt"));
+        watcher = new DatabaseWatcher(dir);
+    }
+
+    @After
+    public void tearDown() {
+        watcher.close();
+    }
+
+    private static void write(Path file) throws IOException {
+        Files.write(file, "x".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return true once change is reported or false after timeout
+     */
+    private boolean awaitChange() throws InterruptedException {
+        long end = System.currentTimeMillis() + WAIT;
+        while (System.currentTimeMillis() < end) {
+            if (watcher.pollChange(database.toString())) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    @Test
+    public void changesOfDatabase() throws Exception {
+        assertFalse(watcher.pollChange(database.toString()));
+        write(database);
+        assertTrue(awaitChange());
+        //change is reported once
+        Thread.sleep(100);
+        assertFalse(watcher.pollChange(database.toString()));
+        write(dir.resolve("meteo.db-wal"));
+        assertTrue(awaitChange());
+    }
+
+    @Test
+    public void otherFilesIgnored() throws Exception {
+        write(dir.resolve("notes.txt"));
+        Thread.sleep(300);
+        assertFalse(watcher.pollChange(database.toString()));
+        //new file may be rotated database
+        Files.createFile(dir.resolve("meteo-2.db"));
+        assertTrue(awaitChange());
+    }
+
+}
@@ -0,0 +1,104 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Cached statements of long-lived read-only connection.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryConnectionTest {
+
+    private static final String COUNT = "select count(*) from TELE";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TelemetryConnection db = new TelemetryConnection();
+    private String first;
+    private String second;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        first = database("first.db", 2);
+        second = database("second.db", 3);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private String database(String name, int rows) throws SQLException {
+        String file = new File(folder.getRoot(), name).getAbsolutePath();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table TELE (TIME real, VALUE real)");
+            for (int i = 0; i < rows; i++) {
+                statement.executeUpdate("insert into TELE values (" + i + ", " + i + ")");
+            }
+        }
+        return file;
+    }
+
+    private static int count(PreparedStatement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    @Test
+    public void statementCachedForFile() throws SQLException {
+        PreparedStatement statement = db.prepare(first, COUNT);
+        assertSame(statement, db.prepare(first, COUNT));
+        assertEquals(2, count(statement));
+        assertEquals(first, db.getFile());
+        //rotated database file gets new connection
+        PreparedStatement rotated = db.prepare(second, COUNT);
+        assertNotSame(statement, rotated);
+        assertEquals(3, count(rotated));
+        assertEquals(second, db.getFile());
+    }
+
+    @Test
+    public void reopenedAfterClose() throws SQLException {
+        PreparedStatement statement = db.prepare(first, COUNT);
+        db.close();
+        assertNull(db.getFile());
+        PreparedStatement reopened = db.prepare(first, COUNT);
+        assertNotSame(statement, reopened);
+        assertEquals(2, count(reopened));
+    }
+
+    @Test
+    public void readOnly() throws SQLException {
+        db.execute(first, COUNT);
+        try {
+            db.execute(first, "insert into TELE values (5, 5)");
+            fail("Telemetry connection must not write");
+        } catch (SQLException ex) {
+            assertFalse(String.valueOf(ex.getMessage()).isEmpty());
+        }
+        assertEquals(2, count(db.prepare(first, COUNT)));
+    }
+
+}
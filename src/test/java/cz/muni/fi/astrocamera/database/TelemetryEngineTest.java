@@ -0,0 +1,178 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Read intervals, retries and registration of databases in the engine, read
+ * intervals driven by acquisition activity.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryEngineTest {
+
+    private static final long WAIT = 2000; //ms
+
+    private final TelemetryEngine engine = new TelemetryEngine(1);
+
+    /**
+     * Database which is always readable
+     */
+    private static class Database implements DatabaseService {
+
+        private final boolean watched;
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger opens = new AtomicInteger();
+        private final AtomicInteger closes = new AtomicInteger();
+        private volatile int failures; //reads which fail before the first success
+        private volatile boolean changed;
+
+        private Database(boolean watched) {
+            this.watched = watched;
+        }
+
+        @Override
+        public String getName() {
+            return watched ? "watched" : "polled";
+        }
+
+        @Override
+        public boolean open() {
+            opens.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean isWatched() {
+            return watched;
+        }
+
+        @Override
+        public boolean pollChange() {
+            boolean result = changed;
+            changed = false;
+            return result;
+        }
+
+        @Override
+        public int read() throws SQLException {
+            if (failures > 0) {
+                failures--;
+                throw new SQLException("database is locked");
+            }
+            reads.incrementAndGet();
+            return 1;
+        }
+
+        @Override
+        public void failed(SQLException ex, int consecutive) {
+        }
+
+        @Override
+        public void close() {
+            closes.incrementAndGet();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    private static void await(AtomicInteger counter, int value) throws InterruptedException {
+        long end = System.currentTimeMillis() + WAIT;
+        while (counter.get() < value && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void frameAfterIdleReadsAtOnce() throws InterruptedException {
+        //polled every minute when idle or normal
+        AcquisitionActivity activity = new AcquisitionActivity(1000, 1000, 60);
+        engine.setActivity(activity);
+        Thread.sleep(1100);
+        Database polled = new Database(false);
+        Database watched = new Database(true);
+        engine.register(polled, new TelemetryPolicy(60000, 50, 60000, 600000, 1000, 1000, 100, 600000));
+        engine.register(watched, new TelemetryPolicy(60000, 50, 60000, 600000, 1000, 1000, 100, 600000));
+        await(polled.reads, 1);
+        await(watched.reads, 1);
+        Thread.sleep(100);
+        assertEquals(AcquisitionActivity.State.IDLE, engine.getTask(polled).getState());
+        assertEquals(1, polled.reads.get());
+        //change of watched database while idle is not read before idle interval
+        watched.changed = true;
+        Thread.sleep(200);
+        assertEquals(1, watched.reads.get());
+
+        long start = System.currentTimeMillis();
+        activity.frameArrived();
+        await(polled.reads, 2);
+        await(watched.reads, 2);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(2, polled.reads.get());
+        assertEquals(AcquisitionActivity.State.ACQUIRING, engine.getTask(polled).getState());
+        assertEquals(1, engine.getTask(polled).getWakeUps());
+
+        //next frames don't wake, databases are read in active interval
+        activity.frameArrived();
+        assertEquals(1, engine.getTask(polled).getWakeUps());
+        await(polled.reads, 4);
+        assertTrue(polled.reads.get() >= 4);
+    }
+
+    @Test
+    public void failedReadsRetried() throws InterruptedException {
+        Database polled = new Database(false);
+        polled.failures = 3;
+        //retries after 20, 40 and 80 ms
+        engine.register(polled, new TelemetryPolicy(60000, 50, 60000, 600000, 20, 1000));
+        long start = System.currentTimeMillis();
+        await(polled.reads, 1);
+        assertEquals(1, polled.reads.get());
+        assertTrue(System.currentTimeMillis() - start >= 140);
+        TelemetryEngine.Task task = engine.getTask(polled);
+        assertEquals(3, task.getErrors());
+        assertEquals(1, task.getReads());
+        assertEquals(1, task.getRows());
+    }
+
+    @Test
+    public void registeredAgainAfterStop() throws InterruptedException {
+        Database polled = new Database(false);
+        TelemetryPolicy policy = new TelemetryPolicy(20, 50, 60000, 600000, 1000, 1000);
+        assertTrue(engine.register(polled, policy));
+        //registering running database doesn't start second reading
+        assertTrue(engine.register(polled, policy));
+        await(polled.reads, 3);
+        engine.unregister(polled);
+        TelemetryEngine.Task stopped = engine.getTask(polled);
+        assertTrue(stopped.isCancelled());
+        assertTrue(engine.register(polled, policy));
+        int reads = polled.reads.get();
+        await(polled.reads, reads + 3);
+        assertTrue(stopped.isClosed());
+        assertEquals(1, polled.closes.get());
+        assertEquals(2, polled.opens.get());
+
+        engine.shutdown();
+        assertFalse(engine.register(new Database(false), policy));
+    }
+
+    @Test
+    public void retryDelayDoubles() {
+        TelemetryPolicy policy = new TelemetryPolicy(1000, 50, 5000, 10000, 100, 1000);
+        assertEquals(100, policy.retryDelay(1));
+        assertEquals(200, policy.retryDelay(2));
+        assertEquals(800, policy.retryDelay(4));
+        assertEquals(1000, policy.retryDelay(5));
+        assertEquals(1000, policy.retryDelay(Integer.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,117 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Journal segments survive reopening and are deleted whole when they expire.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryJournalTest {
+
+    private static final long HOUR = 3600000;
+
+    //memory mapping is not supported by some temporary file systems
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File("target"));
+
+    private Path dir;
+    private TelemetryJournal journal;
+
+    @Before
+    public void setUp() {
+        new File("target").mkdirs();
+        dir = folder.getRoot().toPath().resolve("journal");
+    }
+
+    @After
+    public void tearDown() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private TelemetryJournal open() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        journal = new TelemetryJournal(dir, 2, HOUR);
+        journal.open();
+        return journal;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    @Test
+    public void samplesReplayedAfterReopen() throws IOException {
+        long now = System.currentTimeMillis();
+        open();
+        for (int i = 0; i < 5; i++) {
+            journal.append("TEMP", now - 5000 + i * 1000, i);
+        }
+        journal.append("DOMEAZ", now, 180);
+        assertEquals(3, segments().size());
+        open();
+        //continues in half full segment
+        journal.append("TEMP", now + 1000, 5);
+        assertEquals(4, segments().size());
+
+        TelemetryHistory history = new TelemetryHistory(100);
+        assertEquals(7, journal.replay(history));
+        assertEquals(6, history.getSeries("TEMP").size());
+        assertEquals(5, history.getSeries("TEMP").getLastValue(), 0);
+        assertEquals(180, history.getSeries("DOMEAZ").getLastValue(), 0);
+    }
+
+    @Test
+    public void expiredSegmentsDeleted() throws IOException {
+        long now = System.currentTimeMillis();
+        open();
+        //the first segment holds expired and fresh sample
+        journal.append("TEMP", now - 2 * HOUR, 1);
+        journal.append("TEMP", now - 1000, 2);
+        journal.append("TEMP", now - 3 * HOUR, 3);
+        journal.append("TEMP", now - 2 * HOUR, 4);
+        journal.append("TEMP", now, 5);
+        journal.close();
+        List<Path> segments = segments();
+        assertEquals(3, segments.size());
+        Files.setLastModifiedTime(segments.get(1), FileTime.fromMillis(now - 2 * HOUR));
+
+        open();
+        assertEquals(Arrays.asList(segments.get(0), segments.get(2)), segments());
+        //expired sample of kept segment is not replayed
+        TelemetryHistory history = new TelemetryHistory(100);
+        assertEquals(2, journal.replay(history));
+        long[] times = new long[2];
+        double[] values = new double[2];
+        history.getSeries("TEMP").copy(Long.MIN_VALUE, Long.MAX_VALUE, times, values);
+        assertEquals(2, values[0], 0);
+        assertEquals(5, values[1], 0);
+    }
+
+}
@@ -0,0 +1,162 @@
+package cz.muni.fi.astrocamera.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Query strategy detected from schema of tables and incremental reading by
+ * each strategy.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String file;
+    private TelemetryChannel primaryKey;
+    private TelemetryChannel indexed;
+    private TelemetryChannel plain;
+    private TelemetryChannel withoutRowid;
+    private TelemetryChannel missing;
+    private TelemetryReader reader;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        file = new File(folder.getRoot(), "telemetry.db").getAbsolutePath();
+        execute("create table PK (TIME integer primary key, VALUE real)",
+                "create table INDEXED (TIME real, VALUE real)",
+                "create index INDEXED_TIME on INDEXED (TIME)",
+                "create table PLAIN (TIME real, VALUE real)",
+                "create table NOROWID (ID integer primary key, TIME real, VALUE real) without rowid");
+        insert(1, 3);
+        primaryKey = new TelemetryChannel("PK", "PK");
+        indexed = new TelemetryChannel("INDEXED", "INDEXED");
+        plain = new TelemetryChannel("PLAIN", "PLAIN");
+        withoutRowid = new TelemetryChannel("NOROWID", "NOROWID");
+        missing = new TelemetryChannel("MISSING", "MISSING");
+        reader = new TelemetryReader(primaryKey, indexed, plain, withoutRowid, missing);
+        reader.setHistory(new TelemetryHistory(100));
+    }
+
+    @After
+    public void tearDown() {
+        reader.close();
+    }
+
+    private void execute(String... statements) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+                Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.executeUpdate(sql);
+            }
+        }
+    }
+
+    /**
+     * Adds rows with TIME from first to last to all tables
+     */
+    private void insert(int first, int last) throws SQLException {
+        String[] statements = new String[4 * (last - first + 1)];
+        int i = 0;
+        for (int time = first; time <= last; time++) {
+            for (String table : new String[]{"PK", "INDEXED", "PLAIN"}) {
+                statements[i++] = "insert into " + table + " (TIME, VALUE) values (" + time + ", " + time * 10 + ")";
+            }
+            statements[i++] = "insert into NOROWID values (" + time + ", " + time + ", " + time * 10 + ")";
+        }
+        execute(statements);
+    }
+
+    @Test
+    public void strategyDetected() throws SQLException {
+        assertEquals(12, reader.read(file));
+        assertEquals(QueryStrategy.INDEX, primaryKey.getStrategy());
+        assertEquals(QueryStrategy.INDEX, indexed.getStrategy());
+        assertEquals(QueryStrategy.ROWID, plain.getStrategy());
+        assertEquals(QueryStrategy.SCAN, withoutRowid.getStrategy());
+        assertTrue(missing.isMissing());
+        assertNull(missing.getStrategy());
+        String status = reader.getQueryStatus();
+        assertTrue(status, status.contains("PLAIN.VALUE: rowid, 1 queries"));
+        assertTrue(status, status.contains("NOROWID.VALUE: scan"));
+        assertTrue(status, status.contains("MISSING.VALUE: missing"));
+    }
+
+    @Test
+    public void onlyNewRowsRead() throws SQLException {
+        reader.read(file);
+        assertEquals(0, reader.read(file));
+        insert(4, 5);
+        assertEquals(8, reader.read(file));
+        for (TelemetryChannel channel : new TelemetryChannel[]{primaryKey, indexed, plain, withoutRowid}) {
+            assertEquals(channel.getTable(), 5, channel.getHighWaterMark(), 0);
+            assertEquals(channel.getTable(), 50, channel.getValue(), 0);
+            //backfill and two reads of new rows
+            assertEquals(channel.getTable(), 3, channel.getQueries());
+        }
+        assertEquals(0, missing.getQueries());
+        assertEquals(5, plain.getRowid());
+        assertEquals(4, reader.snapshot().size());
+    }
+
+    @Test
+    public void strategyDetectedAgainInNewFile() throws Exception {
+        reader.read(file);
+        String first = file;
+        file = new File(folder.getRoot(), "rotated.db").getAbsolutePath();
+        execute("create table PK (TIME real, VALUE real)",
+                "create table PLAIN (TIME real, VALUE real)",
+                "create index PLAIN_TIME on PLAIN (TIME)");
+        reader.read(file);
+        assertEquals(QueryStrategy.ROWID, primaryKey.getStrategy());
+        assertEquals(QueryStrategy.INDEX, plain.getStrategy());
+        assertTrue(indexed.isMissing());
+        assertFalse(first.equals(file));
+    }
+
+    @Test
+    public void backfillLimitedByHistory() throws SQLException {
+        insert(4, 10);
+        reader.setHistory(new TelemetryHistory(4));
+        //newest 4 rows of every table
+        assertEquals(16, reader.read(file));
+        double[] values = new double[4];
+        assertEquals(4, reader.getHistory().getSeries("PLAIN").copy(Long.MIN_VALUE, Long.MAX_VALUE, new long[4], values));
+        assertEquals(70, values[0], 0);
+        assertEquals(100, values[3], 0);
+        assertEquals(10, plain.getHighWaterMark(), 0);
+        assertEquals(10, plain.getRowid());
+    }
+
+    @Test
+    public void highWaterMarkKeptAfterRotation() throws Exception {
+        reader.read(file);
+        file = new File(folder.getRoot(), "rotated.db").getAbsolutePath();
+        execute("create table PLAIN (TIME real, VALUE real)");
+        //the first row of new file was already read from the old one
+        execute("insert into PLAIN values (3, 30)", "insert into PLAIN values (4, 40)");
+        assertEquals(1, reader.read(file));
+        assertEquals(4, plain.getHighWaterMark(), 0);
+        assertEquals(2, plain.getRowid());
+        //row with older TIME appended late is not read again
+        execute("insert into PLAIN values (2, 20)", "insert into PLAIN values (5, 50)");
+        assertEquals(1, reader.read(file));
+        assertEquals(50, plain.getValue(), 0);
+    }
+
+}
@@ -0,0 +1,132 @@
+package cz.muni.fi.astrocamera.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Ring buffer of telemetry samples, lookup across the wrap of the buffer.
+ *
+ * @author Karel Auf
+ */
+public class TelemetrySeriesTest {
+
+    private static TelemetrySeries series(int capacity, int samples) {
+        TelemetrySeries series = new TelemetrySeries(capacity, false);
+        for (int i = 0; i < samples; i++) {
+            series.add(i * 1000L, i);
+        }
+        return series;
+    }
+
+    @Test
+    public void oldestSampleOverwritten() {
+        TelemetrySeries series = series(5, 12);
+        assertEquals(5, series.size());
+        assertEquals(11000, series.getLastTime());
+        assertEquals(11, series.getLastValue(), 0);
+        long[] times = new long[10];
+        double[] values = new double[10];
+        assertEquals(5, series.copy(0, Long.MAX_VALUE, times, values));
+        for (int i = 0; i < 5; i++) {
+            assertEquals((7 + i) * 1000L, times[i]);
+            assertEquals(7 + i, values[i], 0);
+        }
+    }
+
+    @Test
+    public void outOfOrderSamplesIgnored() {
+        TelemetrySeries series = series(5, 3);
+        assertFalse(series.add(2000, 10));
+        assertFalse(series.add(1500, 10));
+        assertFalse(series.add(5000, Double.NaN));
+        assertTrue(series.add(2001, 10));
+        assertEquals(4, series.size());
+        assertEquals(10, series.getLastValue(), 0);
+    }
+
+    @Test
+    public void interpolationAcrossWrap() {
+        //every capacity makes the buffer wrap at different place
+        for (int capacity = 2; capacity <= 7; capacity++) {
+            TelemetrySeries series = series(capacity, 10);
+            long first = (10 - capacity) * 1000L;
+            for (long time = first; time <= 9000; time += 250) {
+                assertEquals(capacity + " " + time, time / 1000.0, series.valueAt(time, 1000), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void nearestSampleOutsideSeries() {
+        TelemetrySeries series = series(4, 10);
+        assertEquals(6, series.valueAt(5500, 500), 0);
+        assertTrue(Double.isNaN(series.valueAt(5499, 500)));
+        assertEquals(9, series.valueAt(9500, 500), 0);
+        assertTrue(Double.isNaN(series.valueAt(9501, 500)));
+        assertTrue(Double.isNaN(new TelemetrySeries(4, false).valueAt(0, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void gapBetweenSamples() {
+        TelemetrySeries series = new TelemetrySeries(10, false);
+        series.add(0, 0);
+        series.add(1000, 10);
+        //database not available for an hour
+        series.add(3601000, 20);
+        series.add(3602000, 30);
+        assertEquals(5, series.valueAt(500, 60000), 1e-9);
+        assertEquals(25, series.valueAt(3601500, 60000), 1e-9);
+        //near the edge of gap the nearest sample is used, nothing is interpolated over the gap
+        assertEquals(10, series.valueAt(61000, 60000), 0);
+        assertEquals(20, series.valueAt(3541000, 60000), 0);
+        assertTrue(Double.isNaN(series.valueAt(61001, 60000)));
+        assertTrue(Double.isNaN(series.valueAt(1801000, 60000)));
+        assertTrue(Double.isNaN(series.valueAt(3540999, 60000)));
+        //gap up to twice maxGap is interpolated
+        series = new TelemetrySeries(10, false);
+        series.add(0, 10);
+        series.add(2000, 11);
+        assertEquals(10.5, series.valueAt(1000, 1000), 1e-9);
+        assertEquals(10, series.valueAt(600, 999), 0);
+    }
+
+    @Test
+    public void angleOverZero() {
+        TelemetrySeries series = new TelemetrySeries(3, true);
+        series.add(0, 350);
+        series.add(1000, 10);
+        series.add(2000, 350);
+        series.add(3000, 10);
+        assertEquals(0, series.valueAt(1500, 1000), 1e-9);
+        assertEquals(355, series.valueAt(2250, 1000), 1e-9);
+        assertEquals(5, series.valueAt(2750, 1000), 1e-9);
+    }
+
+    @Test
+    public void intervals() {
+        TelemetrySeries series = series(6, 10);
+        assertEquals(6, series.count(Long.MIN_VALUE, Long.MAX_VALUE - 1));
+        assertEquals(3, series.count(5000, 7000));
+        assertEquals(2, series.count(4500, 6999));
+        assertEquals(0, series.count(0, 3999));
+        assertEquals(0, series.count(7001, 7999));
+        TelemetryStatistics statistics = new TelemetryStatistics();
+        assertEquals(3, series.statistics(3500, 6000, statistics));
+        assertEquals(3, statistics.getCount());
+        assertEquals(4, statistics.getMin(), 0);
+        assertEquals(6, statistics.getMax(), 0);
+        assertEquals(5, statistics.getMean(), 1e-9);
+        long[] times = new long[2];
+        double[] values = new double[2];
+        assertEquals(2, series.copy(5000, 9000, times, values));
+        assertEquals(6000, times[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityTooSmall() {
+        new TelemetrySeries(1, false);
+    }
+
+}
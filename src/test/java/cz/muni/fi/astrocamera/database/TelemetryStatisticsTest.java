@@ -0,0 +1,75 @@
+package cz.muni.fi.astrocamera.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * One-pass statistics of samples over exposure.
+ *
+ * @author Karel Auf
+ */
+public class TelemetryStatisticsTest {
+
+    private static TelemetryStatistics of(double... values) {
+        TelemetryStatistics statistics = new TelemetryStatistics();
+        for (double value : values) {
+            statistics.add(value);
+        }
+        return statistics;
+    }
+
+    @Test
+    public void knownValues() {
+        TelemetryStatistics statistics = of(2, 4, 4, 4, 5, 5, 7, 9);
+        assertEquals(8, statistics.getCount());
+        assertEquals(2, statistics.getMin(), 0);
+        assertEquals(9, statistics.getMax(), 0);
+        assertEquals(5, statistics.getMean(), 1e-12);
+        //sample standard deviation, divided by n - 1
+        assertEquals(Math.sqrt(32.0 / 7), statistics.getStdDev(), 1e-12);
+    }
+
+    @Test
+    public void noneAndSingleSample() {
+        TelemetryStatistics statistics = new TelemetryStatistics();
+        assertEquals(0, statistics.getCount());
+        assertTrue(Double.isNaN(statistics.getMin()));
+        assertTrue(Double.isNaN(statistics.getMax()));
+        assertTrue(Double.isNaN(statistics.getMean()));
+        assertTrue(Double.isNaN(statistics.getStdDev()));
+        statistics.add(-3.5);
+        assertEquals(-3.5, statistics.getMin(), 0);
+        assertEquals(-3.5, statistics.getMax(), 0);
+        assertEquals(0, statistics.getStdDev(), 0);
+    }
+
+    @Test
+    public void reused() {
+        TelemetryStatistics statistics = of(100, 200);
+        statistics.reset();
+        assertEquals(0, statistics.getCount());
+        statistics.add(-1);
+        statistics.add(1);
+        assertEquals(-1, statistics.getMin(), 0);
+        assertEquals(1, statistics.getMax(), 0);
+        assertEquals(0, statistics.getMean(), 0);
+        assertEquals(Math.sqrt(2), statistics.getStdDev(), 1e-12);
+    }
+
+    @Test
+    public void largeOffset() {
+        //sum of squares would lose all digits of variance here
+        double offset = 1e9;
+        TelemetryStatistics statistics = new TelemetryStatistics();
+        for (int i = 0; i < 100000; i++) {
+            for (double value : new double[]{4, 7, 13, 16}) {
+                statistics.add(offset + value);
+            }
+        }
+        assertEquals(offset + 10, statistics.getMean(), 1e-6);
+        //variance of population is 22.5, sample variance is slightly larger
+        assertEquals(Math.sqrt(22.5 * 400000 / 399999), statistics.getStdDev(), 1e-6);
+    }
+
+}
@@ -0,0 +1,76 @@
+package cz.muni.fi.astrocamera.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Snapshot doesn't change after it is published and readers always see
+ * values of one cycle.
+ *
+ * @author Karel Auf
+ */
+public class TelemetrySnapshotTest {
+
+    private static final String[] KEYS = {"TEMP_IN", "TEMP_OUT", "PRES_OBS"};
+
+    private static TelemetrySnapshot cycle(double value) {
+        return new TelemetrySnapshot(KEYS, new double[]{value, value, value}, value);
+    }
+
+    @Test
+    public void copiesArrays() {
+        String[] keys = {"TEMP_IN", "PRES_OBS"};
+        double[] values = {12.5, 1013.2};
+        TelemetrySnapshot snapshot = new TelemetrySnapshot(keys, values, 2458000.5);
+        keys[0] = "HUMIDITY";
+        values[1] = 0;
+        assertEquals(12.5, snapshot.get("TEMP_IN"), 0);
+        assertEquals(1013.2, snapshot.get("PRES_OBS"), 0);
+        assertTrue(Double.isNaN(snapshot.get("HUMIDITY")));
+        assertEquals(2, snapshot.size());
+        assertEquals("PRES_OBS", snapshot.getKey(1));
+        assertEquals(2458000.5, snapshot.getTime(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keysWithoutValues() {
+        new TelemetrySnapshot(KEYS, new double[2], 0);
+    }
+
+    @Test
+    public void readersSeeOneCycle() throws InterruptedException {
+        final MeteoData data = new MeteoData();
+        assertNull(data.getSnapshot());
+        final int cycles = 100000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= cycles; i++) {
+                    data.publish(cycle(i));
+                }
+            }
+        });
+        writer.start();
+        boolean mixed = false;
+        double last = 0;
+        while (writer.isAlive() || last < cycles) {
+            TelemetrySnapshot snapshot = data.getSnapshot();
+            if (snapshot == null) {
+                continue;
+            }
+            double time = snapshot.getTime();
+            for (int i = 0; i < snapshot.size(); i++) {
+                mixed |= snapshot.getValue(i) != time;
+            }
+            mixed |= time < last;
+            last = time;
+        }
+        writer.join();
+        assertFalse(mixed);
+        assertEquals(cycles, data.getSnapshot().get("PRES_OBS"), 0);
+    }
+
+}
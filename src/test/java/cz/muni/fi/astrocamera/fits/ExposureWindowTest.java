@@ -0,0 +1,61 @@
+package cz.muni.fi.astrocamera.fits;
+
+import nom.tam.fits.Header;
+import nom.tam.fits.HeaderCardException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Start, end and midpoint of exposure read from FITS header.
+ *
+ * @author Karel Auf
+ */
+public class ExposureWindowTest {
+
+    //2018-02-03T20:15:30Z
+    private static final long START = 1517688930000L;
+
+    @Test
+    public void dateWithFraction() throws HeaderCardException {
+        Header hdr = new Header();
+        hdr.addValue("DATE-OBS", "2018-02-03T20:15:30.25", "");
+        hdr.addValue("EXPTIME", 30.0, "");
+        ExposureWindow window = ExposureWindow.of(hdr);
+        assertEquals(START + 250, window.getStart());
+        assertEquals(START + 30250, window.getEnd());
+        assertEquals(START + 15250, window.getMidpoint());
+    }
+
+    @Test
+    public void dateAndTime() throws HeaderCardException {
+        Header hdr = new Header();
+        hdr.addValue("DATE-OBS", "2018-02-03", "");
+        hdr.addValue("TIME-OBS", "20:15:30", "");
+        hdr.addValue("EXPOSURE", 2.5, "");
+        ExposureWindow window = ExposureWindow.of(hdr);
+        assertEquals(START, window.getStart());
+        assertEquals(START + 2500, window.getEnd());
+    }
+
+    @Test
+    public void julianDate() throws HeaderCardException {
+        Header hdr = new Header();
+        hdr.addValue("DATE-OBS", "not a date", "");
+        hdr.addValue("JD", 2440588.0, "");
+        ExposureWindow window = ExposureWindow.of(hdr);
+        //noon of 1970-01-01, no exposure time
+        assertEquals(43200000, window.getStart());
+        assertEquals(window.getStart(), window.getMidpoint());
+    }
+
+    @Test
+    public void noStart() throws HeaderCardException {
+        Header hdr = new Header();
+        hdr.addValue("EXPTIME", 30.0, "");
+        assertNull(ExposureWindow.of(hdr));
+        hdr.addValue("DATE-OBS", "2018-02-31T20:15:30", "");
+        assertNull(ExposureWindow.of(hdr));
+    }
+
+}
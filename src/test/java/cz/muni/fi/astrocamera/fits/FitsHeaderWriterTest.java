@@ -0,0 +1,231 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.Header;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Header updates in place and through new file, the image data must stay
+ * untouched. Recovery of files left by interrupted updates.
+ *
+ * @author Karel Auf
+ */
+public class FitsHeaderWriterTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.getRoot().toPath().resolve("frame.fits");
+        Files.write(file, fits(0));
+    }
+
+    /**
+     * Creates FITS file with 16 bit image and given number of extra cards
+     */
+    private static byte[] fits(int cards) {
+        StringBuilder header = new StringBuilder();
+        header.append(card("SIMPLE  =                    T"));
+        header.append(card("BITPIX  =                   16"));
+        header.append(card("NAXIS   =                    2"));
+        header.append(card("NAXIS1  =                   " + WIDTH));
+        header.append(card("NAXIS2  =                   " + HEIGHT));
+        for (int i = 0; i < cards; i++) {
+            header.append(card(String.format("%-8s= %20d", "EXTRA" + i, i)));
+        }
+        header.append(card("END"));
+        byte[] headerBytes = pad(header.toString().getBytes(StandardCharsets.US_ASCII), (byte) ' ');
+        byte[] data = pad(data(), (byte) 0);
+        byte[] bytes = Arrays.copyOf(headerBytes, headerBytes.length + data.length);
+        System.arraycopy(data, 0, bytes, headerBytes.length, data.length);
+        return bytes;
+    }
+
+    private static byte[] data() {
+        byte[] data = new byte[WIDTH * HEIGHT * 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    private static String card(String text) {
+        StringBuilder sb = new StringBuilder(text);
+        while (sb.length() < FitsStructure.CARD_SIZE) {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] pad(byte[] bytes, byte fill) {
+        int size = (bytes.length + FitsStructure.BLOCK_SIZE - 1) / FitsStructure.BLOCK_SIZE * FitsStructure.BLOCK_SIZE;
+        byte[] padded = Arrays.copyOf(bytes, size);
+        Arrays.fill(padded, bytes.length, size, fill);
+        return padded;
+    }
+
+    private void assertDataIntact() throws IOException {
+        FitsStructure structure = FitsStructure.read(file);
+        assertTrue(structure.isComplete(Files.size(file)));
+        byte[] bytes = Files.readAllBytes(file);
+        byte[] data = Arrays.copyOfRange(bytes, (int) structure.getHeaderSize(),
+                (int) structure.getHeaderSize() + WIDTH * HEIGHT * 2);
+        assertArrayEquals(data(), data);
+    }
+
+    private Object fileKey() throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+
+    private Header update(FitsHeaderWriter writer, String key, int cards) throws IOException, FitsException {
+        Header hdr = writer.readHeader();
+        for (int i = 0; i < cards; i++) {
+            hdr.addValue(key + i, i, "test card");
+        }
+        writer.writeHeader(hdr);
+        return new FitsHeaderWriter(file).readHeader();
+    }
+
+    @Test
+    public void patchInPlace() throws IOException, FitsException {
+        long size = Files.size(file);
+        Object key = fileKey();
+        Header hdr = update(new FitsHeaderWriter(file), "CARD", 10);
+        assertEquals(9, hdr.getIntValue("CARD9"));
+        assertEquals(WIDTH, hdr.getIntValue("NAXIS1"));
+        assertEquals(size, Files.size(file));
+        //the same file was written
+        assertEquals(key, fileKey());
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + FitsHeaderWriter.TEMP_SUFFIX)));
+        assertDataIntact();
+    }
+
+    @Test
+    public void patchOnlyChangedBlocks() throws IOException, FitsException {
+        //header of three blocks, the new card goes before END in the last one
+        Files.write(file, fits(80));
+        byte[] before = Files.readAllBytes(file);
+        update(new FitsHeaderWriter(file), "CARD", 1);
+        byte[] after = Files.readAllBytes(file);
+        assertEquals(before.length, after.length);
+        assertArrayEquals(Arrays.copyOf(before, 2 * FitsStructure.BLOCK_SIZE), Arrays.copyOf(after, 2 * FitsStructure.BLOCK_SIZE));
+        assertFalse(Arrays.equals(before, after));
+        assertDataIntact();
+    }
+
+    @Test
+    public void shorterHeaderKeepsDataPosition() throws IOException, FitsException {
+        Files.write(file, fits(40));
+        long size = Files.size(file);
+        FitsHeaderWriter writer = new FitsHeaderWriter(file);
+        Header hdr = writer.readHeader();
+        for (int i = 0; i < 20; i++) {
+            hdr.deleteKey("EXTRA" + i);
+        }
+        writer.writeHeader(hdr);
+        assertEquals(size, Files.size(file));
+        hdr = new FitsHeaderWriter(file).readHeader();
+        assertFalse(hdr.containsKey("EXTRA0"));
+        assertEquals(39, hdr.getIntValue("EXTRA39"));
+        assertDataIntact();
+    }
+
+    @Test
+    public void largerHeaderIsRewritten() throws IOException, FitsException {
+        long size = Files.size(file);
+        Header hdr = update(new FitsHeaderWriter(file), "CARD", 40);
+        assertEquals(39, hdr.getIntValue("CARD39"));
+        assertEquals(size + FitsStructure.BLOCK_SIZE, Files.size(file));
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + FitsHeaderWriter.TEMP_SUFFIX)));
+        assertDataIntact();
+    }
+
+    @Test
+    public void durableAlwaysRewrites() throws IOException, FitsException {
+        long size = Files.size(file);
+        Object key = fileKey();
+        Header hdr = update(new FitsHeaderWriter(file, true, FitsHeaderWriter.SyncPolicy.DIRECTORY), "CARD", 1);
+        assertEquals(0, hdr.getIntValue("CARD0"));
+        assertEquals(size, Files.size(file));
+        if (key != null) {
+            //new file replaced the original
+            assertNotEquals(key, fileKey());
+        }
+        assertDataIntact();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeWithoutRead() throws IOException, FitsException {
+        new FitsHeaderWriter(file).writeHeader(new Header());
+    }
+
+    @Test
+    public void recoverLeftovers() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        byte[] original = fits(0);
+        byte[] updated = fits(3);
+        //unfinished update, the original is valid
+        Files.write(dir.resolve("a.fits"), original);
+        Files.write(dir.resolve("a.fits" + FitsHeaderWriter.TEMP_SUFFIX), Arrays.copyOf(updated, 100));
+        //backup of file which may have been written when crashed
+        Files.write(dir.resolve("b.fits"), updated);
+        Files.write(dir.resolve("b.fits" + FitsHeaderWriter.BACKUP_SUFFIX), original);
+        //backup of cut file
+        Files.write(dir.resolve("c.fits"), Arrays.copyOf(updated, FitsStructure.BLOCK_SIZE + 10));
+        Files.write(dir.resolve("c.fits" + FitsHeaderWriter.BACKUP_SUFFIX), original);
+        //backup of missing file
+        Files.write(dir.resolve("d.fits" + FitsHeaderWriter.BACKUP_SUFFIX), original);
+        //backup cut during copying, the original was not written yet
+        Files.write(dir.resolve("e.fits"), original);
+        Files.write(dir.resolve("e.fits" + FitsHeaderWriter.BACKUP_SUFFIX), Arrays.copyOf(original, 1000));
+        //not left by update
+        Files.write(dir.resolve("notes.txt" + FitsHeaderWriter.TEMP_SUFFIX), original);
+
+        assertEquals(5, FitsHeaderWriter.recover(dir));
+        assertFalse(Files.exists(dir.resolve("a.fits" + FitsHeaderWriter.TEMP_SUFFIX)));
+        assertArrayEquals(original, Files.readAllBytes(dir.resolve("a.fits")));
+        for (String name : new String[]{"b.fits", "c.fits", "d.fits", "e.fits"}) {
+            assertFalse(Files.exists(dir.resolve(name + FitsHeaderWriter.BACKUP_SUFFIX)));
+            assertArrayEquals(name, original, Files.readAllBytes(dir.resolve(name)));
+        }
+        assertTrue(Files.exists(dir.resolve("notes.txt" + FitsHeaderWriter.TEMP_SUFFIX)));
+        assertEquals(0, FitsHeaderWriter.recover(dir));
+    }
+
+    @Test
+    public void recoverOriginalWithDamagedHeader() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        byte[] original = fits(0);
+        //crash during write in place, length and END card are fine but cards are not
+        byte[] damaged = original.clone();
+        Arrays.fill(damaged, 0, 3 * FitsStructure.CARD_SIZE, (byte) 0);
+        Files.write(file, damaged);
+        Files.write(dir.resolve("frame.fits" + FitsHeaderWriter.BACKUP_SUFFIX), original);
+        assertTrue(FitsStructure.read(file).isComplete(Files.size(file)));
+
+        assertEquals(1, FitsHeaderWriter.recover(dir));
+        assertFalse(Files.exists(dir.resolve("frame.fits" + FitsHeaderWriter.BACKUP_SUFFIX)));
+        assertArrayEquals(original, Files.readAllBytes(file));
+    }
+
+}
@@ -0,0 +1,94 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Bounds of the update pool when workers cannot keep up.
+ *
+ * @author Karel Auf
+ */
+public class FitsUpdatePoolTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger done = new AtomicInteger();
+
+    private FitsFileUpdate blocked() {
+        return new FitsFileUpdate() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                done.incrementAndGet();
+            }
+        };
+    }
+
+    private int fill(FitsUpdatePool pool) {
+        int accepted = 0;
+        while (pool.submit(blocked())) {
+            accepted++;
+            assertTrue("Pool is not bounded", accepted < 100);
+        }
+        return accepted;
+    }
+
+    @Test
+    public void waitPolicyIsBounded() throws InterruptedException {
+        FitsUpdatePool pool = new FitsUpdatePool(1, 2, 3, FitsUpdatePool.POLICY_WAIT);
+        //one running, two in queue, one held by submitter and three pending
+        long start = System.currentTimeMillis();
+        assertEquals(7, fill(pool));
+        assertTrue(System.currentTimeMillis() - start >= FitsUpdatePool.SUBMIT_TIMEOUT);
+        assertEquals(1, pool.getRejectedCount());
+        assertEquals(7, pool.getSubmittedCount());
+        assertEquals(3, pool.getPendingCount());
+        assertTrue(pool.getPeakQueueDepth() >= 5);
+        assertTrue(pool.getWaitedCount() >= 1);
+
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(7, done.get());
+        assertFalse(pool.submit(blocked()));
+        assertEquals(2, pool.getRejectedCount());
+    }
+
+    @Test
+    public void discardPolicyDropsAtOnce() throws InterruptedException {
+        FitsUpdatePool pool = new FitsUpdatePool(1, 2, 3, FitsUpdatePool.POLICY_DISCARD);
+        long start = System.currentTimeMillis();
+        assertEquals(3, fill(pool));
+        assertTrue(System.currentTimeMillis() - start < FitsUpdatePool.SUBMIT_TIMEOUT);
+        assertEquals(1, pool.getRejectedCount());
+        assertEquals(0, pool.getPendingCount());
+
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(3, done.get());
+    }
+
+    @Test
+    public void shutdownProcessesPendingFrames() throws InterruptedException {
+        FitsUpdatePool pool = new FitsUpdatePool(2, 1, 50, FitsUpdatePool.POLICY_WAIT);
+        for (int i = 0; i < 40; i++) {
+            assertTrue(pool.submit(blocked()));
+        }
+        pool.shutdown();
+        assertFalse(pool.awaitTermination(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(40, done.get());
+        assertEquals(0, pool.getRejectedCount());
+    }
+
+}
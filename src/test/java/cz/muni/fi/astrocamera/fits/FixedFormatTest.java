@@ -0,0 +1,145 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Compares FixedFormat with String.format, which rounds the decimal
+ * representation of value half up too, and times it against the BigDecimal
+ * rounding of header values it replaced.
+ *
+ * @author Karel Auf
+ */
+public class FixedFormatTest {
+
+    private static String expected(double value, int decimals) {
+        String expected = String.format(Locale.ROOT, "%." + decimals + "f", value);
+        //String.format keeps sign of negative value rounded to zero, FixedFormat doesn't like BigDecimal
+        return expected.matches("-0(\\.0*)?") ? expected.substring(1) : expected;
+    }
+
+    private static void assertSameAsFormat(double value, int decimals) {
+        assertEquals(value + " with " + decimals + " decimals", expected(value, decimals), FixedFormat.format(value, decimals));
+    }
+
+    @Test
+    public void notANumber() {
+        assertEquals("NaN", FixedFormat.format(Double.NaN, 2));
+        assertEquals("Infinity", FixedFormat.format(Double.POSITIVE_INFINITY, 2));
+        assertEquals("-Infinity", FixedFormat.format(Double.NEGATIVE_INFINITY, 2));
+    }
+
+    @Test
+    public void zero() {
+        assertSameAsFormat(0.0, 0);
+        assertSameAsFormat(0.0, 3);
+        assertEquals("0.00", FixedFormat.format(-0.0, 2));
+        assertEquals("0.00", FixedFormat.format(-0.001, 2));
+        assertEquals("0", FixedFormat.format(-0.4, 0));
+        assertEquals("0", FixedFormat.formatStripped(-0.0, 2));
+    }
+
+    @Test
+    public void negative() {
+        assertSameAsFormat(-1.5, 0);
+        assertSameAsFormat(-2.5, 0);
+        assertSameAsFormat(-0.006, 2);
+        assertSameAsFormat(-12.345678, 4);
+        assertSameAsFormat(-1013.25, 1);
+    }
+
+    @Test
+    public void roundingBoundaries() {
+        double[] values = {0.005, 0.015, 0.125, 0.145, 1.005, 1.115, 2.675, 4.35, 9.995, 99.995, 0.0049999, 123456.785, 1013.255};
+        for (double value : values) {
+            for (int decimals = 0; decimals <= 4; decimals++) {
+                assertSameAsFormat(value, decimals);
+                assertSameAsFormat(-value, decimals);
+            }
+        }
+    }
+
+    @Test
+    public void randomHalfWayValues() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int decimals = random.nextInt(FixedFormat.MAX_DECIMALS + 1);
+            //x.xx5 at the first dropped place
+            double value = (random.nextInt(2000000) - 1000000 + 0.5) / Math.pow(10, decimals);
+            assertSameAsFormat(value, decimals);
+        }
+    }
+
+    @Test
+    public void widerThanField() {
+        assertSameAsFormat(1e17, 0);
+        assertSameAsFormat(1e17, 2);
+        assertSameAsFormat(1e20, 3);
+        assertSameAsFormat(-3e19, 1);
+        assertSameAsFormat(123456789012.345, 9);
+        assertSameAsFormat(Double.MAX_VALUE, 2);
+        assertEquals("100000000000000000000", FixedFormat.formatStripped(1e20, 3));
+    }
+
+    @Test
+    public void stripped() {
+        assertEquals("1013.2", FixedFormat.formatStripped(1013.2, 3));
+        assertEquals("2", FixedFormat.formatStripped(1.9996, 3));
+        assertEquals("0.13", FixedFormat.formatStripped(0.125, 2));
+    }
+
+    /**
+     * Header value rounded the way it was before FixedFormat
+     */
+    private static String oldFormat(double value) {
+        return new BigDecimal(Double.toString(value)).setScale(1, BigDecimal.ROUND_HALF_UP).stripTrailingZeros()
+                .toPlainString();
+    }
+
+    @Test
+    public void fasterThanOldFormatting() {
+        Random random = new Random(7);
+        double[] values = new double[100000];
+        for (int i = 0; i < values.length; i++) {
+            //pressure, temperatures and wind speed
+            values[i] = random.nextDouble() * 1100 - 50;
+        }
+        long fixed = Long.MAX_VALUE;
+        long old = Long.MAX_VALUE;
+        long format = Long.MAX_VALUE;
+        int length = 0;
+        StringBuilder sb = new StringBuilder(24);
+        //the best of several rounds, the first rounds warm up JIT
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (double value : values) {
+                sb.setLength(0);
+                length += FixedFormat.append(sb, value, 1, true).length();
+            }
+            fixed = Math.min(fixed, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (double value : values) {
+                length -= oldFormat(value).length();
+            }
+            old = Math.min(old, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (double value : values) {
+                length += String.format(Locale.ROOT, "%.1f", value).length();
+            }
+            format = Math.min(format, System.nanoTime() - start);
+        }
+        String times = String.format(Locale.ROOT, "FixedFormat %.1f ms, BigDecimal %.1f ms, String.format %.1f ms per %d values",
+                fixed / 1e6, old / 1e6, format / 1e6, values.length);
+        assertTrue(times, length > 0);
+        assertTrue(times, fixed < old);
+        assertTrue(times, fixed < format);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(oldFormat(values[i]), FixedFormat.formatStripped(values[i], 1));
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package cz.muni.fi.astrocamera.fits;
+
+import cz.muni.fi.astrocamera.database.TelemetryHistory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Drift of pointing over exposure in arcseconds on sky.
+ *
+ * @author Karel Auf
+ */
+public class PointingDriftTest {
+
+    private static final double ARCSEC = 1 / 3600.0;
+
+    private static long[] times(int n) {
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = i * 1000L;
+        }
+        return times;
+    }
+
+    @Test
+    public void raDriftScaledByDeclination() {
+        //1 arcsec on sky per sample at DEC 60
+        double[] ra = new double[5];
+        for (int i = 0; i < ra.length; i++) {
+            ra[i] = 100 + i * 2 * ARCSEC;
+        }
+        PointingDrift drift = PointingDrift.compute(times(5), ra, 5, new long[]{0}, new double[]{60}, 1);
+        assertEquals(4, drift.getDeltaRa(), 1e-6);
+        assertEquals(0, drift.getDeltaDec(), 1e-9);
+        assertEquals(4, drift.getDelta(), 1e-6);
+        //distances from mean 2, 1, 0, 1, 2
+        assertEquals(Math.sqrt(2), drift.getRms(), 1e-6);
+        assertEquals(2, drift.getMax(), 1e-6);
+        assertEquals(5, drift.getSamples());
+    }
+
+    @Test
+    public void raOverZero() {
+        double[] ra = {360 - ARCSEC, 0, ARCSEC};
+        PointingDrift drift = PointingDrift.compute(times(3), ra, 3, new long[]{0}, new double[]{0}, 1);
+        assertEquals(2, drift.getDeltaRa(), 1e-6);
+        assertEquals(1, drift.getMax(), 1e-6);
+    }
+
+    @Test
+    public void declinationInterpolated() {
+        double[] ra = {10, 10, 10, 10, 10};
+        //DEC sampled less often than RA
+        long[] decTimes = {-1000, 4000};
+        double[] dec = {-5 * ARCSEC, 0};
+        PointingDrift drift = PointingDrift.compute(times(5), ra, 5, decTimes, dec, 2);
+        assertEquals(0, drift.getDeltaRa(), 1e-9);
+        assertEquals(4, drift.getDeltaDec(), 1e-6);
+        assertEquals(Math.sqrt(2), drift.getRms(), 1e-6);
+    }
+
+    @Test
+    public void fromHistory() {
+        TelemetryHistory history = new TelemetryHistory(100);
+        ExposureWindow window = new ExposureWindow(10000, 13000);
+        history.getSeries(TelemetryHistory.RA).add(9000, 50);
+        history.getSeries(TelemetryHistory.RA).add(10000, 50);
+        history.getSeries(TelemetryHistory.RA).add(11000, 50 + ARCSEC);
+        //DEC is missing
+        assertNull(PointingDrift.of(history, window));
+        history.getSeries(TelemetryHistory.DEC).add(5000, 0);
+        PointingDrift drift = PointingDrift.of(history, window);
+        assertNotNull(drift);
+        //sample before exposure is not counted
+        assertEquals(2, drift.getSamples());
+        assertEquals(1, drift.getDeltaRa(), 1e-6);
+        //single RA sample during exposure
+        assertNull(PointingDrift.of(history, new ExposureWindow(10500, 13000)));
+    }
+
+}
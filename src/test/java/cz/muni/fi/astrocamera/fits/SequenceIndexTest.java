@@ -0,0 +1,84 @@
+package cz.muni.fi.astrocamera.fits;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Sequence numbers of alternative file names shared by names of pattern.
+ *
+ * @author Karel Auf
+ */
+public class SequenceIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+
+    @Before
+    public void setUp() {
+        dir = folder.getRoot().toPath();
+    }
+
+    private Path create(String name) throws IOException {
+        return Files.createFile(dir.resolve(name));
+    }
+
+    @Test
+    public void numbersFromFolder() throws IOException {
+        create("bias__3.fits");
+        create("bias__12.fits");
+        create("flat_R_10.0__4.fits");
+        create("flat_V_5.0__7.fits");
+        create("dark__x.fits");
+        create("dark.fits");
+        SequenceIndex index = new SequenceIndex(dir);
+        assertEquals(13, index.reserve("bias", "bias"));
+        assertEquals(14, index.reserve("bias", "bias"));
+        //numbers are shared by all flats
+        assertEquals(8, index.reserve("flat*", "flat_R_10.0"));
+        assertEquals(9, index.reserve("flat*", "flat_B_2.0"));
+        assertEquals(1, index.reserve("dark", "dark"));
+        //names reserved by other pattern are counted
+        assertEquals(10, index.reserve("flat_B*", "flat_B_2.0"));
+        assertEquals(11, index.reserve("flat*", "flat_V_5.0"));
+    }
+
+    @Test
+    public void moveSkipsExistingFiles() throws IOException {
+        create("bias__1.fits");
+        SequenceIndex index = new SequenceIndex(dir);
+        //files created by other program after the index
+        create("bias__2.fits");
+        create("bias__3.fits");
+        Path source = create("frame.fits");
+        Path target = index.move(source, "bias", "bias");
+        assertEquals(dir.resolve("bias__4.fits"), target);
+        assertFalse(Files.exists(source));
+        assertTrue(Files.exists(target));
+        assertEquals(5, index.reserve("bias", "bias"));
+    }
+
+    @Test
+    public void moveGivesUp() throws IOException {
+        SequenceIndex index = new SequenceIndex(dir);
+        for (int i = 1; i <= 5; i++) {
+            create(SequenceIndex.fileName("dark", i));
+        }
+        Path source = create("frame.fits");
+        assertNull(index.move(source, "dark", "dark"));
+        assertTrue(Files.exists(source));
+        //the next attempt continues after the tried numbers
+        assertEquals(dir.resolve("dark__6.fits"), index.move(source, "dark", "dark"));
+    }
+
+}